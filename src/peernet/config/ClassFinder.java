@@ -19,13 +19,29 @@
 package peernet.config;
 
 import java.io.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.zip.*;
 
 /**
  * Provides static methods to obtain the package-qualified class name
  * of a class, given just the non-qualified name, and to obtain
  * the non-qualified name, given the package-qualified class name.
+ * <p>
+ * The index of non-qualified names is built the first time one is looked
+ * up, so runs whose configuration uses only fully-qualified names never
+ * scan the classpath. Classpath entries are scanned in parallel. The classes
+ * found in each jar file are kept in a cache file, named after a hash of the
+ * classpath, which later runs reuse for the jar files whose modification
+ * time and size did not change. Directories are always scanned again, since
+ * their classes change whenever they are recompiled.
+ * <p>
+ * The cache files are kept in the directory given by the system property
+ * <code>peernet.classfinder.cache</code>, by default the temporary directory
+ * of the JVM. Setting it to an empty string disables the cache. Setting the
+ * system property <code>peernet.classfinder.parallel</code> to false scans
+ * the classpath sequentially.
  * 
  * Inspired from some code written by David Postill (david@postill.org.uk)
  * (found in http://groups.google.com).
@@ -40,16 +56,45 @@ class ClassFinder
 //--------------------------------------------------------------------------
 //Fields and initialization
 //--------------------------------------------------------------------------
+
+/** System property of the directory of the cache files */
+private static final String PAR_CACHE = "peernet.classfinder.cache";
+
+/** System property to scan the classpath sequentially if false */
+private static final String PAR_PARALLEL = "peernet.classfinder.parallel";
+
+/** First bytes of cache files, which also identify the format version */
+private static final String CACHE_MAGIC = "peernet.ClassFinder/1";
+
+/**
+ * Holds the map of associations, which is built when this class is
+ * first initialized, that is, on the first lookup.
+ */
+private static class Index
+{
+	static final Map<String,String> map = new HashMap<String,String>(1 << 16);
 	
+	static {
+		try {
+			findClasses(map);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
+
+/** The classes of a jar file, as found in its cache entry or by parsing it */
+private static class JarClasses
+{
+	final long modified;
+	final long length;
+	final List<String> classes;
 	
-/** Local map containing the associations */
-private static Map<String,String> map = new TreeMap<String,String>();	
-	
-static {
-	try {
-		findClasses(map);
-	} catch (IOException e) {
-		e.printStackTrace();
+	JarClasses(long modified, long length, List<String> classes)
+	{
+		this.modified = modified;
+		this.length = length;
+		this.classes = classes;
 	}
 }
 	
@@ -87,7 +132,7 @@ public static String getShortName(String className) {
  */
 public static String getQualifiedName(String name)
 {
-	return map.get(name);
+	return Index.map.get(name);
 }
 
 //--------------------------------------------------------------------------
@@ -105,7 +150,7 @@ public static String getQualifiedName(String name)
  * If multiple classes with the same name but different 
  * fully-qualified names are present, they are inserted
  * in the map as associations (name, comma-separated list of
- * fully-qualified names).
+ * fully-qualified names), in classpath order.
  * 
  * @param map
  * @throws IOException
@@ -115,66 +160,136 @@ throws IOException
 {
   String classPath = System.getProperty( "java.class.path" );
   String separator = System.getProperty( "path.separator"  );
-  String filesep = System.getProperty( "file.separator");
   StringTokenizer path = new StringTokenizer( classPath, separator );
-
+  final List<String> elements = new ArrayList<String>();
   while( path.hasMoreTokens() ) {
-  	
-    String pathElement = path.nextToken();
-    File pathFile = new File( pathElement );
-    
-    if( pathFile.isDirectory() ) {
-    	if (!pathElement.endsWith(filesep)) {
-    		pathElement = pathElement + filesep;
-    		pathFile = new File( pathElement);
-    	}
-      findClassInPathDir( map, pathElement, pathFile );
-    	// Search directories
-    } else if ( pathFile.exists() ) {
-    	findClassInJar( map, pathFile);
-    }
+  	elements.add(path.nextToken());
+  }
+  
+  File cacheFile = cacheFile(classPath);
+  final Map<String,JarClasses> cached = readCache(cacheFile, classPath);
+  final Map<String,JarClasses> jars = new ConcurrentHashMap<String,JarClasses>();
+  
+  // Each element is scanned into its own list, so that they can be
+  // scanned in any order and still be merged in classpath order
+  List<Callable<List<String>>> scans = new ArrayList<Callable<List<String>>>();
+  for (final String element : elements) {
+  	scans.add(new Callable<List<String>>() {
+  		public List<String> call() throws IOException {
+  			return findClassesIn(element, cached, jars);
+  		}
+  	});
+  }
+  List<List<String>> found = new ArrayList<List<String>>();
+  if (elements.size() > 1 && !"false".equals(System.getProperty(PAR_PARALLEL))) {
+  	for (Future<List<String>> f : ForkJoinPool.commonPool().invokeAll(scans)) {
+  		try {
+  			found.add(f.get());
+  		} catch (InterruptedException e) {
+  			throw new InterruptedIOException();
+  		} catch (ExecutionException e) {
+  			if (e.getCause() instanceof IOException)
+  				throw (IOException) e.getCause();
+  			throw new RuntimeException(e.getCause());
+  		}
+  	}
+  } else {
+  	for (String element : elements) {
+  		found.add(findClassesIn(element, cached, jars));
+  	}
+  }
+  
+  for (List<String> classes : found) {
+  	for (String className : classes) {
+  		String shortName = getShortName( className );
+  		String previous = map.putIfAbsent(shortName, className);
+  		if (previous != null) {
+  			map.put(shortName, previous+","+className);
+  		}
+  	}
+  }
+  
+  // Jar files taken from the cache are the same objects, so the cache
+  // is written only if some jar file was parsed
+  boolean changed = jars.size() != cached.size();
+  for (Map.Entry<String,JarClasses> jar : jars.entrySet()) {
+  	changed |= jar.getValue() != cached.get(jar.getKey());
+  }
+  if (cacheFile != null && changed) {
+  	writeCache(cacheFile, classPath, elements, jars);
+  }
+}
+
+/**
+ * Returns the classes of the given classpath element, in the order
+ * in which they are found. The classes of jar files are taken from
+ * the cache if they are up to date, and they are added to jars in any case.
+ */
+private static List<String> findClassesIn(String pathElement,
+		Map<String,JarClasses> cached, Map<String,JarClasses> jars)
+throws IOException
+{
+  String filesep = System.getProperty( "file.separator");
+  File pathFile = new File( pathElement );
+  List<String> classes = new ArrayList<String>();
+  
+  if( pathFile.isDirectory() ) {
+  	if (!pathElement.endsWith(filesep)) {
+  		pathElement = pathElement + filesep;
+  		pathFile = new File( pathElement);
+  	}
+    findClassInPathDir( classes, pathElement, pathFile );
+  	// Search directories
+  } else if ( pathFile.exists() ) {
+  	JarClasses jar = cached.get(pathElement);
+  	long modified = pathFile.lastModified();
+  	long length = pathFile.length();
+  	if (jar == null || jar.modified != modified || jar.length != length) {
+  		findClassInJar( classes, pathFile);
+  		jar = new JarClasses(modified, length, classes);
+  	}
+  	jars.put(pathElement, jar);
+  	classes = jar.classes;
   }
+  return classes;
 }
 
 /**
  * Parses jar file.
  * 
- * @param map the map where to insert associations
+ * @param classes the list where to add the class names
  * @param pathFile the file name of the associated jar file
  * @throws IOException
  */
-private static void findClassInJar(Map<String,String> map, File pathFile)
+private static void findClassInJar(List<String> classes, File pathFile)
 throws IOException
 {
   ZipFile zipFile = new ZipFile( pathFile );
-  Enumeration entries = zipFile.entries();
-  while( entries.hasMoreElements() ) {
-  	
-    String entry = entries.nextElement().toString();
-    if( entry.endsWith( ".class" ) ) {
-    	// File names in ZIP archives (so, also in JARs) are separated by
-    	// forward slashes '/', independently from the architecture.
-      String className = classname( entry, "/" ); 
-      String shortName = getShortName( className );
-      if (map.containsKey(shortName)) {
-      	map.put(shortName, map.get(shortName)+","+className);
-      } else {
-      	map.put(shortName, className);
-      }
-    }
-   
+  try {
+  	Enumeration entries = zipFile.entries();
+  	while( entries.hasMoreElements() ) {
+  		
+  		String entry = entries.nextElement().toString();
+  		if( entry.endsWith( ".class" ) ) {
+  			// File names in ZIP archives (so, also in JARs) are separated by
+  			// forward slashes '/', independently from the architecture.
+  			classes.add(classname( entry, "/" ));
+  		}
+  	}
+  } finally {
+  	zipFile.close();
   }
 }
 
 /**
  * Recursively parses directories.
  * 
- * @param map the map where to insert associations
+ * @param classes the list where to add the class names
  * @param pathElement the path string used for recursion
  * @param pathFile the file (directory) to be analyzed
  * @throws IOException
  */
-private static void findClassInPathDir( Map<String,String> map, String 
+private static void findClassInPathDir( List<String> classes, String 
 		pathElement, File pathFile ) 
 	throws IOException
 {
@@ -184,17 +299,11 @@ private static void findClassInPathDir( Map<String,String> map, String
   for( int i = 0; i < list.length; i++ ) {
     File file = new File( pathFile, list[i] );
     if( file.isDirectory() ) {
-      findClassInPathDir( map, pathElement, file );
+      findClassInPathDir( classes, pathElement, file );
     }
 	  else if ( file.exists() && (file.length() != 0) && list[i].endsWith( ".class" ) ) {
 	    String classFile = file.toString().substring( pathElement.length());
-	    String className = classname( classFile, filesep );
-      String shortName = getShortName( className );
-      if (map.containsKey(shortName)) {
-      	map.put(shortName, map.get(shortName)+","+className);
-      } else {
-      	map.put(shortName, className);
-      }
+	    classes.add(classname( classFile, filesep ));
 	  }
   }
 }
@@ -208,6 +317,125 @@ private static String classname(String classFile, String filesep)
   return classFile.replace( filesep, "." ).substring( 0, classFile.length() - ".class".length() ); 
 }
 
+/**
+ * Returns the cache file of the given classpath, or null if the cache
+ * is disabled.
+ */
+private static File cacheFile(String classPath)
+{
+	String dir = System.getProperty(PAR_CACHE, System.getProperty("java.io.tmpdir"));
+	if (dir == null || dir.length() == 0)
+		return null;
+	return new File(dir, "peernet-classes-" + Integer.toHexString(classPath.hashCode()) + ".idx");
+}
+
+/**
+ * Reads the jar files listed in the given cache file, if it exists and
+ * it belongs to the given classpath. Otherwise, or if it cannot be read,
+ * it returns an empty map, and the classpath is scanned as a whole.
+ */
+private static Map<String,JarClasses> readCache(File cacheFile, String classPath)
+{
+	Map<String,JarClasses> cached = new HashMap<String,JarClasses>();
+	if (cacheFile == null || !cacheFile.isFile())
+		return cached;
+	try {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(cacheFile)));
+		long max = cacheFile.length();
+		try {
+			// The classpath is checked too, in case two classpaths have the
+			// same hash
+			if (!readString(in, max).equals(CACHE_MAGIC) || !readString(in, max).equals(classPath))
+				return cached;
+			int jars = in.readInt();
+			for (int i = 0; i < jars; i++) {
+				String element = readString(in, max);
+				long modified = in.readLong();
+				long length = in.readLong();
+				int count = in.readInt();
+				List<String> classes = new ArrayList<String>(count);
+				for (int k = 0; k < count; k++)
+					classes.add(readString(in, max));
+				cached.put(element, new JarClasses(modified, length, classes));
+			}
+		} finally {
+			in.close();
+		}
+	} catch (IOException e) {
+		System.err.println("Ignoring " + cacheFile + ": " + e);
+		cached.clear();
+	}
+	return cached;
+}
+
+/**
+ * Writes the given jar files to the cache file. The file is written
+ * under a temporary name and then renamed, so that concurrent runs
+ * never read a partial one. Failing to write it is not an error.
+ */
+private static void writeCache(File cacheFile, String classPath,
+		List<String> elements, Map<String,JarClasses> jars)
+{
+	File tmp = null;
+	try {
+		tmp = File.createTempFile(cacheFile.getName(), ".tmp", cacheFile.getParentFile());
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tmp)));
+		try {
+			writeString(out, CACHE_MAGIC);
+			writeString(out, classPath);
+			out.writeInt(jars.size());
+			for (String element : new LinkedHashSet<String>(elements)) {
+				JarClasses jar = jars.get(element);
+				if (jar == null)
+					continue;
+				writeString(out, element);
+				out.writeLong(jar.modified);
+				out.writeLong(jar.length);
+				out.writeInt(jar.classes.size());
+				for (String className : jar.classes)
+					writeString(out, className);
+			}
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	} catch (IOException e) {
+		System.err.println("Could not write " + cacheFile + ": " + e);
+		if (tmp != null)
+			tmp.delete();
+	}
+}
+
+/**
+ * Writes a string of any length, as its length in UTF-8 followed by its
+ * UTF-8 bytes.
+ */
+private static void writeString(DataOutputStream out, String s)
+throws IOException
+{
+	byte[] bytes = s.getBytes("UTF-8");
+	out.writeInt(bytes.length);
+	out.write(bytes);
+}
+
+/**
+ * Reads a string written by {@link #writeString}, which cannot be longer
+ * than max bytes.
+ */
+private static String readString(DataInputStream in, long max)
+throws IOException
+{
+	int length = in.readInt();
+	if (length < 0 || length > max)
+		throw new IOException("invalid string length " + length);
+	byte[] bytes = new byte[length];
+	in.readFully(bytes);
+	return new String(bytes, "UTF-8");
+}
+
 /** 
  * Testing.
  * 
@@ -215,10 +443,10 @@ private static String classname(String classFile, String filesep)
  */
 public static void main( String[] argv )
 {
-	Iterator i = map.keySet().iterator();
+	Iterator i = new TreeMap<String,String>(Index.map).keySet().iterator();
 	while (i.hasNext()) {
 		String key = (String) i.next();
-		String name = map.get(key);
+		String name = Index.map.get(key);
 		System.out.println(key + " --> " + name);
 	}
 }
@@ -18,13 +18,21 @@
 
 package peernet.config;
 
-import java.lang.reflect.*;
+import java.lang.invoke.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import org.lsmp.djep.groupJep.*;
 
 /**
  * This class is the container for the configuration data used in
  * {@link Configuration}; see that class for more information.
+ * <p>
+ * Since the configuration cannot change, lookups are compiled: the numeric
+ * value of every property that is a valid expression is evaluated once, when
+ * the container is created, and the classes, constructors and names looked
+ * up are resolved on first use and then kept. Later lookups are hash table
+ * hits, without parsing expressions or reflection. Lookups that fail are
+ * not kept, so they fail again in the same way.
  */
 public class ConfigContainer
 {
@@ -71,6 +79,24 @@ private int debugLevel;
  */
 private boolean check = false;
 
+/**
+ * The numeric values of the properties that are valid expressions. Read
+ * only once filled by the constructor.
+ */
+private Map<String, Number> values = Collections.emptyMap();
+
+/** The classes resolved by {@link #getClass(String)}, by property name */
+private final Map<String, Class<?>> classes = new ConcurrentHashMap<String, Class<?>>();
+
+/**
+ * The constructors used by {@link #getInstance(String)}, by property name,
+ * typed to take the name and return an Object
+ */
+private final Map<String, MethodHandle> constructors = new ConcurrentHashMap<String, MethodHandle>();
+
+/** The results of {@link #getNames}, by prefix */
+private final Map<String, String[]> names = new ConcurrentHashMap<String, String[]>();
+
 // =================== initialization ================================
 // ===================================================================
 
@@ -108,6 +134,28 @@ public ConfigContainer(Properties config, boolean check)
 	} else {
 		debugLevel = DEBUG_NO;
 	}
+	values = compile();
+}
+
+// -------------------------------------------------------------------
+
+/**
+ * Evaluates all properties as expressions, and returns the values of those
+ * that evaluate to numbers.
+ */
+private Map<String, Number> compile()
+{
+	Map<String, Number> result = new HashMap<String, Number>();
+	for (String name : config.stringPropertyNames()) {
+		try {
+			Number value = evaluate(name, name, 0, true);
+			if (value != null)
+				result.put(name, value);
+		} catch (RuntimeException e) {
+			// Not a number: looked up as usual, which reports the error
+		}
+	}
+	return Collections.unmodifiableMap(result);
 }
 
 // =================== static public methods =========================
@@ -325,6 +373,22 @@ public double getDouble(String name)
  * @return the evaluation of the expression associated to property
  */
 private Number getVal(String initial, String property, int depth)
+{
+	if (depth == 0) {
+		Number value = values.get(property);
+		if (value != null)
+			return value;
+	}
+	return evaluate(initial, property, depth, false);
+}
+
+// -------------------------------------------------------------------
+
+/**
+ * Implements {@link #getVal}, without looking up the compiled values. If
+ * quiet, expression errors are not printed, and null is returned instead.
+ */
+private Number evaluate(String initial, String property, int depth, boolean quiet)
 {
 	if (depth > maxdepth) {
 		throw new IllegalParameterException(initial,
@@ -345,13 +409,18 @@ private Number getVal(String initial, String property, int depth)
 	jep.parseExpression(s);
 	String[] symbols = getSymbols(jep);
 	for (int i = 0; i < symbols.length; i++) {
-		Object d = getVal(initial, symbols[i], depth + 1);
+		Object d = evaluate(initial, symbols[i], depth + 1, quiet);
+		if (d == null)
+			return null;
 		jep.addVariable(symbols[i], d);
 	}
 	Object ret = jep.getValueAsObject();
-	if (jep.hasError())
+	if (jep.hasError()) {
+		if (quiet)
+			return null;
 		System.err.println(jep.getErrorInfo());
-	return (Number) ret;
+	}
+	return quiet && !(ret instanceof Number) ? null : (Number) ret;
 }
 
 // -------------------------------------------------------------------
@@ -552,6 +621,20 @@ private Class<?> getClazz(String name)
 	}
 	debug(name, classname);
 
+	Class c = classes.get(name);
+	if (c == null) {
+		c = resolveClass(name, classname);
+		classes.put(name, c);
+	}
+	return c;
+}
+
+/**
+ * Resolves the class name of the given property, as described in
+ * {@link Configuration}.
+ */
+private Class<?> resolveClass(String name, String classname)
+{
 	Class c = null;
 
 	try {
@@ -664,25 +747,29 @@ private Object getInst(String name)
 	Class c = getClass(name);
 	if (c == null)
 		return null;
-	final String classname = c.getSimpleName();
+	MethodHandle cons = constructors.get(name);
+	if (cons == null) {
+		final String classname = c.getSimpleName();
+		try {
+			cons = MethodHandles.publicLookup().findConstructor(c,
+					MethodType.methodType(void.class, String.class))
+					.asType(MethodType.methodType(Object.class, String.class));
+		} catch (NoSuchMethodException e) {
+			throw new IllegalParameterException(name, "Class "
+					+ classname + " has no " + classname + "(String) constructor");
+		} catch (Exception e) {
+			throw new IllegalParameterException(name, e + "");
+		}
+		constructors.put(name, cons);
+	}
 
 	try {
-		Class pars[] = {String.class};
-		Constructor cons = c.getConstructor(pars);
-		Object objpars[] = {name};
-		return cons.newInstance(objpars);
-	} catch (NoSuchMethodException e) {
-		throw new IllegalParameterException(name, "Class "
-				+ classname + " has no " + classname + "(String) constructor");
-	} catch (InvocationTargetException e) {
-		if (e.getTargetException() instanceof RuntimeException) {
-			throw (RuntimeException) e.getTargetException();
-		} else {
-			e.getTargetException().printStackTrace();
-			throw new RuntimeException("" + e.getTargetException());
-		}
-	} catch (Exception e) {
-		throw new IllegalParameterException(name, e + "");
+		return (Object) cons.invokeExact(name);
+	} catch (RuntimeException e) {
+		throw e;
+	} catch (Throwable e) {
+		e.printStackTrace();
+		throw new RuntimeException("" + e);
 	}
 }
 
@@ -753,6 +840,21 @@ public Object[] getInstanceArray(String name)
  *         configuration
  */
 public String[] getNames(String name)
+{
+	String[] ret = names.get(name);
+	if (ret == null) {
+		ret = findNames(name);
+		// ordering them prints debug information, so not to be skipped
+		if (debugLevel == DEBUG_NO)
+			names.put(name, ret);
+	}
+	return ret.clone();
+}
+
+/**
+ * The actual method implementing getNames().
+ */
+private String[] findNames(String name)
 {
 	ArrayList<String> ll = new ArrayList<String>();
 	final String pref = name + ".";
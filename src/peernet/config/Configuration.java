@@ -20,13 +20,17 @@ package peernet.config;
 
 import java.util.Properties;
 
+import peernet.core.SimulationContext;
+
 /**
  * Fully static class to store configuration information. It defines a
  * method, {@link #setConfig(Properties)}, to set configuration data. This
  * method is called by the simulator engines as the very first thing they
  * do. It can be called only once, after that the class becomes read only.
  * All components can then access this configuration and utility methods to
- * read property values based on their names.
+ * read property values based on their names. Each {@link SimulationContext}
+ * has its own configuration, which is the one the static methods of this
+ * class read.
  * <p>
  * The design of this class also hides the actual implementation of the
  * configuration which can be Properties, XML, whatever. Currently only
@@ -288,9 +292,25 @@ static final String PAR_INCLUDE = "include";
 static final String PAR_PROT = "protocol";
 
 /**
- * The properties object that stores all configuration information.
+ * The configuration of a simulation.
  */
-private static ConfigContainer config = null;
+private static class State
+{
+	/**
+	 * The properties object that stores all configuration information.
+	 */
+	ConfigContainer config = null;
+}
+
+/**
+ * The configuration of each {@link SimulationContext}.
+ */
+private static final SimulationContext.Key<State> STATE = new SimulationContext.Key<State>() {
+	protected State create()
+	{
+		return new State();
+	}
+};
 
 // =================== initialization ================================
 // ===================================================================
@@ -319,19 +339,30 @@ public static void setConfig(Properties p)
 // -------------------------------------------------------------------
 
 /**
- * Sets the system-wide configuration in Properties format. It can be
- * called only once. After that the configuration becomes unmodifiable
- * (read only). If modification is attempted, a RuntimeException is thrown
- * and no change is made.
+ * Sets the configuration of the current {@link SimulationContext} in
+ * Properties format. It can be called only once per context. After that the
+ * configuration becomes unmodifiable (read only). If modification is
+ * attempted, a RuntimeException is thrown and no change is made.
  * @param p
  *          The Properties object containing configuration info
  */
 public static void setConfig(Properties p, boolean check)
 {
-	if (config != null) {
+	State state = SimulationContext.current().get(STATE);
+	if (state.config != null) {
 		throw new RuntimeException("Setting configuration was attempted twice.");
 	}
-	config = new ConfigContainer(p, check);
+	state.config = new ConfigContainer(p, check);
+}
+
+// -------------------------------------------------------------------
+
+/**
+ * Returns the configuration of the current {@link SimulationContext}.
+ */
+private static ConfigContainer config()
+{
+	return SimulationContext.current().get(STATE).config;
 }
 
 // -------------------------------------------------------------------
@@ -341,7 +372,7 @@ public static void setConfig(Properties p, boolean check)
  */
 public static boolean contains(String name)
 {
-	return config.contains(name);
+	return config().contains(name);
 }
 
 // -------------------------------------------------------------------
@@ -356,7 +387,7 @@ public static boolean contains(String name)
  */
 public static boolean getBoolean(String name, boolean def)
 {
-	return config.getBoolean(name, def);
+	return config().getBoolean(name, def);
 }
 
 // -------------------------------------------------------------------
@@ -372,7 +403,7 @@ public static boolean getBoolean(String name, boolean def)
  */
 public static boolean getBoolean(String name)
 {
-	return config.getBoolean(name);
+	return config().getBoolean(name);
 }
 
 // -------------------------------------------------------------------
@@ -387,7 +418,7 @@ public static boolean getBoolean(String name)
  */
 public static int getInt(String name, int def)
 {
-	return config.getInt(name, def);
+	return config().getInt(name, def);
 }
 
 // -------------------------------------------------------------------
@@ -400,7 +431,7 @@ public static int getInt(String name, int def)
  */
 public static int getInt(String name)
 {
-	return config.getInt(name);
+	return config().getInt(name);
 }
 
 // -------------------------------------------------------------------
@@ -415,7 +446,7 @@ public static int getInt(String name)
  */
 public static long getLong(String name, long def)
 {
-	return config.getLong(name, def);
+	return config().getLong(name, def);
 }
 
 // -------------------------------------------------------------------
@@ -428,7 +459,7 @@ public static long getLong(String name, long def)
  */
 public static long getLong(String name)
 {
-	return config.getLong(name);
+	return config().getLong(name);
 }
 
 // -------------------------------------------------------------------
@@ -443,7 +474,7 @@ public static long getLong(String name)
  */
 public static double getDouble(String name, double def)
 {
-	return config.getDouble(name, def);
+	return config().getDouble(name, def);
 }
 
 // -------------------------------------------------------------------
@@ -456,7 +487,7 @@ public static double getDouble(String name, double def)
  */
 public static double getDouble(String name)
 {
-	return config.getDouble(name);
+	return config().getDouble(name);
 }
 
 // -------------------------------------------------------------------
@@ -471,7 +502,7 @@ public static double getDouble(String name)
  */
 public static String getString(String name, String def)
 {
-	return config.getString(name, def);
+	return config().getString(name, def);
 }
 
 // -------------------------------------------------------------------
@@ -484,7 +515,7 @@ public static String getString(String name, String def)
  */
 public static String getString(String name)
 {
-	return config.getString(name);
+	return config().getString(name);
 }
 
 // -------------------------------------------------------------------
@@ -502,7 +533,7 @@ public static String getString(String name)
  */
 public static int getPid(String name)
 {
-	return config.getPid(name);
+	return config().getPid(name);
 }
 
 // -------------------------------------------------------------------
@@ -520,7 +551,7 @@ public static int getPid(String name)
  */
 public static int getPid(String name, int pid)
 {
-	return config.getPid(name, pid);
+	return config().getPid(name, pid);
 }
 
 // -------------------------------------------------------------------
@@ -534,7 +565,7 @@ public static int getPid(String name, int pid)
  */
 public static int lookupPid(String protname)
 {
-	return config.lookupPid(protname);
+	return config().lookupPid(protname);
 }
 
 // -------------------------------------------------------------------
@@ -552,7 +583,7 @@ public static int lookupPid(String protname)
  */
 public static String lookupPid(int pid)
 {
-	return config.lookupPid(pid);
+	return config().lookupPid(pid);
 }
 
 // -------------------------------------------------------------------
@@ -567,7 +598,7 @@ public static String lookupPid(int pid)
  */
 public static Class getClass(String name)
 {
-	return config.getClass(name);
+	return config().getClass(name);
 }
 
 // -------------------------------------------------------------------
@@ -583,7 +614,7 @@ public static Class getClass(String name)
  */
 public static Class getClass(String name, Class def)
 {
-	return config.getClass(name, def);
+	return config().getClass(name, def);
 }
 
 // -------------------------------------------------------------------
@@ -603,7 +634,7 @@ public static Class getClass(String name, Class def)
  */
 public static Object getInstance(String name)
 {
-	return config.getInstance(name);
+	return config().getInstance(name);
 }
 
 // -------------------------------------------------------------------
@@ -625,7 +656,7 @@ public static Object getInstance(String name)
  */
 public static Object getInstance(String name, Object def)
 {
-	return config.getInstance(name, def);
+	return config().getInstance(name, def);
 }
 
 // -------------------------------------------------------------------
@@ -640,7 +671,7 @@ public static Object getInstance(String name, Object def)
  */
 public static Object[] getInstanceArray(String name)
 {
-	return config.getInstanceArray(name);
+	return config().getInstanceArray(name);
 }
 
 // -------------------------------------------------------------------
@@ -659,7 +690,7 @@ public static Object[] getInstanceArray(String name)
  */
 public static String[] getNames(String name)
 {
-	return config.getNames(name);
+	return config().getNames(name);
 }
 
 public static String suffix(String name)
@@ -0,0 +1,393 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.core;
+
+import java.util.Arrays;
+
+import peernet.transport.Address;
+
+
+
+
+
+/**
+ * Calendar queue (R. Brown, CACM 1988) used to maintain events sorted by
+ * scheduled time. Events are hashed by time into an array of buckets, each
+ * covering a time interval ("day") of fixed width, with the whole array
+ * covering a "year". Each bucket is a list sorted by time. Extraction scans
+ * the buckets from the current day onwards, so that insertion and extraction
+ * take amortized O(1) time as long as the bucket width matches the average
+ * distance between consecutive events. The number of buckets follows the
+ * number of pending events, and the width is re-estimated from a sample of the
+ * pending events every time the calendar is resized.
+ * <p>
+ * This fits well the mostly periodic event times produced by
+ * {@link Schedule}, where the binary {@link Heap} pays O(log n) per operation.
+ * Events with equal times are extracted in insertion order.
+ * <p>
+ * As in {@link Heap}, events are not stored as objects, but in parallel arrays
+ * forming a pool of entries that are recycled through a free list, so that no
+ * garbage is generated in the steady state.
+ */
+/*package*/ class CalendarQueue implements EventQueue
+{
+  // --------------------------------------------------------------------------
+  // Constants
+  // --------------------------------------------------------------------------
+  /** Minimum (and initial) number of buckets */
+  private static final int MIN_BUCKETS = 16;
+
+  /** Initial size of the entry pool */
+  private static final int SIZE = 16;
+
+  /** Number of events sampled to estimate the bucket width */
+  private static final int SAMPLE = 64;
+
+  /** End of list marker */
+  private static final int NIL = -1;
+
+  // --------------------------------------------------------------------------
+  // Fields
+  // --------------------------------------------------------------------------
+  /** Time component of the entries */
+  private long[] times;
+  /** Src component of the entries */
+  private Address[] srcs;
+  /** Node component of the entries */
+  private Node[] nodes;
+  /** Type component of the entries, see {@link EventType} */
+  private int[] types;
+  /** Event component of the entries */
+  private Object[] events;
+  /** Next entry in the same bucket, or in the free list */
+  private int[] next;
+  /** Head of the free list */
+  private int free = NIL;
+  /** Number of pool entries that have ever been used */
+  private int used = 0;
+
+  /** First entry of each bucket, or NIL */
+  private int[] buckets;
+  /** buckets.length-1, the number of buckets being a power of two */
+  private int mask;
+  /** Log2 of the bucket width */
+  private int shift;
+  /**
+   * The day (i.e., time>>shift) where the scan for the next event starts. No
+   * pending event belongs to an earlier day.
+   */
+  private long day = Long.MAX_VALUE;
+
+  /** Number of elements */
+  private int size;
+  /** Scratch space for width estimation */
+  private final long[] sample = new long[SAMPLE];
+  /** Singleton event object used to return (event, time, node, type) tuples */
+  private final Event ev = new Event();
+
+
+
+  // --------------------------------------------------------------------------
+  // Constructor
+  // --------------------------------------------------------------------------
+  /**
+   * Initializes a new, empty calendar queue.
+   */
+  public CalendarQueue()
+  {
+    times = new long[SIZE];
+    srcs = new Address[SIZE];
+    nodes = new Node[SIZE];
+    types = new int[SIZE];
+    events = new Object[SIZE];
+    next = new int[SIZE];
+
+    buckets = new int[MIN_BUCKETS];
+    Arrays.fill(buckets, NIL);
+    mask = MIN_BUCKETS-1;
+    shift = 0;
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  // Methods
+  // --------------------------------------------------------------------------
+  public int size()
+  {
+    return size;
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  public void add(long time, Address src, Node node, int type, Object event)
+  {
+    int e = allocate();
+    times[e] = time;
+    srcs[e] = src;
+    nodes[e] = node;
+    types[e] = type;
+    events[e] = event;
+    insert(e);
+
+    size++;
+    if (size>2*buckets.length)
+      resize(2*buckets.length);
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  public Event removeFirst()
+  {
+    if (size==0)
+      return null;
+
+    int b = findFirst();
+    int e = buckets[b];
+    buckets[b] = next[e];
+
+    ev.time = times[e];
+    ev.src = srcs[e];
+    ev.node = nodes[e];
+    ev.type = types[e];
+    ev.event = events[e];
+    release(e);
+
+    size--;
+    if (size==0)
+      day = Long.MAX_VALUE;
+    else if (size<buckets.length/2 && buckets.length>MIN_BUCKETS)
+      resize(buckets.length/2);
+    return ev;
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  public long getNextTime()
+  {
+    if (size==0)
+      return Long.MAX_VALUE; // Wait indefinitely, till notified
+
+    int b = findFirst(); // may reallocate the buckets
+    return times[buckets[b]];
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  /**
+   * Prints the time values contained in the queue, bucket by bucket.
+   */
+  public String toString()
+  {
+    StringBuffer buffer = new StringBuffer();
+    buffer.append("[Size: "+size+" Buckets: "+buckets.length+" Width: "+(1L<<shift)+" Times: ");
+    for (int b = 0; b<buckets.length; b++)
+      for (int e = buckets[b]; e!=NIL; e = next[e])
+        buffer.append(times[e]+",");
+    buffer.append("]");
+    return buffer.toString();
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  // Private methods
+  // --------------------------------------------------------------------------
+  /**
+   * Links entry <code>e</code> in its bucket, after any entries with the same
+   * or smaller time.
+   */
+  private void insert(int e)
+  {
+    long time = times[e];
+    long d = time>>shift;
+    if (d<day)
+      day = d;
+
+    int b = (int) d&mask;
+    int p = buckets[b];
+    if (p==NIL || times[p]>time)
+    {
+      next[e] = p;
+      buckets[b] = e;
+    }
+    else
+    {
+      while (next[p]!=NIL && times[next[p]]<=time)
+        p = next[p];
+      next[e] = next[p];
+      next[p] = e;
+    }
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  /**
+   * Returns the bucket whose first entry is the earliest pending event. It
+   * also advances the current day up to that event. Assumes the queue is not
+   * empty.
+   */
+  private int findFirst()
+  {
+    // Scan one year of buckets, starting at the current day
+    for (int i = 0; i<=mask; i++)
+    {
+      int b = (int) day&mask;
+      int e = buckets[b];
+      if (e!=NIL && (times[e]>>shift)==day)
+        return b;
+      day++;
+    }
+
+    // Nothing in the coming year: the width does not fit the events any more.
+    // Recompute it, and look directly for the minimum.
+    resize(buckets.length);
+    int minb = NIL;
+    long mintime = Long.MAX_VALUE;
+    for (int b = 0; b<buckets.length; b++)
+    {
+      int e = buckets[b];
+      if (e!=NIL && (minb==NIL || times[e]<mintime))
+      {
+        minb = b;
+        mintime = times[e];
+      }
+    }
+    day = mintime>>shift;
+    return minb;
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  /**
+   * Re-estimates the bucket width, and redistributes all entries over
+   * <code>nbuckets</code> buckets.
+   */
+  private void resize(int nbuckets)
+  {
+    shift = estimateShift();
+
+    int[] old = buckets;
+    buckets = new int[nbuckets];
+    Arrays.fill(buckets, NIL);
+    mask = nbuckets-1;
+    day = Long.MAX_VALUE;
+
+    for (int b = 0; b<old.length; b++)
+    {
+      int e = old[b];
+      while (e!=NIL)
+      {
+        int n = next[e];
+        insert(e);
+        e = n;
+      }
+    }
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  /**
+   * Estimates the bucket width as three times the average distance between
+   * consecutive events, based on a sample of the pending events. Following
+   * Brown, distances larger than twice the average are discarded as outliers.
+   *
+   * @return the log2 of the bucket width
+   */
+  private int estimateShift()
+  {
+    if (size<2)
+      return shift;
+
+    // Take every stride-th entry, in bucket order
+    int stride = Math.max(1, size/SAMPLE);
+    int m = 0;
+    int k = 0;
+    for (int b = 0; b<buckets.length && m<SAMPLE; b++)
+      for (int e = buckets[b]; e!=NIL && m<SAMPLE; e = next[e])
+        if (k++%stride==0)
+          sample[m++] = times[e];
+    if (m<2)
+      return shift;
+    Arrays.sort(sample, 0, m);
+
+    double avg = (double) (sample[m-1]-sample[0])/(m-1);
+    double sum = 0;
+    int count = 0;
+    for (int i = 1; i<m; i++)
+    {
+      long gap = sample[i]-sample[i-1];
+      if (gap<=2*avg)
+      {
+        sum += gap;
+        count++;
+      }
+    }
+    if (count>0)
+      avg = sum/count;
+
+    // The sample spans all events, so distances shrink by the sampling ratio
+    double width = 3*avg*m/size;
+    int s = 0;
+    while (s<62 && (1L<<s)<width)
+      s++;
+    return s;
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  /**
+   * Returns a free entry of the pool, growing the pool if needed.
+   */
+  private int allocate()
+  {
+    if (free!=NIL)
+    {
+      int e = free;
+      free = next[e];
+      return e;
+    }
+    if (used==times.length)
+      doubleCapacity();
+    return used++;
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  /**
+   * Returns an entry to the free list, clearing its references.
+   */
+  private void release(int e)
+  {
+    srcs[e] = null;
+    nodes[e] = null;
+    events[e] = null;
+    next[e] = free;
+    free = e;
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  private void doubleCapacity()
+  {
+    int newsize = times.length*2;
+    times = Arrays.copyOf(times, newsize);
+    srcs = Arrays.copyOf(srcs, newsize);
+    nodes = Arrays.copyOf(nodes, newsize);
+    types = Arrays.copyOf(types, newsize);
+    events = Arrays.copyOf(events, newsize);
+    next = Arrays.copyOf(next, newsize);
+  }
+}
@@ -0,0 +1,279 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.core;
+
+import java.util.PriorityQueue;
+
+
+
+
+
+/**
+ * Fixed pool of carrier threads executing the events of many nodes in
+ * {@link EngineNet}, as an alternative to one execution thread per node. Each
+ * node's heap is registered as a {@link Task}. A task is queued by the time of
+ * its earliest event, and is picked up by an idle carrier once that time has
+ * come, which then executes the node's due events and queues the task again
+ * for its next event. So, events are still executed in real time, while the
+ * number of threads does not depend on the number of nodes.
+ * <p>
+ * A task is run by at most one carrier at a time, so the events of a node are
+ * executed sequentially and in order, as with a dedicated thread. The events of
+ * a task are executed in batches of at most {@value #BATCH}, to keep busy nodes
+ * from starving the others.
+ * <p>
+ * Adding an event takes the pool's lock only if the task has to be queued,
+ * because it is idle or its event is earlier than the one it is queued by.
+ * Events added to a running or already earlier queued task are seen by its
+ * carrier without any locking.
+ */
+/*package*/ class CarrierPool
+{
+  /** Maximum number of events executed per task pick-up */
+  private static final int BATCH = 64;
+
+  /** {@link Task#due} of a task whose events a carrier is executing */
+  private static final long RUNNING = Long.MIN_VALUE;
+
+  /** {@link Task#due} of a task whose node has finished executing events */
+  private static final long DONE = Long.MIN_VALUE+1;
+
+  /**
+   * The execution state of a node's heap.
+   */
+  class Task
+  {
+    final EventQueue heap;
+
+    /**
+     * The key by which the task is queued, Long.MAX_VALUE if it is idle, or
+     * {@link CarrierPool#RUNNING} or {@link CarrierPool#DONE}. It is only
+     * written under the pool's lock, but read without it by
+     * {@link CarrierPool#wake}.
+     */
+    volatile long due = Long.MAX_VALUE;
+
+    Task(EventQueue heap)
+    {
+      this.heap = heap;
+    }
+  }
+
+
+
+  /**
+   * A task queued by the key of its earliest event. Entries that have become
+   * stale, because the task was queued again with an earlier key, are skipped.
+   */
+  private static class Entry implements Comparable<Entry>
+  {
+    final long key;
+    final Task task;
+
+    Entry(long key, Task task)
+    {
+      this.key = key;
+      this.task = task;
+    }
+
+    public int compareTo(Entry other)
+    {
+      return Long.compare(key, other.key);
+    }
+  }
+
+
+
+  private final EngineNet engine;
+
+  private final Carrier[] carriers;
+
+  /** Tasks by due time; guarded by this pool's monitor */
+  private final PriorityQueue<Entry> queue = new PriorityQueue<Entry>();
+
+  /** Number of registered tasks that are not done yet */
+  private int active = 0;
+
+
+
+  CarrierPool(EngineNet engine, int threads)
+  {
+    this.engine = engine;
+    carriers = new Carrier[threads];
+    for (int i = 0; i<threads; i++)
+      carriers[i] = new Carrier(i);
+  }
+
+
+
+  /**
+   * Registers a heap, to be executed by the pool.
+   */
+  synchronized Task register(EventQueue heap)
+  {
+    active++;
+    return new Task(heap);
+  }
+
+
+
+  /**
+   * Starts the carriers, and queues all registered tasks that have events.
+   */
+  void start(Task[] tasks)
+  {
+    for (Task task: tasks)
+      wake(task, task.heap.getNextTime());
+    for (Carrier carrier: carriers)
+      carrier.start();
+  }
+
+
+
+  /**
+   * Notifies the pool that an event with the given key has been added to the
+   * heap of a task. To be called after the event has been added.
+   */
+  void wake(Task task, long key)
+  {
+    // A running task is queued again by its carrier, which will see the event,
+    // as release() marks the task idle before it looks at the heap. A task
+    // queued by an earlier key will be taken in time for this event.
+    long due = task.due;
+    if (due==RUNNING || due==DONE || key>=due)
+      return;
+    enqueue(task, key);
+  }
+
+
+
+  /**
+   * Queues a task by the given key, unless it is running, done, or already
+   * queued by an earlier key.
+   */
+  private synchronized void enqueue(Task task, long key)
+  {
+    long due = task.due;
+    if (due==RUNNING || due==DONE || key>=due)
+      return;
+    task.due = key;
+    Entry entry = new Entry(key, task);
+    queue.add(entry);
+    if (queue.peek()==entry)
+      notify();
+  }
+
+
+
+  /**
+   * Waits until the earliest queued task is due, and takes it.
+   *
+   * @return the task, or null if all tasks are done
+   */
+  private synchronized Task take()
+  {
+    while (true)
+    {
+      if (active==0)
+      {
+        notifyAll();
+        return null;
+      }
+
+      Entry entry = queue.peek();
+      if (entry==null)
+      {
+        waitFor(0);
+        continue;
+      }
+      Task task = entry.task;
+      if (task.due!=entry.key)
+      {
+        queue.poll(); // stale
+        continue;
+      }
+      long remainingTime = (entry.key>>Engine.instance().rbits)-CommonState.getTime();
+      if (remainingTime>0)
+      {
+        waitFor(remainingTime);
+        continue;
+      }
+
+      queue.poll();
+      task.due = RUNNING;
+      if (!queue.isEmpty()) // let another carrier look at the next task
+        notify();
+      return task;
+    }
+  }
+
+
+
+  /**
+   * Releases a task taken by {@link #take}, queueing it again for its next
+   * event, if any.
+   */
+  private synchronized void release(Task task, boolean exit)
+  {
+    if (exit)
+    {
+      task.due = DONE;
+      active--;
+      return;
+    }
+    // Mark the task idle before looking at the heap: an event added meanwhile
+    // is either seen here, or its producer sees the task idle and queues it.
+    task.due = Long.MAX_VALUE;
+    // Still the only consumer of the heap, as no carrier can take it meanwhile
+    long next = task.heap.getNextTime();
+    if (next<Long.MAX_VALUE)
+      enqueue(task, next);
+  }
+
+
+
+  private void waitFor(long millis)
+  {
+    try
+    {
+      wait(millis);
+    }
+    catch (InterruptedException e)
+    {
+      e.printStackTrace();
+    }
+  }
+
+
+
+  /**
+   * Thread executing the events of due tasks.
+   */
+  private class Carrier extends Thread
+  {
+    Carrier(int index)
+    {
+      super("carrier-"+index);
+    }
+
+    public void run()
+    {
+      Task task;
+      while ((task = take())!=null)
+      {
+        boolean exit = false;
+        for (int i = 0; i<BATCH && !exit; i++)
+        {
+          if ((task.heap.getNextTime()>>Engine.instance().rbits)>CommonState.getTime())
+            break;
+          // Only this carrier consumes events of the heap, so the event
+          // object is not overwritten while it executes.
+          exit = engine.executeNext(task.heap.removeFirst());
+        }
+        release(task, exit);
+      }
+    }
+  }
+}
@@ -37,20 +37,6 @@ import peernet.util.ExtendedRandom;
  */
 public class CommonState
 {
-  /**
-   * Current time. Note that this value is simulator independent, all simulation
-   * models have a notion related to time. For example, in the cycle based
-   * model, the cycle id gives time, while in even driven simulations there is a
-   * more realistic notion of time.
-   */
-  private static long time = 0;
-
-  /**
-   * The maxival value {@link #time} can ever take.
-   */
-  private static long endTime = -1;
-  private static long zeroTime = -1;
-
   /**
    * Number of used bits in the long representation of time, calculated based on
    * the endtime.
@@ -58,13 +44,13 @@ public class CommonState
 //  private static int toshift = -1;
 
   /**
-   * This source of randomness should be used by all components. This field is
-   * public because it doesn't matter if it changes during an experiment
-   * (although it shouldn't) until no other sources of randomness are used
-   * within the system. Besides, we can save the cost of calling a wrapper
-   * method, which is important because this is needed very often.
+   * This source of randomness should be used by all components. It draws from
+   * the random generator of the current {@link SimulationContext}, which is
+   * created on first use according to the configuration. The field is public
+   * to save the cost of calling a getter method, which is important because
+   * this is needed very often.
    */
-  public static ExtendedRandom r = null;
+  public static final ExtendedRandom r = new ContextRandom();
 
 
   // ======================== initialization =========================
@@ -88,18 +74,6 @@ public class CommonState
    */
   public static final String PAR_SEED = "random.seed";
 
-  /**
-   * Initializes the field {@link r} according to the configuration. Assumes
-   * that the configuration is already loaded.
-   */
-  static
-  {
-    long seed = Configuration.getLong(PAR_SEED, System.currentTimeMillis());
-    initializeRandom(seed);
-  }
-
-
-
   /** Does nothing. To avoid construction but allow extension. */
   protected CommonState()
   {
@@ -112,7 +86,8 @@ public class CommonState
   /**
    * Returns current time.
    * 
-   * In SIM mode, this is the simulation time (in ticks).
+   * In SIM mode, this is the simulation time (in ticks). In parallel SIM mode,
+   * this is the time of the event being executed by the calling thread.
    * 
    * In EMU and NET mode, this is the number of milliseconds elapsed since
    * the start of the experiment. Note that time starts counting 
@@ -123,24 +98,31 @@ public class CommonState
    */
   public static long getTime()
   {
-    if (Engine.getType()==Type.SIM)
-      return time;
+    SimulationContext context = Engine.context();
+    if (context.type==Type.SIM)
+    {
+      // In parallel simulations, each worker thread keeps its own time
+      if (context.parallel && Thread.currentThread() instanceof EngineSimParallel.Worker)
+        return ((EngineSimParallel.Worker) Thread.currentThread()).time;
+      return context.time;
+    }
     else
     {
-      if (zeroTime==-1)
+      if (context.zeroTime==-1)
         return 0;
       else
-        return System.currentTimeMillis()-zeroTime;
+        return System.currentTimeMillis()-context.zeroTime;
     }
   }
 
 
   static void timeStartsNow()
   {
-    if (zeroTime!=-1)
+    SimulationContext context = SimulationContext.current();
+    if (context.zeroTime!=-1)
       throw new IllegalStateException("Cannot reset time to zero for a second time");
 
-    zeroTime = System.currentTimeMillis();
+    context.zeroTime = System.currentTimeMillis();
   }
 
   /**
@@ -148,7 +130,7 @@ public class CommonState
    */
   static void setTime(long t)
   {
-    time = t;
+    SimulationContext.current().time = t;
   }
 
 
@@ -159,7 +141,7 @@ public class CommonState
    */
   public static long getEndTime()
   {
-    return endTime;
+    return SimulationContext.current().endTime;
   }
 
 
@@ -169,23 +151,50 @@ public class CommonState
    */
   public static void setEndTime(long t)
   {
-    if (endTime>=0)
+    SimulationContext context = SimulationContext.current();
+    if (context.endTime>=0)
       throw new RuntimeException("You can set endtime only once");
 
     if (t<0)
       throw new RuntimeException("No negative values are allowed");
 
-    endTime = t;
+    context.endTime = t;
   }
 
 
 
   public static void initializeRandom(long seed)
   {
-    if (r==null)
-      r = (ExtendedRandom) Configuration.getInstance(PAR_RANDOM, new ExtendedRandom(seed));
+    SimulationContext context = SimulationContext.current();
+    if (context.random==null)
+      context.random = (ExtendedRandom) Configuration.getInstance(PAR_RANDOM, new ExtendedRandom(seed));
 
-    r.setSeed(seed);
+    context.random.setSeed(seed);
+  }
+
+
+
+  /**
+   * Returns the random generator of the current context, initializing it
+   * according to the configuration on first use.
+   */
+  static ExtendedRandom random()
+  {
+    SimulationContext context = SimulationContext.current();
+    if (context.random==null)
+      initializeRandom(Configuration.getLong(PAR_SEED, System.currentTimeMillis()));
+    return context.random;
+  }
+
+
+
+  /**
+   * Replaces the random generator of the current context, which {@link #r}
+   * draws from.
+   */
+  static void setRandom(ExtendedRandom random)
+  {
+    SimulationContext.current().random = random;
   }
 
 
@@ -194,4 +203,94 @@ public class CommonState
   {
     return Engine.instance().pendingEvents();
   }
+
+
+
+  // ---------------------------------------------------------------------
+  // ContextRandom
+  // ---------------------------------------------------------------------
+  /**
+   * Random generator that draws from the generator of the current
+   * {@link SimulationContext}.
+   */
+  private static class ContextRandom extends ExtendedRandom
+  {
+    private static final long serialVersionUID = 1;
+
+    /** False while the super constructor runs */
+    private final boolean constructed;
+
+
+
+    ContextRandom()
+    {
+      super(0);
+      constructed = true;
+    }
+
+
+
+    public int nextInt()
+    {
+      return random().nextInt();
+    }
+
+    public int nextInt(int n)
+    {
+      return random().nextInt(n);
+    }
+
+    public long nextLong()
+    {
+      return random().nextLong();
+    }
+
+    public long nextLong(long n)
+    {
+      return random().nextLong(n);
+    }
+
+    public double nextDouble()
+    {
+      return random().nextDouble();
+    }
+
+    public float nextFloat()
+    {
+      return random().nextFloat();
+    }
+
+    public boolean nextBoolean()
+    {
+      return random().nextBoolean();
+    }
+
+    public double nextGaussian()
+    {
+      return random().nextGaussian();
+    }
+
+    public void nextBytes(byte[] bytes)
+    {
+      random().nextBytes(bytes);
+    }
+
+    public int nextPoisson(double mean)
+    {
+      return random().nextPoisson(mean);
+    }
+
+    public void setSeed(long seed)
+    {
+      if (!constructed) // called by the super constructor
+        super.setSeed(seed);
+      else
+        random().setSeed(seed);
+    }
+
+    public long getLastSeed()
+    {
+      return random().getLastSeed();
+    }
+  }
 }
@@ -0,0 +1,129 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.core;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import peernet.config.Configuration;
+
+
+
+
+
+/**
+ * Throughput benchmark of independent simulations run concurrently in one
+ * JVM, each in its own {@link SimulationContext}. It runs a batch of
+ * experiments of the synthetic gossip protocol of {@link ParallelBenchmark},
+ * differing only in their seed, first one at a time, and then by an
+ * increasing number of threads. It reports the throughput in experiments per
+ * second, and checks that every experiment reaches the same final state no
+ * matter how many others run along with it.
+ * <p>
+ * Usage: <code>java peernet.core.ContextBenchmark [size [duration
+ * [experiments [maxthreads]]]]</code>
+ */
+public class ContextBenchmark
+{
+  public static void main(String[] args) throws InterruptedException
+  {
+    int size = args.length>0 ? Integer.parseInt(args[0]) : 20000;
+    long duration = args.length>1 ? Long.parseLong(args[1]) : 20000;
+    int experiments = args.length>2 ? Integer.parseInt(args[2]) : 8;
+    int maxThreads = args.length>3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+    Properties base = new Properties();
+    base.setProperty("engine.mode", "sim");
+    base.setProperty("engine.duration", String.valueOf(duration));
+    base.setProperty("network.size", String.valueOf(size));
+    base.setProperty("sim.transport", "peernet.transport.UniformRandomTransport");
+    base.setProperty("sim.transport.mindelay", "50");
+    base.setProperty("sim.transport.maxdelay", "150");
+    base.setProperty("protocol.gossip", ParallelBenchmark.Gossip.class.getName());
+    base.setProperty("protocol.gossip.step", "1000");
+    base.setProperty("protocol.gossip.randstart", "");
+    base.setProperty("protocol.gossip.peer", Peer.class.getName());
+
+    System.out.println("size "+size+", duration "+duration+", experiments "+experiments+", processors "
+        +Runtime.getRuntime().availableProcessors());
+    run(base, 1, 1, new long[1]); // warm-up
+
+    long[] reference = new long[experiments];
+    double serial = run(base, experiments, 1, reference);
+    System.out.println("threads\texperiments/s\tspeedup");
+    System.out.printf("%d\t%.2f\t%.2f\n", 1, serial, 1.0);
+    for (int threads = 2; threads<=maxThreads; threads = (threads<maxThreads && 2*threads>maxThreads) ? maxThreads : 2*threads)
+    {
+      long[] digests = new long[experiments];
+      double throughput = run(base, experiments, threads, digests);
+      System.out.printf("%d\t%.2f\t%.2f\n", threads, throughput, throughput/serial);
+      for (int k = 0; k<experiments; k++)
+        if (digests[k]!=reference[k])
+          System.out.println("ERROR: experiment "+k+" differs from the run without concurrent experiments");
+    }
+  }
+
+
+
+  /**
+   * Runs the given number of experiments, with seeds 1, 2, ..., by the given
+   * number of threads, and returns the throughput in experiments per second.
+   * The digest of the final state of each experiment is stored in
+   * <code>digests</code>.
+   */
+  private static double run(final Properties base, final int experiments, int threads, final long[] digests)
+      throws InterruptedException
+  {
+    final AtomicInteger next = new AtomicInteger();
+    Thread[] workers = new Thread[Math.min(threads, experiments)];
+    long begin = System.nanoTime();
+    for (int t = 0; t<workers.length; t++)
+    {
+      workers[t] = new Thread()
+      {
+        public void run()
+        {
+          for (int k = next.getAndIncrement(); k<experiments; k = next.getAndIncrement())
+            digests[k] = runExperiment(base, k+1);
+        }
+      };
+      workers[t].start();
+    }
+    for (Thread w: workers)
+      w.join();
+    long time = System.nanoTime()-begin;
+    return experiments*1e9/time;
+  }
+
+
+
+  /**
+   * Runs one experiment with the given seed in a new context, and returns a
+   * digest of the final state of all {@link ParallelBenchmark.Gossip}
+   * instances.
+   */
+  private static long runExperiment(Properties base, long seed)
+  {
+    SimulationContext previous = new SimulationContext().bind();
+    try
+    {
+      Properties p = new Properties();
+      p.putAll(base);
+      p.setProperty("random.seed", String.valueOf(seed));
+      Configuration.setConfig(p);
+      Engine.instance().startExperiment();
+
+      int pid = Configuration.lookupPid("gossip");
+      long digest = 0;
+      for (int i = 0; i<Network.size(); i++)
+        digest = digest*31+((ParallelBenchmark.Gossip) Network.get(i).getProtocol(pid)).value;
+      return digest;
+    }
+    finally
+    {
+      SimulationContext.restore(previous);
+    }
+  }
+}
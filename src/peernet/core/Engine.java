@@ -33,8 +33,9 @@ import peernet.transport.Address;
 
 
 /**
- * Event-driven simulator engine. It is a fully static singleton class. For an
- * event driven simulation the configuration has to describe a set of
+ * Event-driven simulator engine. There is one engine per
+ * {@link SimulationContext}, returned by {@link #instance}. For an event
+ * driven simulation the configuration has to describe a set of
  * {@link Protocol}s, a set of {@link Control}s and their ordering and a set of
  * initializers and their ordering. See parameters {@value #PAR_INIT},
  * {@value #PAR_CONTROL}.
@@ -47,9 +48,14 @@ import peernet.transport.Address;
  * control, the control is executed, otherwise the event is delivered to the
  * destination protocol, that must implement {@link EDProtocol}. This is
  * iterated while the current time is less than {@value #PAR_DURATION} or the
- * queue becomes empty. If more control events fall at the same time point, then
+ * queue becomes empty. The data structure of the event queue can be selected
+ * through {@value #PAR_QUEUE}. If more control events fall at the same time point, then
  * the order given in the configuration is respected. If more non-control events
- * fall at the same time point, they are processed in a random order.
+ * fall at the same time point, they are processed in a random order. In SIM
+ * mode the periodic cycle events of protocols are kept in a separate
+ * {@link TimerWheel}; the random order among them is drawn anew each time a
+ * cycle is armed, so it changes from one cycle to the next, as for other
+ * events.
  * <p>
  * The engine also provides the interface to add events to the queue. Note that
  * this engine does not explicitly run the protocols. In all cases at least one
@@ -138,42 +144,54 @@ public abstract class Engine
 
   private static final String PAR_SCHEDULE = "schedule";
 
+  /**
+   * The execution mode: <tt>sim</tt> (simulation), <tt>sim-parallel</tt>
+   * (simulation by multiple threads, see {@link EngineSimParallel}),
+   * <tt>emu</tt> (emulation), <tt>net</tt> (real network) or
+   * <tt>coordinator</tt>.
+   * 
+   * @config
+   */
   private static final String PAR_MODE = "mode";
 
+  /**
+   * Selects the data structure holding pending events. Possible values are
+   * <tt>heap</tt> (binary heap, see {@link Heap}) and <tt>calendar</tt>
+   * (calendar queue, see {@link CalendarQueue}). Defaults to <tt>heap</tt>.
+   * The calendar queue gives amortized O(1) insertion and extraction, and pays
+   * off with large numbers of pending events, particularly when most of them
+   * are periodic.
+   * 
+   * @config
+   */
+  private static final String PAR_QUEUE = "queue";
+
   // ---------------------------------------------------------------------
   // Fields
   // ---------------------------------------------------------------------
 
   /** Maximum time for simulation */
-  static long endtime;
+  long endtime;
 
   /** Log time */
-  protected static long logtime;
+  protected long logtime;
 
   /** Number of bits used for random */
-  static int rbits;
+  int rbits;
 
   /** holds the modifiers of this simulation */
-  static Control[] controls = null;
+  Control[] controls = null;
 
   /** Holds the control schedules */
-  protected static Schedule[] controlSchedules = null;
+  protected Schedule[] controlSchedules = null;
 
   /** Holds the protocol schedules */
-  protected static Schedule[][] protocolSchedules = null;
-
-  protected static long nextlog = 0;
+  protected Schedule[][] protocolSchedules = null;
 
-  private static Engine instance = null;
+  /** True if event queues are calendar queues, false if they are heaps */
+  private boolean calendarQueue;
 
-  
-  
-  
-  
-  
-  
-  private static final Type type;
-  private static final AddressType addressType;
+  protected long nextlog = 0;
 
   public enum Type
   {
@@ -185,41 +203,68 @@ public abstract class Engine
     SIM, NET;
   }
 
-  static
+
+
+  /**
+   * Returns the current context, after reading its execution mode,
+   * {@value #PAR_MODE}, on first use.
+   */
+  static SimulationContext context()
   {
-    String typeStr = Configuration.getString(PREFIX+"."+PAR_MODE, "");
-    if (typeStr.equals("sim"))
-    {
-      type = Type.SIM;
-      addressType = AddressType.SIM;
-    }
-    else if (typeStr.equals("emu"))
-    {
-      type = Type.EMU;
-      addressType = AddressType.SIM;
-    }
-    else if (typeStr.equals("net"))
-    {
-      type = Type.NET;
-      addressType = AddressType.NET;
-    }
-    else if (typeStr.equals("coordinator"))
+    SimulationContext context = SimulationContext.current();
+    if (!context.configured)
     {
-      type = Type.COORDINATOR;
-      addressType = null;
+      String typeStr = Configuration.getString(PREFIX+"."+PAR_MODE, "");
+      context.parallel = typeStr.equals("sim-parallel");
+      if (typeStr.equals("sim") || context.parallel)
+      {
+        context.type = Type.SIM;
+        context.addressType = AddressType.SIM;
+      }
+      else if (typeStr.equals("emu"))
+      {
+        context.type = Type.EMU;
+        context.addressType = AddressType.SIM;
+      }
+      else if (typeStr.equals("net"))
+      {
+        context.type = Type.NET;
+        context.addressType = AddressType.NET;
+      }
+      else if (typeStr.equals("coordinator"))
+      {
+        context.type = Type.COORDINATOR;
+        context.addressType = null;
+      }
+      else
+        throw new IllegalParameterException(PREFIX+"."+PAR_MODE, "Possible types: sim, sim-parallel, emu, net, coordinator");
+      context.configured = true;
     }
-    else
-      throw new IllegalParameterException(PREFIX+"."+PAR_MODE, "Possible types: sim, emu, net, coordinator");
+    return context;
   }
 
+
+
   public static Type getType()
   {
-    return type;
+    return context().type;
   }
 
   public static AddressType getAddressType()
   {
-    return addressType;
+    return context().addressType;
+  }
+
+
+
+  /**
+   * Returns true if the experiment is simulated by multiple threads (mode
+   * <tt>sim-parallel</tt>, see {@link EngineSimParallel}). The type is still
+   * {@link Type#SIM} in that case.
+   */
+  public static boolean isParallel()
+  {
+    return context().parallel;
   }
 
 
@@ -265,14 +310,12 @@ public abstract class Engine
     System.err.println("Engine: loaded controls "+Arrays.asList(names));
 
     // Schedule controls execution
-    int order = 0;
+    EventType.check(PAR_CONTROL, controls.length, EventType.MAX_ID);
     for (int i=0; i<controls.length; i++)
     {
-      if (i>Byte.MAX_VALUE)
-        throw new IllegalArgumentException("Too many control objects");
       long delay = controlSchedules[i].initialDelay();
       if (delay >= 0)
-        addEventIn(delay,  null, null, i, null);
+        scheduleIn(delay, null, EventType.control(i));
     }
   }
 
@@ -285,16 +328,14 @@ public abstract class Engine
    */
   private void scheduleProtocols(Node node)
   {
-    int pid = 0;
-    for (Schedule[] schedList: protocolSchedules)
+    for (int pid=0; pid<protocolSchedules.length; pid++)
     {
-      for (Schedule sched: schedList)
+      for (int j=0; j<protocolSchedules[pid].length; j++)
       {
-        long delay = sched.initialDelay();
+        long delay = protocolSchedules[pid][j].initialDelay();
         if (delay >= 0)
-          addEventIn(delay, null, node, pid, sched);
+          scheduleIn(delay, node, EventType.cycle(pid, j));
       }
-      pid++; // advance pid to the next protocol
     }
   }
 
@@ -308,12 +349,14 @@ public abstract class Engine
   {
     // Load protocol schedules
     String[] protocolNames = Configuration.getNames(PAR_PROTOCOL);
+    EventType.check(PAR_PROTOCOL, protocolNames.length, EventType.MAX_ID);
     protocolSchedules = new Schedule[protocolNames.length][];
 
     // Load the schedules of each protocol
     for (int i=0; i<protocolNames.length; i++)
     {
       String[] scheduleNames = Configuration.getNames(protocolNames[i]+"."+PAR_SCHEDULE);
+      EventType.check(protocolNames[i]+"."+PAR_SCHEDULE, scheduleNames.length+1, EventType.MAX_SCHED);
       protocolSchedules[i] = new Schedule[scheduleNames.length+1];
 
       // Instantiate first the default schedule
@@ -370,6 +413,20 @@ public abstract class Engine
 
 
 
+  /**
+   * Returns a new, empty event queue, of the type selected by parameter
+   * {@value #PAR_QUEUE}.
+   */
+  protected EventQueue newEventQueue()
+  {
+    if (calendarQueue)
+      return new CalendarQueue();
+    else
+      return new Heap();
+  }
+
+
+
 
   /**
    * Adds a new event to be scheduled, specifying the number of time units of
@@ -389,16 +446,34 @@ public abstract class Engine
       System.err.println("Event with negative delay: "+delay);
 
     long nextTime = CommonState.getTime()+delay;
+    addEventAt(nextTime, src, node, EventType.message(pid), event);
+  }
 
-//XXX Check for this somewhere in initialization, not in EACH new event!!
-//    if (pid>Byte.MAX_VALUE)
-//      throw new IllegalArgumentException("This version does not support more than "+Byte.MAX_VALUE+" protocols");
 
-    addEventAt(nextTime, src, node, pid, event);
+
+  /**
+   * Schedules the next cycle of a protocol, or the next execution of a
+   * control, in <code>delay</code> time units.
+   * 
+   * @param delay The number of time units before the event is scheduled.
+   * @param node The node of the protocol, or null for controls.
+   * @param type The type of the event, see {@link EventType}.
+   */
+  void scheduleIn(long delay, Node node, int type)
+  {
+    addEventAt(CommonState.getTime()+delay, null, node, type, null);
   }
 
 
-  abstract void addEventAt(long time, Address src, Node node, int pid, Object event);
+
+  /**
+   * Adds a new event to be scheduled at the given time.
+   * 
+   * @param type The type of the event, encoded by {@link EventType}. The
+   *          engine dispatches the event based on this, not on the node or
+   *          the event object.
+   */
+  abstract void addEventAt(long time, Address src, Node node, int type, Object event);
   abstract int pendingEvents();
   public abstract void blockingInitializerStart();
   public abstract void blockingInitializerDone();
@@ -415,6 +490,14 @@ public abstract class Engine
     if (rbits<8||rbits>=64)
       throw new IllegalParameterException(PREFIX+"."+PAR_RBITS, "This parameter should be >= 8 or < 64");
 
+    String queueStr = Configuration.getString(PREFIX+"."+PAR_QUEUE, "heap");
+    if (queueStr.equals("heap"))
+      calendarQueue = false;
+    else if (queueStr.equals("calendar"))
+      calendarQueue = true;
+    else
+      throw new IllegalParameterException(PREFIX+"."+PAR_QUEUE, "Possible types: heap, calendar");
+
     endtime = Configuration.getLong(PREFIX+"."+PAR_DURATION, Long.MAX_VALUE);
     CommonState.setEndTime(endtime);
 
@@ -435,27 +518,35 @@ public abstract class Engine
 
 
 
+  /**
+   * Returns the engine of the current {@link SimulationContext}, creating it
+   * on first use.
+   */
   public static Engine instance()
   {
-    if (instance==null)
+    SimulationContext context = context();
+    if (context.engine==null)
     {
-      switch (getType())
+      switch (context.type)
       {
         case SIM:
-          instance = new EngineSim();
+          if (context.parallel)
+            context.engine = new EngineSimParallel();
+          else
+            context.engine = new EngineSim();
           break;
         case EMU:
-          instance = new EngineNet();
+          context.engine = new EngineNet();
           break;
         case NET:
-          instance = new EngineNet();
+          context.engine = new EngineNet();
           break;
         default:
           throw new IllegalParameterException(PREFIX+"."+PAR_MODE, Configuration.getString(PREFIX+"."+PAR_MODE));
       }
     }
 
-    return instance;
+    return context.engine;
   }
 
 
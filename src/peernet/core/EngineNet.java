@@ -4,6 +4,8 @@
  */
 package peernet.core;
 
+import peernet.config.Configuration;
+import peernet.config.IllegalParameterException;
 import peernet.dynamics.BootstrapClient;
 import peernet.dynamics.BootstrapServer.BootstrapMessage;
 import peernet.transport.Address;
@@ -12,9 +14,51 @@ import peernet.transport.TransportNet;
 import peernet.util.CountLatch;
 
 
+/**
+ * Engine for the NET and EMU modes, executing events in real time. Each node
+ * has its own heap of events (a {@link TimedMailbox}, so that any thread may
+ * add events without locking), executed either by a dedicated thread per node,
+ * or by a fixed pool of carrier threads shared by all nodes (see
+ * {@value #PAR_EXECUTOR}). Controls are executed by a separate thread.
+ * <p>
+ * Controls implementing {@link MutatingControl} are executed while all nodes
+ * are stopped. Other controls are considered read-only, and they observe a
+ * snapshot of the network, while nodes keep executing their events.
+ */
 public class EngineNet extends Engine
 {
-  Heap controlHeap = null;
+  /**
+   * Selects how node events are executed. Possible values are
+   * <tt>threads</tt>, for one thread per node, and <tt>pool</tt>, for a fixed
+   * pool of {@value #PAR_THREADS} carrier threads (see {@link CarrierPool}).
+   * The pool scales to much larger numbers of nodes per JVM. Defaults to
+   * <tt>threads</tt>.
+   *
+   * @config
+   */
+  private static final String PAR_EXECUTOR = "engine.executor";
+
+  /**
+   * The number of carrier threads of the <tt>pool</tt> executor. Defaults to
+   * the number of available processors.
+   *
+   * @config
+   */
+  private static final String PAR_THREADS = "engine.threads";
+
+  EventQueue controlHeap = null;
+
+  /** The carrier pool, or null if each node has its own thread */
+  private CarrierPool pool = null;
+
+  /** Passes packets received by transports that listen by themselves */
+  private final TransportNet.Receiver receiver = new TransportNet.Receiver()
+  {
+    public void receive(Node node, Packet packet)
+    {
+      deliver(node, packet);
+    }
+  };
 
   private CountLatch blockingInitializers = new CountLatch(0);
 
@@ -24,12 +68,28 @@ public class EngineNet extends Engine
   @Override
   protected void createHeaps()
   {
+    String executor = Configuration.getString(PAR_EXECUTOR, "threads");
+    if (executor.equals("pool"))
+    {
+      int threads = Configuration.getInt(PAR_THREADS, Runtime.getRuntime().availableProcessors());
+      if (threads<1)
+        throw new IllegalParameterException(PAR_THREADS, "At least one thread is needed");
+      pool = new CarrierPool(this, threads);
+    }
+    else if (!executor.equals("threads"))
+      throw new IllegalParameterException(PAR_EXECUTOR, "Possible types: threads, pool");
+
     // one heap per node
     for (int n=0; n<Network.size(); n++)
-      Network.get(n).setHeap(new Heap());
+    {
+      Node node = Network.get(n);
+      node.setHeap(new TimedMailbox(newEventQueue()));
+      if (pool!=null)
+        node.task = pool.register(node.getHeap());
+    }
 
     // and one heap for all controls together
-    controlHeap = new Heap();
+    controlHeap = new TimedMailbox(newEventQueue());
   }
 
 
@@ -48,7 +108,9 @@ public class EngineNet extends Engine
         Node node = Network.get(n);
         for (int j=0; j<node.getTransports(); j++)
         {
-          new ListeningThread(node, node.getHeap(), (TransportNet) node.getTransport(j)).start();
+          TransportNet transport = (TransportNet) node.getTransport(j);
+          if (!transport.listen(node, receiver))
+            new ListeningThread(node, transport).start();
         }
       }
     }
@@ -59,15 +121,25 @@ public class EngineNet extends Engine
     // Now let time start rolling!
     CommonState.timeStartsNow();
 
-    // Either in NET or EMU mode, start a thread per node.
-    for (int n=0; n<Network.size(); n++)
+    // Either in NET or EMU mode, start a thread per node, or the pool.
+    if (pool!=null)
     {
-      Node node = Network.get(n);
-      new ExecutionThread(node.getHeap()).start();
+      CarrierPool.Task[] tasks = new CarrierPool.Task[Network.size()];
+      for (int n=0; n<Network.size(); n++)
+        tasks[n] = Network.get(n).task;
+      pool.start(tasks);
+    }
+    else
+    {
+      for (int n=0; n<Network.size(); n++)
+      {
+        Node node = Network.get(n);
+        new ExecutionThread((TimedMailbox) node.getHeap()).start();
+      }
     }
 
     // And create a single thread for control messages
-    new ExecutionThread(controlHeap).start();
+    new ExecutionThread((TimedMailbox) controlHeap).start();
 
 //
 //    // analysis after the simulation
@@ -81,24 +153,29 @@ public class EngineNet extends Engine
 
 
 
-  public void addEventAt(long time, Address src, Node node, int pid, Object event)
+  public void addEventAt(long time, Address src, Node node, int type, Object event)
   {
     if (time >= endtime)
       return;
 
     time = (time<<rbits) | CommonState.r.nextInt(1<<rbits);
 
-    Heap heap = null;
-    if (node == null)  // control event
-      heap = controlHeap;
+    if (EventType.isControl(type))
+      enqueue(controlHeap, null, time, src, type, event);
     else
-      heap = node.getHeap();
+      enqueue(node.getHeap(), node, time, src, type, event);
+  }
 
-    synchronized (heap)
-    {
-      heap.add(time, src, node, (byte) pid, event);
-      heap.notify();
-    }
+
+
+  /**
+   * Adds an event to a heap, and wakes up whoever executes its events.
+   */
+  private void enqueue(EventQueue heap, Node node, long time, Address src, int type, Object event)
+  {
+    heap.add(time, src, node, type, event);
+    if (node!=null && node.task!=null)
+      pool.wake(node.task, time);
   }
 
 
@@ -119,26 +196,25 @@ public class EngineNet extends Engine
    * 
    * @return true if the execution should be stopped.
    */
-  protected boolean executeNext(Heap.Event ev)
+  protected boolean executeNext(EventQueue.Event ev)
   {
     long time = ev.time>>rbits;
     if (time>=endtime) // XXX Should we also check here, or only when scheduling an event?
       return true;
 
-    int pid = ev.pid;
-    if (ev.node==null)  // XXX ugly way to identify control events
+    int type = ev.type;
+    int id = EventType.id(type);
+    if (EventType.isControl(type))
     {
-      for (int n=0; n<Network.size(); n++) //XXX The network size might change in the meantime
-        Network.get(n).acquireLock();
-
-      boolean ret = controls[pid].execute();
+      boolean ret;
+      if (controls[id] instanceof MutatingControl)
+        ret = executeExclusive(controls[id]);
+      else
+        ret = executeOnSnapshot(controls[id]);
 
-      for (int n=0; n<Network.size(); n++)
-        Network.get(n).releaseLock();
-
-      long delay = controlSchedules[pid].nextDelay(time);
+      long delay = controlSchedules[id].nextDelay(time);
       if (delay>=0)
-        addEventAt(time+delay, null, null, pid, null);
+        addEventAt(time+delay, null, null, type, null);
       return ret;
     }
     else if (ev.node.isUp())
@@ -146,20 +222,21 @@ public class EngineNet extends Engine
 //        CommonState.setPid(pid);  // XXX try to entirely avoid CommonState
 //        CommonState.setNode(ev.node);
 
-      Protocol prot = ev.node.getProtocol(pid);
+      Protocol prot = ev.node.getProtocol(id);
 
-      if (ev.event instanceof Schedule)
+      if (EventType.isCycle(type))
       {
+        Schedule sched = protocolSchedules[id][EventType.schedule(type)];
         ev.node.acquireLock();
-        prot.nextCycle(((Schedule)ev.event).schedId);
+        prot.nextCycle(sched.schedId);
         ev.node.releaseLock();
 
         long delay = prot.nextDelay();
         if (delay == 0)
-          delay = ((Schedule)ev.event).nextDelay(time);
+          delay = sched.nextDelay(time);
 
         if (delay > 0)
-          addEventAt(time+delay, null, ev.node, pid, ev.event);
+          addEventAt(time+delay, null, ev.node, type, null);
       }
 
       else // call Protocol.processEvent()
@@ -174,6 +251,57 @@ public class EngineNet extends Engine
 
 
 
+  /**
+   * Executes a control that modifies the network, while all nodes are
+   * stopped. The locks taken are those of the nodes present when the control
+   * starts, even if it adds or removes nodes.
+   */
+  private boolean executeExclusive(Control control)
+  {
+    Node[] nodes = Network.toArray();
+    for (Node node: nodes)
+      node.acquireLock();
+    try
+    {
+      return control.execute();
+    }
+    finally
+    {
+      for (Node node: nodes)
+        node.releaseLock();
+    }
+  }
+
+
+
+  /**
+   * Executes a read-only control on a snapshot of the network. Each node is
+   * stopped only while its own copy is taken, between two of its events, so
+   * the control sees a consistent state of every node, and a fixed node list.
+   */
+  private boolean executeOnSnapshot(Control control)
+  {
+    Node[] snapshot = Network.toArray();
+    for (int n=0; n<snapshot.length; n++)
+    {
+      Node node = snapshot[n];
+      node.acquireLock();
+      snapshot[n] = node.snapshot();
+      node.releaseLock();
+    }
+    Network.setView(snapshot);
+    try
+    {
+      return control.execute();
+    }
+    finally
+    {
+      Network.setView(null);
+    }
+  }
+
+
+
   @Override
   public void blockingInitializerStart()
   {
@@ -192,9 +320,9 @@ public class EngineNet extends Engine
 
   public class ExecutionThread extends Thread
   {
-    private Heap heap = null;
+    private TimedMailbox heap = null;
 
-    public ExecutionThread(Heap heap)
+    public ExecutionThread(TimedMailbox heap)
     {
       this.heap = heap;
     }
@@ -204,28 +332,8 @@ public class EngineNet extends Engine
     public void run()
     {
       boolean exit = false;
-
-      long remainingTime;
       while (!exit)
-      {
-        Heap.Event event = null;
-        synchronized (heap)
-        {
-          while ( (remainingTime = (heap.getNextTime()>>rbits) - CommonState.getTime()) > 0)
-          {
-            try
-            {
-              heap.wait(remainingTime);
-            }
-            catch (InterruptedException e)
-            {
-              e.printStackTrace();
-            }
-          }
-          event = heap.removeFirst();
-        }
-        exit = executeNext(event);
-      }
+        exit = executeNext(heap.take());
     }
 
     public Object clone()
@@ -236,16 +344,27 @@ public class EngineNet extends Engine
   
 
 
+  /**
+   * Delivers a packet received from the network to a node.
+   */
+  private void deliver(Node node, Packet packet)
+  {
+    if (packet.event instanceof BootstrapMessage)
+      BootstrapClient.report(node, (BootstrapMessage)packet.event);
+    else
+      enqueue(node.getHeap(), node, 0, packet.src, EventType.message(packet.pid), packet.event);
+  }
+
+
+
   public class ListeningThread extends Thread
   {
     Node node = null;
-    Heap heap = null;
     TransportNet transport = null;
 
-    public ListeningThread(Node node, Heap heap, TransportNet transport)
+    public ListeningThread(Node node, TransportNet transport)
     {
       this.node = node;
-      this.heap = heap;
       this.transport = transport;
     }
 
@@ -259,16 +378,7 @@ public class EngineNet extends Engine
         assert packet.src!=null : "packet.src is null!";
         assert packet.event!=null : "packet.event is null!";
 
-        if (packet.event instanceof BootstrapMessage)
-          BootstrapClient.report(node, (BootstrapMessage)packet.event);
-        else
-        {
-          synchronized (heap)
-          {
-            heap.add(0, packet.src, node, (byte)packet.pid, packet.event);
-            heap.notify();
-          }
-        }
+        deliver(node, packet);
       }
     }
   }
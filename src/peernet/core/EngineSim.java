@@ -9,7 +9,10 @@ import peernet.transport.Address;
 
 public class EngineSim extends Engine
 {
-  Heap simHeap = null;
+  EventQueue simHeap = null;
+
+  /** Periodic cycle events, armed once per node and schedule */
+  TimerWheel cycleWheel = null;
 
 
 
@@ -21,7 +24,7 @@ public class EngineSim extends Engine
     // Perform the actual simulation; executeNext() will tell when to stop.
     boolean exit = false;
     while (!exit)
-      exit = executeNext(simHeap);
+      exit = executeNext();
 
     // analysis after the simulation
     //CommonState.setPhase(CommonState.POST_SIMULATION);
@@ -33,19 +36,21 @@ public class EngineSim extends Engine
   }
 
   /**
-   * Execute and remove the next event from the ordered event list.
+   * Execute and remove the next event, taken either from the ordered event
+   * list or from the cycle timer wheel, whichever comes first.
    * 
    * @return true if the execution should be stopped.
    */
-  private boolean executeNext(Heap heap)
+  private boolean executeNext()
   {
-    Heap.Event ev = heap.removeFirst();
-    if (ev==null)
+    long next = simHeap.getNextTime();
+    long nextCycle = cycleWheel.getNextTime();
+    if (next==Long.MAX_VALUE && nextCycle==Long.MAX_VALUE)
     {
       System.err.println("Engine: queue is empty, quitting"+" at time "+CommonState.getTime());
       return true;
     }
-    long time = ev.time>>rbits;
+    long time = Math.min(next, nextCycle)>>rbits;
     if (time>=nextlog)
     {
       System.err.println("Current time: "+time);
@@ -57,59 +62,87 @@ public class EngineSim extends Engine
     }
     if (time>=endtime)
     {
-      System.err.println("Engine: reached end time, quitting, leaving "+heap.size()+" unprocessed events in the queue");
+      System.err.println("Engine: reached end time, quitting, leaving "+pendingEvents()+" unprocessed events in the queue");
       return true;
     }
     CommonState.setTime(time);
-    int pid = ev.pid;
-    if (ev.node==null)  //XXX: Not an elegant way to identify control events
+    if (nextCycle<next)
+    {
+      executeCycle(time);
+      return false;
+    }
+
+    EventQueue.Event ev = simHeap.removeFirst();
+    int type = ev.type;
+    int id = EventType.id(type);
+    if (EventType.isControl(type))
     {
-      boolean ret = controls[pid].execute();
-      long delay = controlSchedules[pid].nextDelay(time);
+      boolean ret = controls[id].execute();
+      long delay = controlSchedules[id].nextDelay(time);
       if (delay>=0)
-        addEventIn(delay,  null, null, pid, null);
+        scheduleIn(delay, null, type);
       return ret;
     }
     else if (ev.node.isUp())
     {
 //      CommonState.setPid(pid);  // XXX try to entirely avoid CommonState
 //      CommonState.setNode(ev.node);
-      if (ev.event instanceof Schedule)
-      {
-        Protocol prot = ev.node.getProtocol(pid);
-        prot.nextCycle(((Schedule)ev.event).schedId);
+      Protocol prot = ev.node.getProtocol(id);
+      prot.processEvent(ev.src, ev.event);
+    }
+    return false;
+  }
 
-        long delay = prot.nextDelay();
-        if (delay == 0)
-          delay = ((Schedule)ev.event).nextDelay(time);
+  /**
+   * Fires the first timer of the cycle wheel, and re-arms it for the next
+   * cycle, with fresh random tie-breaking bits, as {@link #addEventAt} draws
+   * them, so that cycles due at the same time run in a random order each time.
+   * Timers of nodes that are not up are dropped.
+   */
+  private void executeCycle(long time)
+  {
+    int timer = cycleWheel.removeFirst();
+    Node node = cycleWheel.node(timer);
+    if (node.isUp())
+    {
+      int type = cycleWheel.type(timer);
+      int pid = EventType.id(type);
+      Protocol prot = node.getProtocol(pid);
+      Schedule sched = protocolSchedules[pid][EventType.schedule(type)];
+      prot.nextCycle(sched.schedId);
 
-        if (delay > 0)
-          addEventIn(delay, null, ev.node, pid, ev.event);
-      }
-      else // call Protocol.processEvent()
+      long delay = prot.nextDelay();
+      if (delay == 0)
+        delay = sched.nextDelay(time);
+
+      if (delay > 0)
       {
-        Protocol prot = ev.node.getProtocol(pid);
-        prot.processEvent(ev.src, ev.event);
+        cycleWheel.rearm(timer, ((time+delay)<<rbits) | CommonState.r.nextInt(1<<rbits));
+        return;
       }
     }
-    return false;
+    cycleWheel.release(timer);
   }
 
-  public void addEventAt(long time, Address src, Node node, int pid, Object event)
+  public void addEventAt(long time, Address src, Node node, int type, Object event)
   {
     time = (time<<rbits) | CommonState.r.nextInt(1<<rbits);
-    simHeap.add(time, src, node, (byte) pid, event);
+    if (EventType.isCycle(type))
+      cycleWheel.add(time, node, type);
+    else
+      simHeap.add(time, src, node, type, event);
   }
 
   @Override
   protected void createHeaps()
   {
-    simHeap = new Heap();
+    simHeap = newEventQueue();
+    cycleWheel = new TimerWheel();
   }
   
   public int pendingEvents()
   {
-    return simHeap.size();
+    return simHeap.size()+cycleWheel.size();
   }
 
 
@@ -0,0 +1,755 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.core;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+import peernet.config.Configuration;
+import peernet.config.IllegalParameterException;
+import peernet.transport.Address;
+import peernet.transport.Transport;
+import peernet.util.ExtendedRandom;
+
+
+
+
+
+/**
+ * Conservative parallel simulation engine, selected by setting the engine
+ * mode to <tt>sim-parallel</tt>. Nodes are partitioned over
+ * {@value #PAR_THREADS} worker threads, each with its own event queue. Time
+ * advances in windows: all events falling within one lookahead from the
+ * earliest pending event are independent of each other (apart from events of
+ * the same node), because any message between two nodes is delayed by at
+ * least the lookahead. So, the workers process the events of their partitions
+ * concurrently, and exchange the messages generated for other nodes at the end
+ * of each window.
+ * <p>
+ * The lookahead is the smallest delay any transport can impose on a message
+ * (see {@link peernet.transport.Transport#minDelay}), or it can be set
+ * explicitly through {@value #PAR_LOOKAHEAD}. It has to be positive. A
+ * message scheduled within the current window for a node other than the
+ * sender is an error.
+ * <p>
+ * Controls are executed by the main thread, between windows, while all workers
+ * are idle. Events are ordered by the same composite time keys as in
+ * {@link EngineSim}, so controls and node events are interleaved exactly as in
+ * serial mode.
+ * <p>
+ * Results are reproducible for a fixed random seed, and independent of the
+ * number of threads. To achieve this, events of each node draw random numbers
+ * from a separate stream, derived from the random seed and the node's ID, while
+ * initializers and controls use the main stream. {@link CommonState#r}
+ * dispatches transparently to the right stream. Events exchanged between
+ * partitions are delivered in a deterministic order, and partition queues
+ * always extract equal-time events in insertion order (see
+ * {@link CalendarQueue}). Note that as the per-node streams differ from the
+ * single stream of serial mode, the same seed leads to a different (but
+ * statistically equivalent) execution than in <tt>sim</tt> mode.
+ * <p>
+ * Protocols may only touch the state of their own node while processing an
+ * event. Shared state (e.g., global counters) has to be thread-safe.
+ */
+public class EngineSimParallel extends Engine
+{
+  // ---------------------------------------------------------------------
+  // Parameters
+  // ---------------------------------------------------------------------
+  /**
+   * The number of worker threads. Defaults to the number of available
+   * processors.
+   *
+   * @config
+   */
+  private static final String PAR_THREADS = "engine.threads";
+
+  /**
+   * The lookahead, that is, the minimum delay between an event and any event it
+   * schedules for another node. Defaults to the smallest
+   * {@link peernet.transport.Transport#minDelay} of the transports in use.
+   *
+   * @config
+   */
+  private static final String PAR_LOOKAHEAD = "engine.lookahead";
+
+  // ---------------------------------------------------------------------
+  // Fields
+  // ---------------------------------------------------------------------
+  /** The worker threads, one per partition */
+  private Worker[] workers = null;
+
+  /** The queue of control events, handled by the main thread */
+  private EventQueue controlHeap = null;
+
+  /** The lookahead, in time units */
+  private long lookahead;
+
+  /** Synchronizes the main thread with the workers at phase boundaries */
+  private CyclicBarrier barrier = null;
+
+  /** Phase to be executed by the workers once released */
+  private int phase;
+  private static final int PROCESS = 0;
+  private static final int DELIVER = 1;
+  private static final int EXIT = 2;
+
+  /**
+   * Composite time key (i.e., shifted left by rbits) up to which events are
+   * processed in the current window, exclusive.
+   */
+  private long windowEnd;
+
+
+
+  // ---------------------------------------------------------------------
+  // Initialization
+  // ---------------------------------------------------------------------
+  @Override
+  protected void createHeaps()
+  {
+    int threads = Configuration.getInt(PAR_THREADS, Runtime.getRuntime().availableProcessors());
+    if (threads<1)
+      throw new IllegalParameterException(PAR_THREADS, "At least one thread is needed");
+
+    workers = new Worker[threads];
+    for (int i = 0; i<threads; i++)
+      workers[i] = new Worker(i, threads);
+
+    controlHeap = newEventQueue();
+    barrier = new CyclicBarrier(threads+1);
+  }
+
+
+
+  /**
+   * Returns the lookahead, either as configured, or as the smallest minimum
+   * delay of the transports of all nodes. Nodes usually share their transport
+   * instances, so each distinct instance is asked once. An empty network has
+   * no transports to derive it from, so it needs a configured lookahead.
+   */
+  private long lookahead()
+  {
+    if (Configuration.contains(PAR_LOOKAHEAD))
+      return Configuration.getLong(PAR_LOOKAHEAD);
+
+    if (Network.size()==0)
+      throw new IllegalParameterException(PAR_LOOKAHEAD,
+          "The network is empty at start, so the lookahead cannot be derived from its transports");
+    long min = Long.MAX_VALUE;
+    Set<Transport> seen = Collections.newSetFromMap(new IdentityHashMap<Transport, Boolean>());
+    for (int n = 0; n<Network.size(); n++)
+    {
+      Node node = Network.get(n);
+      for (int i = 0; i<node.getTransports(); i++)
+      {
+        Transport transport = node.getTransport(i);
+        if (seen.add(transport))
+          min = Math.min(min, transport.minDelay());
+      }
+    }
+    return min==Long.MAX_VALUE ? 0 : min;
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  // Methods
+  // ---------------------------------------------------------------------
+  @Override
+  public void startExperiment()
+  {
+    super.startExperiment();
+
+    lookahead = lookahead();
+    if (lookahead<1)
+      throw new IllegalParameterException(PAR_LOOKAHEAD,
+          "Parallel simulation needs a positive lookahead, but transports guarantee a minimum delay of "+lookahead);
+    System.err.println("Engine: "+workers.length+" threads, lookahead "+lookahead);
+
+    // From now on, events of each node use their own random stream
+    CommonState.setRandom(new NodeRandom(CommonState.random()));
+    for (Worker w: workers)
+      w.start();
+
+    // Perform the actual simulation; executeNext() will tell when to stop.
+    boolean exit = false;
+    while (!exit)
+      exit = executeNext();
+
+    runPhase(EXIT);
+
+    // The time of the last event executed, as in serial mode
+    for (Worker w: workers)
+      if (w.time>CommonState.getTime())
+        CommonState.setTime(w.time);
+
+    // analysis after the simulation
+    for (int j = 0; j<controls.length; ++j)
+    {
+      if (controlSchedules[j].fin)
+        controls[j].execute();
+    }
+  }
+
+
+
+  /**
+   * Executes the next control event, or the next window of node events.
+   *
+   * @return true if the execution should be stopped.
+   */
+  private boolean executeNext()
+  {
+    long next = controlHeap.getNextTime();
+    for (Worker w: workers)
+      next = Math.min(next, w.queue.getNextTime());
+    if (next==Long.MAX_VALUE)
+    {
+      System.err.println("Engine: queue is empty, quitting"+" at time "+CommonState.getTime());
+      return true;
+    }
+
+    long time = next>>rbits;
+    if (time>=nextlog)
+    {
+      System.err.println("Current time: "+time);
+      do
+      {
+        nextlog += logtime;
+      }
+      while (time>=nextlog);
+    }
+    if (time>=endtime)
+    {
+      System.err.println("Engine: reached end time, quitting, leaving "+pendingEvents()+" unprocessed events in the queue");
+      return true;
+    }
+    CommonState.setTime(time);
+
+    long controlNext = controlHeap.getNextTime();
+    if (controlNext==next) // a control comes first
+    {
+      EventQueue.Event ev = controlHeap.removeFirst();
+      int id = EventType.id(ev.type);
+      boolean ret = controls[id].execute();
+      long delay = controlSchedules[id].nextDelay(time);
+      if (delay>=0)
+        scheduleIn(delay, null, ev.type);
+      return ret;
+    }
+
+    // Process a window, bounded by the lookahead, the next control, and the end time
+    windowEnd = Math.min(key(time+lookahead), Math.min(controlNext, key(endtime)));
+    runPhase(PROCESS);
+    runPhase(DELIVER);
+    return false;
+  }
+
+
+
+  /**
+   * Returns the smallest composite key of the given time, saturating instead
+   * of overflowing.
+   */
+  private long key(long time)
+  {
+    if (time>=Long.MAX_VALUE>>rbits)
+      return Long.MAX_VALUE;
+    return time<<rbits;
+  }
+
+
+
+  /**
+   * Releases the workers to execute the given phase, and waits for all of them
+   * to complete it.
+   */
+  private void runPhase(int p)
+  {
+    phase = p;
+    await(barrier); // start
+    if (p==EXIT)
+      return;
+    await(barrier); // done
+
+    for (Worker w: workers)
+    {
+      if (w.failure!=null)
+      {
+        runPhase(EXIT);
+        if (w.failure instanceof RuntimeException)
+          throw (RuntimeException) w.failure;
+        throw new RuntimeException(w.failure);
+      }
+    }
+  }
+
+
+
+  private static void await(CyclicBarrier barrier)
+  {
+    try
+    {
+      barrier.await();
+    }
+    catch (InterruptedException e)
+    {
+      throw new RuntimeException(e);
+    }
+    catch (BrokenBarrierException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+
+
+
+  /**
+   * Returns the partition a node belongs to. It is based on the ID, so it does
+   * not change when nodes are moved in the {@link Network}.
+   */
+  private int partition(Node node)
+  {
+    return (int) (node.getID()%workers.length);
+  }
+
+
+
+  public void addEventAt(long time, Address src, Node node, int type, Object event)
+  {
+    time = (time<<rbits) | CommonState.r.nextInt(1<<rbits);
+
+    Thread thread = Thread.currentThread();
+    if (thread instanceof Worker)
+      ((Worker) thread).add(time, src, node, type, event);
+    else if (EventType.isControl(type))
+      controlHeap.add(time, src, node, type, event);
+    else // scheduled by an initializer or control, while workers are idle
+      workers[partition(node)].queue.add(time, src, node, type, event);
+  }
+
+
+
+  public int pendingEvents()
+  {
+    int events = controlHeap.size();
+    for (Worker w: workers)
+      events += w.queue.size();
+    return events;
+  }
+
+
+
+  @Override
+  public void blockingInitializerStart()
+  {
+    throw new RuntimeException("Blocking initializers not applicable to SIM mode");
+  }
+
+
+
+  @Override
+  public void blockingInitializerDone()
+  {
+    throw new RuntimeException("Blocking initializers not applicable to SIM mode");
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  // Worker
+  // ---------------------------------------------------------------------
+  /**
+   * Thread simulating the nodes of one partition.
+   */
+  class Worker extends Thread
+  {
+    /** Index of this partition */
+    private final int index;
+
+    /**
+     * The queue of this partition's events. It is always a calendar queue, as
+     * reproducibility needs equal-time events to come out in insertion order.
+     */
+    final EventQueue queue = new CalendarQueue();
+
+    /** Events generated for each partition during the current window */
+    private final Mailbox[] outbox;
+
+    /** Events received from all partitions, sorted before delivery */
+    private final Mailbox inbox = new Mailbox();
+
+    /** The time of the event being executed, see {@link CommonState#getTime} */
+    long time;
+
+    /** The node whose event is being executed */
+    private Node current;
+
+    /** Set if the processing of a phase threw */
+    private Throwable failure;
+
+    private int[] order = new int[0];
+    private int[] scratch = new int[0];
+
+
+
+    Worker(int index, int partitions)
+    {
+      super("Worker-"+index);
+      setDaemon(true);
+      this.index = index;
+      outbox = new Mailbox[partitions];
+      for (int i = 0; i<partitions; i++)
+        outbox[i] = new Mailbox();
+    }
+
+
+
+    public void run()
+    {
+      while (true)
+      {
+        await(barrier); // start
+        if (phase==EXIT)
+          return;
+        try
+        {
+          if (phase==PROCESS)
+            process();
+          else
+            deliver();
+        }
+        catch (Throwable e)
+        {
+          failure = e;
+        }
+        await(barrier); // done
+      }
+    }
+
+
+
+    /**
+     * Executes all events of this partition that fall in the current window.
+     */
+    private void process()
+    {
+      while (queue.getNextTime()<windowEnd)
+      {
+        EventQueue.Event ev = queue.removeFirst();
+        time = ev.time>>rbits;
+        Node node = ev.node;
+        if (!node.isUp())
+          continue;
+
+        if (node.random==null)
+          node.random = NodeRandom.streamOf(node);
+        current = node;
+
+        int type = ev.type;
+        int pid = EventType.id(type);
+        Protocol prot = node.getProtocol(pid);
+        if (EventType.isCycle(type))
+        {
+          Schedule sched = protocolSchedules[pid][EventType.schedule(type)];
+          prot.nextCycle(sched.schedId);
+
+          long delay = prot.nextDelay();
+          if (delay==0)
+            delay = sched.nextDelay(time);
+
+          if (delay>0)
+            scheduleIn(delay, node, type);
+        }
+        else // call Protocol.processEvent()
+          prot.processEvent(ev.src, ev.event);
+      }
+      current = null;
+    }
+
+
+
+    /**
+     * Schedules an event generated while processing an event of this
+     * partition. Events of the same node go directly to the queue, all other
+     * events are kept until the end of the window.
+     */
+    void add(long key, Address src, Node node, int type, Object event)
+    {
+      if (EventType.isControl(type))
+        throw new IllegalStateException("Controls cannot be scheduled by protocols in parallel mode");
+      else if (node==current)
+        queue.add(key, src, node, type, event);
+      else if (key<windowEnd)
+        throw new IllegalStateException("Event for node "+node.getID()+" at time "+(key>>rbits)+
+            " falls within the lookahead ("+lookahead+") of node "+current.getID()+" at time "+time);
+      else
+        outbox[partition(node)].add(key, current.getID(), src, node, type, event);
+    }
+
+
+
+    /**
+     * Collects the events generated for this partition by all workers, and
+     * adds them to the queue, ordered by time, source node, and order of
+     * generation. This order does not depend on the partitioning.
+     */
+    private void deliver()
+    {
+      for (Worker w: workers)
+        inbox.addAll(w.outbox[index]);
+      for (Worker w: workers)
+        w.outbox[index].clear();
+
+      int n = inbox.size;
+      if (order.length<n)
+      {
+        order = new int[inbox.times.length];
+        scratch = new int[inbox.times.length];
+      }
+      for (int i = 0; i<n; i++)
+        order[i] = i;
+      inbox.sort(order, scratch, 0, n);
+
+      for (int i = 0; i<n; i++)
+      {
+        int e = order[i];
+        queue.add(inbox.times[e], inbox.srcs[e], inbox.nodes[e], inbox.types[e], inbox.events[e]);
+      }
+      inbox.clear();
+    }
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  // Mailbox
+  // ---------------------------------------------------------------------
+  /**
+   * Growable list of events, stored in parallel arrays as in {@link Heap}.
+   */
+  private static class Mailbox
+  {
+    long[] times = new long[16];
+    long[] sources = new long[16];
+    Address[] srcs = new Address[16];
+    Node[] nodes = new Node[16];
+    int[] types = new int[16];
+    Object[] events = new Object[16];
+    int size;
+
+
+
+    void add(long time, long source, Address src, Node node, int type, Object event)
+    {
+      if (size==times.length)
+        ensureCapacity(2*size);
+      times[size] = time;
+      sources[size] = source;
+      srcs[size] = src;
+      nodes[size] = node;
+      types[size] = type;
+      events[size] = event;
+      size++;
+    }
+
+
+
+    void addAll(Mailbox m)
+    {
+      ensureCapacity(size+m.size);
+      System.arraycopy(m.times, 0, times, size, m.size);
+      System.arraycopy(m.sources, 0, sources, size, m.size);
+      System.arraycopy(m.srcs, 0, srcs, size, m.size);
+      System.arraycopy(m.nodes, 0, nodes, size, m.size);
+      System.arraycopy(m.types, 0, types, size, m.size);
+      System.arraycopy(m.events, 0, events, size, m.size);
+      size += m.size;
+    }
+
+
+
+    void clear()
+    {
+      Arrays.fill(srcs, 0, size, null);
+      Arrays.fill(nodes, 0, size, null);
+      Arrays.fill(events, 0, size, null);
+      size = 0;
+    }
+
+
+
+    private void ensureCapacity(int capacity)
+    {
+      if (capacity<=times.length)
+        return;
+      capacity = Math.max(capacity, 2*times.length);
+      times = Arrays.copyOf(times, capacity);
+      sources = Arrays.copyOf(sources, capacity);
+      srcs = Arrays.copyOf(srcs, capacity);
+      nodes = Arrays.copyOf(nodes, capacity);
+      types = Arrays.copyOf(types, capacity);
+      events = Arrays.copyOf(events, capacity);
+    }
+
+
+
+    /**
+     * Stable merge sort of the given entry indices by time, then by source
+     * node. Entries of the same source node come from the same worker, in
+     * generation order, which stability preserves.
+     */
+    void sort(int[] a, int[] tmp, int from, int to)
+    {
+      if (to-from<2)
+        return;
+      int mid = (from+to)>>>1;
+      sort(a, tmp, from, mid);
+      sort(a, tmp, mid, to);
+      if (!less(a[mid], a[mid-1]))
+        return;
+      System.arraycopy(a, from, tmp, from, to-from);
+      int i = from, j = mid;
+      for (int k = from; k<to; k++)
+      {
+        if (j>=to || (i<mid && !less(tmp[j], tmp[i])))
+          a[k] = tmp[i++];
+        else
+          a[k] = tmp[j++];
+      }
+    }
+
+
+
+    private boolean less(int e1, int e2)
+    {
+      if (times[e1]!=times[e2])
+        return times[e1]<times[e2];
+      return sources[e1]<sources[e2];
+    }
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  // NodeRandom
+  // ---------------------------------------------------------------------
+  /**
+   * Random generator that draws from the stream of the node whose event is
+   * being executed by the calling worker thread, or from the main stream for
+   * any other thread.
+   */
+  static class NodeRandom extends ExtendedRandom
+  {
+    private static final long serialVersionUID = 1;
+    private ExtendedRandom main;
+
+
+
+    NodeRandom(ExtendedRandom main)
+    {
+      super(main.getLastSeed());
+      this.main = main;
+    }
+
+
+
+    /**
+     * Creates the random stream of a node, derived from the main seed and the
+     * node's ID.
+     */
+    static ExtendedRandom streamOf(Node node)
+    {
+      long z = CommonState.r.getLastSeed()+(node.getID()+1)*0x9E3779B97F4A7C15L;
+      z = (z^(z>>>30))*0xBF58476D1CE4E5B9L;
+      z = (z^(z>>>27))*0x94D049BB133111EBL;
+      return new ExtendedRandom(z^(z>>>31));
+    }
+
+
+
+    private ExtendedRandom current()
+    {
+      Thread thread = Thread.currentThread();
+      if (thread instanceof Worker)
+      {
+        Node node = ((Worker) thread).current;
+        if (node!=null)
+          return node.random;
+      }
+      return main;
+    }
+
+
+
+    public int nextInt()
+    {
+      return current().nextInt();
+    }
+
+    public int nextInt(int n)
+    {
+      return current().nextInt(n);
+    }
+
+    public long nextLong()
+    {
+      return current().nextLong();
+    }
+
+    public long nextLong(long n)
+    {
+      return current().nextLong(n);
+    }
+
+    public double nextDouble()
+    {
+      return current().nextDouble();
+    }
+
+    public float nextFloat()
+    {
+      return current().nextFloat();
+    }
+
+    public boolean nextBoolean()
+    {
+      return current().nextBoolean();
+    }
+
+    public double nextGaussian()
+    {
+      return current().nextGaussian();
+    }
+
+    public void nextBytes(byte[] bytes)
+    {
+      current().nextBytes(bytes);
+    }
+
+    public int nextPoisson(double mean)
+    {
+      return current().nextPoisson(mean);
+    }
+
+    public void setSeed(long seed)
+    {
+      if (main==null) // called by the super constructor
+        super.setSeed(seed);
+      else
+        main.setSeed(seed);
+    }
+
+    public long getLastSeed()
+    {
+      return main==null ? super.getLastSeed() : main.getLastSeed();
+    }
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.core;
+
+import peernet.transport.Address;
+
+
+
+
+
+/**
+ * Priority queue of events, ordered by their scheduled time. This is the
+ * abstraction the engines use to store pending events, so that alternative
+ * data structures can be plugged in through the <tt>engine.queue</tt>
+ * parameter (see {@link Engine}).
+ * <p>
+ * Times passed to {@link #add} are the engine's composite keys (i.e., the
+ * actual time shifted left, with the tie-breaking bits in the low end). The
+ * queue does not interpret them; it only orders by their numeric value.
+ *
+ * @see Heap
+ * @see CalendarQueue
+ */
+/*package*/ interface EventQueue
+{
+  /**
+   * Returns the current number of events in the queue.
+   */
+  public int size();
+
+
+
+  /**
+   * Add a new event, to be scheduled at the specified time.
+   *
+   * @param time the time at which this event should be scheduled
+   * @param src the address of the event's sender
+   * @param node the node at which the event has to be delivered
+   * @param type the type of the event, encoded by {@link EventType}
+   * @param event the object describing the event
+   */
+  public void add(long time, Address src, Node node, int type, Object event);
+
+
+
+  /**
+   * Removes the first event in the queue and returns it. To avoid garbage
+   * collection, implementations return a singleton instance of {@link Event},
+   * whose data are overwritten by the next invocation of this method.
+   *
+   * @return first event or null if the queue is empty
+   */
+  public Event removeFirst();
+
+
+
+  /**
+   * Returns the time of the first event in the queue, or
+   * <tt>Long.MAX_VALUE</tt> if the queue is empty.
+   */
+  public long getNextTime();
+
+
+
+  /**
+   * Container class to be returned when invoking removeFirst.
+   */
+  public class Event
+  {
+    long time;
+    Address src;
+    Node node;
+    int type;
+    Object event;
+
+    public String toString()
+    {
+      return EventType.toString(type)+" "+event+" to node "+node+" at "+time;
+    }
+  }
+}
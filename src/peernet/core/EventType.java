@@ -0,0 +1,153 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.core;
+
+import peernet.config.IllegalParameterException;
+
+
+
+
+
+/**
+ * Compact encoding of the metadata of an event into a single <tt>int</tt>,
+ * which is what event queues store along with the event's time. Three kinds
+ * of events are distinguished:
+ * <ul>
+ * <li>messages, delivered to {@link Protocol#processEvent},</li>
+ * <li>cycles, triggering {@link Protocol#nextCycle} according to one of the
+ * protocol's schedules,</li>
+ * <li>controls, triggering {@link Control#execute}.</li>
+ * </ul>
+ * The lowest {@value #ID_BITS} bits hold the protocol identifier (or the index
+ * of the control), the next {@value #SCHED_BITS} bits hold the index of the
+ * schedule in the protocol's schedule list, and the two highest bits hold the
+ * kind.
+ */
+/*package*/ final class EventType
+{
+  /** Number of bits for protocol identifiers and control indices */
+  static final int ID_BITS = 20;
+
+  /** Number of bits for schedule indices */
+  static final int SCHED_BITS = 10;
+
+  /** Maximum number of protocols, and of controls */
+  static final int MAX_ID = 1<<ID_BITS;
+
+  /** Maximum number of schedules per protocol */
+  static final int MAX_SCHED = 1<<SCHED_BITS;
+
+  private static final int ID_MASK = MAX_ID-1;
+  private static final int SCHED_MASK = MAX_SCHED-1;
+  private static final int KIND_SHIFT = ID_BITS+SCHED_BITS;
+
+  private static final int MESSAGE = 0;
+  private static final int CYCLE = 1;
+  private static final int CONTROL = 2;
+
+
+
+  /** Disable instance construction */
+  private EventType()
+  {
+  }
+
+
+
+  /**
+   * Returns the type of a message for protocol <code>pid</code>.
+   */
+  static int message(int pid)
+  {
+    return pid;
+  }
+
+
+
+  /**
+   * Returns the type of a cycle of protocol <code>pid</code>, following its
+   * <code>sched</code>-th schedule.
+   */
+  static int cycle(int pid, int sched)
+  {
+    return (CYCLE<<KIND_SHIFT) | (sched<<ID_BITS) | pid;
+  }
+
+
+
+  /**
+   * Returns the type of the execution of the <code>index</code>-th control.
+   */
+  static int control(int index)
+  {
+    return (CONTROL<<KIND_SHIFT) | index;
+  }
+
+
+
+  static boolean isMessage(int type)
+  {
+    return type>>>KIND_SHIFT==MESSAGE;
+  }
+
+
+
+  static boolean isCycle(int type)
+  {
+    return type>>>KIND_SHIFT==CYCLE;
+  }
+
+
+
+  static boolean isControl(int type)
+  {
+    return type>>>KIND_SHIFT==CONTROL;
+  }
+
+
+
+  /**
+   * Returns the protocol identifier, or the control index for controls.
+   */
+  static int id(int type)
+  {
+    return type&ID_MASK;
+  }
+
+
+
+  /**
+   * Returns the schedule index of a cycle.
+   */
+  static int schedule(int type)
+  {
+    return (type>>>ID_BITS)&SCHED_MASK;
+  }
+
+
+
+  /**
+   * Throws an {@link IllegalParameterException} if <code>count</code>
+   * components of the given kind (named by <code>name</code>) cannot be
+   * encoded.
+   */
+  static void check(String name, int count, int max)
+  {
+    if (count>max)
+      throw new IllegalParameterException(name, "At most "+max+" are supported, "+count+" are defined");
+  }
+
+
+
+  public static String toString(int type)
+  {
+    if (isControl(type))
+      return "control "+id(type);
+    else if (isCycle(type))
+      return "cycle "+id(type)+"/"+schedule(type);
+    else
+      return "message "+id(type);
+  }
+}
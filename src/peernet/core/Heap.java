@@ -33,7 +33,7 @@ import peernet.transport.Address;
  * @author Alberto Montresor
  * @version $Revision: 1.8 $
  */
-/*package*/ class Heap
+/*package*/ class Heap implements EventQueue
 {
   // --------------------------------------------------------------------------
   // Constants
@@ -52,13 +52,13 @@ import peernet.transport.Address;
   private long[] times;
   /** Node component of the heap */
   private Node[] nodes;
-  /** Pid component of the heap */
-  private byte[] pids;
+  /** Type component of the heap, see {@link EventType} */
+  private int[] types;
   /** Src component of the heap */
   private Address[] srcs;
   /** Number of elements */
   private int size;
-  /** Singleton event object used to return (event, time, node, pid) tuples */
+  /** Singleton event object used to return (event, time, node, type) tuples */
   private final Event ev = new Event();
 
 
@@ -85,7 +85,7 @@ import peernet.transport.Address;
     events = new Object[size];
     times = new long[size];
     nodes = new Node[size];
-    pids = new byte[size];
+    types = new int[size];
     srcs = new Address[size];
   }
 
@@ -111,13 +111,13 @@ import peernet.transport.Address;
    * @param time the time at which this event should be scheduled
    * @param event the object decribing the event
    * @param node the node at which the event has to be delivered
-   * @param pid the protocol that handles the event
+   * @param type the type of the event
    */
-  public void add(long time, Address src, Node node, byte pid, Object event)
+  public void add(long time, Address src, Node node, int type, Object event)
   {
     size++;
     int pos = size;
-    put(pos, time, src, node, pid, event);
+    put(pos, time, src, node, type, event);
 
     while (pos>1 && getTime(pos/2)>time)
     {
@@ -144,7 +144,7 @@ import peernet.transport.Address;
     ev.time = times[0];
     ev.event = events[0];
     ev.node = nodes[0];
-    ev.pid = pids[0];
+    ev.type = types[0];
     ev.src = srcs[0];
     swap(1, size);
     size--;
@@ -177,26 +177,6 @@ import peernet.transport.Address;
     return buffer.toString();
   }
 
-  // --------------------------------------------------------------------------
-  /**
-   * Container class to be returned when invoking removeFirst.
-   */
-  public class Event
-  {
-    long time;
-    Address src;
-    Node node;
-    byte pid;
-    Object event;
-
-    public String toString()
-    {
-      return event+" to node "+node+"prot "+pid+"at "+time;
-    }
-  }
-
-
-
   // --------------------------------------------------------------------------
   // Private methods
   // --------------------------------------------------------------------------
@@ -262,9 +242,9 @@ import peernet.transport.Address;
     nodes[i1] = nodes[i2];
     nodes[i2] = tn;
 
-    byte tp = pids[i1];
-    pids[i1] = pids[i2];
-    pids[i2] = tp;
+    int tp = types[i1];
+    types[i1] = types[i2];
+    types[i2] = tp;
 
     Object te = events[i1];
     events[i1] = events[i2];
@@ -290,7 +270,7 @@ import peernet.transport.Address;
   /**
  * 
  */
-  private void put(int index, long time, Address src, Node node, byte pid, Object event)
+  private void put(int index, long time, Address src, Node node, int type, Object event)
   {
     index--;
     if (index>=events.length)
@@ -300,7 +280,7 @@ import peernet.transport.Address;
     times[index] = time;
     nodes[index] = node;
     srcs[index] = src;
-    pids[index] = pid;
+    types[index] = type;
     events[index] = event;
   }
 
@@ -327,9 +307,9 @@ import peernet.transport.Address;
     System.arraycopy(nodes, 0, tn, 0, oldsize);
     nodes = tn;
 
-    byte[] tp = new byte[newsize];
-    System.arraycopy(pids, 0, tp, 0, oldsize);
-    pids = tp;
+    int[] tp = new int[newsize];
+    System.arraycopy(types, 0, tp, 0, oldsize);
+    types = tp;
 
     Object[] te = new Object[newsize];
     System.arraycopy(events, 0, te, 0, oldsize);
@@ -355,7 +335,7 @@ import peernet.transport.Address;
       values1[i] = random.nextInt(1000000000);
     long time1 = System.currentTimeMillis();
     for (int i = 0; i<rep; i++)
-      heap.add(values1[i], null, null, (byte) 1, null);
+      heap.add(values1[i], null, null, 1, null);
     long time2 = System.currentTimeMillis();
     System.out.println("Inserting: "+(time2-time1));
     time1 = System.currentTimeMillis();
@@ -363,8 +343,8 @@ import peernet.transport.Address;
       values2[i] = heap.removeFirst().time;
     time2 = System.currentTimeMillis();
     System.out.println("Removing: "+(time2-time1));
-    Event ev = heap.new Event();
-    PriorityQueue<Event> pq = new PriorityQueue<Heap.Event>();
+    Event ev = new Event();
+    PriorityQueue<Event> pq = new PriorityQueue<Event>();
     time1 = System.currentTimeMillis();
     for (int i = 0; i<rep; i++)
     {
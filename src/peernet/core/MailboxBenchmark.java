@@ -0,0 +1,178 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.core;
+
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+
+import peernet.config.Configuration;
+
+
+
+
+
+/**
+ * Throughput benchmark of a node's event queue in NET and EMU modes, under an
+ * increasing number of producer threads sending events to a single consumer.
+ * It compares {@link TimedMailbox} with a {@link Heap} guarded by its monitor,
+ * as used by {@link EngineNet} before, with producers calling
+ * <code>notify()</code> and the consumer calling <code>wait()</code>. It also
+ * measures the mailbox in the <tt>pool</tt> executor, where each event also
+ * notifies the {@link CarrierPool}, whose task is already queued, as it is
+ * while a node has pending events. All events are due immediately, as are the
+ * messages received from the network.
+ * <p>
+ * Usage: <code>java peernet.core.MailboxBenchmark [events [maxproducers]]</code>
+ */
+public class MailboxBenchmark
+{
+  /** The queue under test, in the form needed by producers and consumer */
+  private interface Target
+  {
+    void add(long time);
+
+    void take();
+  }
+
+
+
+  /** Heap guarded by its monitor */
+  private static class SynchronizedHeap implements Target
+  {
+    private final Heap heap = new Heap();
+
+    public void add(long time)
+    {
+      synchronized (heap)
+      {
+        heap.add(time, null, null, 0, null);
+        heap.notify();
+      }
+    }
+
+    public void take()
+    {
+      long remainingTime;
+      synchronized (heap)
+      {
+        while ((remainingTime = (heap.getNextTime()>>Engine.instance().rbits)-CommonState.getTime())>0)
+        {
+          try
+          {
+            heap.wait(remainingTime);
+          }
+          catch (InterruptedException e)
+          {
+            e.printStackTrace();
+          }
+        }
+        heap.removeFirst();
+      }
+    }
+  }
+
+
+
+  /** Lock-free mailbox */
+  private static class Mailbox implements Target
+  {
+    final TimedMailbox mailbox = new TimedMailbox(new Heap());
+
+    public void add(long time)
+    {
+      mailbox.add(time, null, null, 0, null);
+    }
+
+    public void take()
+    {
+      mailbox.take();
+    }
+  }
+
+
+
+  /** Lock-free mailbox whose producers also notify a carrier pool */
+  private static class PooledMailbox extends Mailbox
+  {
+    private final CarrierPool pool = new CarrierPool(null, 0);
+
+    private final CarrierPool.Task task = pool.register(mailbox);
+
+    public void add(long time)
+    {
+      super.add(time);
+      pool.wake(task, time);
+    }
+  }
+
+
+
+  public static void main(String[] args) throws InterruptedException
+  {
+    int events = args.length>0 ? Integer.parseInt(args[0]) : 2000000;
+    int maxProducers = args.length>1 ? Integer.parseInt(args[1]) : 64;
+
+    // Real-time mode, with time not started yet: all events are due at once
+    Properties properties = new Properties();
+    properties.setProperty("engine.mode", "emu");
+    Configuration.setConfig(properties);
+
+    System.out.println("events "+events+", processors "+Runtime.getRuntime().availableProcessors());
+    System.out.println("producers\tsynchronized heap (events/s)\tmailbox (events/s)\tpooled mailbox (events/s)");
+    run(new SynchronizedHeap(), 1, events); // warm-up
+    run(new Mailbox(), 1, events);
+    run(new PooledMailbox(), 1, events);
+    for (int producers = 1; producers<=maxProducers; producers *= 2)
+    {
+      double heap = run(new SynchronizedHeap(), producers, events);
+      double mailbox = run(new Mailbox(), producers, events);
+      double pooled = run(new PooledMailbox(), producers, events);
+      System.out.printf("%d\t%.0f\t%.0f\t%.0f\n", producers, heap, mailbox, pooled);
+    }
+  }
+
+
+
+  /**
+   * Sends <code>events</code> events through the target, split over the given
+   * number of producers, and returns the throughput in events per second.
+   */
+  private static double run(final Target target, int producers, int events) throws InterruptedException
+  {
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[producers];
+    for (int p = 0; p<producers; p++)
+    {
+      final int count = events/producers+(p<events%producers ? 1 : 0);
+      threads[p] = new Thread()
+      {
+        public void run()
+        {
+          try
+          {
+            start.await();
+          }
+          catch (InterruptedException e)
+          {
+            e.printStackTrace();
+          }
+          for (int i = 0; i<count; i++)
+            target.add(0);
+        }
+      };
+      threads[p].start();
+    }
+
+    long begin = System.nanoTime();
+    start.countDown();
+    for (int i = 0; i<events; i++)
+      target.take();
+    long time = System.nanoTime()-begin;
+
+    for (Thread thread: threads)
+      thread.join();
+    return events*1e9/time;
+  }
+}
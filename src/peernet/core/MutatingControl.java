@@ -0,0 +1,16 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.core;
+
+/**
+ * Marks a {@link Control} that modifies the network or the state of nodes,
+ * rather than just observing them. In NET and EMU modes, such a control is
+ * executed while all nodes are stopped. Any other control is executed on a
+ * snapshot of the network, while the nodes keep running (see
+ * {@link EngineNet}). In SIM mode, the two kinds are treated alike.
+ */
+public interface MutatingControl extends Control
+{
+}
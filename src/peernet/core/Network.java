@@ -27,11 +27,10 @@ import java.util.Arrays;
 
 
 /**
- * This class forms the basic framework of all simulations. This is a static
- * singleton which is based on the assumption that we will simulate only one
- * overlay network at a time. This allows us to reduce memory usage in many
- * cases by allowing all the components to directly reach the fields of this
- * class without having to store a reference.
+ * This class forms the basic framework of all simulations. Its static methods
+ * work on the network of the current {@link SimulationContext}, which allows
+ * all the components to directly reach it without having to store a
+ * reference.
  * <p>
  * The network is a set of nodes implemented via an array for the sake of
  * efficiency. Each node has an array of protocols. The protocols within a node
@@ -74,26 +73,6 @@ public class Network
    */
   private static final String PAR_SIZE = "network.size";
 
-  /**
-   * The node array. The actual node set consists of only the first
-   * {@link #size()} items of the array.
-   */
-  private static Node[] nodes = null;
-
-  /**
-   * Actual size of the network.
-   */
-  private static int len;
-
-  /**
-   * The prototype node which is used to populate the simulation via cloning.
-   * After all the nodes have been cloned, {@link Control} components can be
-   * applied to perform any further initialization.
-   */
-  private static Node prototype = null;
-
-
-
   // ====================== initialization ===========================
   // =================================================================
   /**
@@ -102,15 +81,17 @@ public class Network
    */
   public static void reset()
   {
-    prototype = null;
-    nodes = null;
+    SimulationContext context = SimulationContext.current();
+    context.prototype = null;
+    context.nodes = null;
 
-    len = Configuration.getInt(PAR_SIZE);
+    int len = Configuration.getInt(PAR_SIZE);
     int maxlen = Configuration.getInt(PAR_MAXSIZE, len);
     if (maxlen<len)
       throw new IllegalArgumentException(PAR_MAXSIZE+" is less than "+PAR_SIZE);
 
-    nodes = new Node[maxlen];
+    Node[] nodes = new Node[maxlen];
+    Node prototype;
 
     // creating prototype node
     if (!Configuration.contains(PAR_NODE))
@@ -131,6 +112,10 @@ public class Network
       nodes[i] = (Node) prototype.clone();
       nodes[i].setIndex(i);
     }
+
+    context.prototype = prototype;
+    context.nodes = nodes;
+    context.len = len;
   }
 
 
@@ -147,7 +132,10 @@ public class Network
   /** Number of nodes currently in the network */
   public static int size()
   {
-    return len;
+    SimulationContext context = SimulationContext.current();
+    if (context.viewer!=null && context.viewer==Thread.currentThread())
+      return context.view.length;
+    return context.len;
   }
 
 
@@ -158,16 +146,16 @@ public class Network
    * remain the same in the same order. If the new capacity is less than the old
    * size of the node list, then the end of the list is cut.
    */
-  private static void setCapacity(int newSize)
+  private static void setCapacity(SimulationContext context, int newSize)
   {
-    if (nodes==null || newSize!=nodes.length)
+    if (context.nodes==null || newSize!=context.nodes.length)
     {
       Node[] newnodes = new Node[newSize];
-      final int l = Math.min(nodes.length, newSize);
-      System.arraycopy(nodes, 0, newnodes, 0, l);
-      nodes = newnodes;
-      if (len>newSize)
-        len = newSize;
+      final int l = Math.min(context.nodes.length, newSize);
+      System.arraycopy(context.nodes, 0, newnodes, 0, l);
+      context.nodes = newnodes;
+      if (context.len>newSize)
+        context.len = newSize;
     }
   }
 
@@ -180,7 +168,7 @@ public class Network
    */
   public static int getCapacity()
   {
-    return nodes.length;
+    return SimulationContext.current().nodes.length;
   }
 
 
@@ -192,14 +180,15 @@ public class Network
    */
   static Node addNode()
   {
-    if (len==nodes.length)
-      setCapacity(3*nodes.length/2+1);
+    SimulationContext context = SimulationContext.current();
+    if (context.len==context.nodes.length)
+      setCapacity(context, 3*context.nodes.length/2+1);
 
-    Node n = (Node) Network.prototype.clone();
+    Node n = (Node) context.prototype.clone();
 
-    nodes[len] = n;
-    n.setIndex(len);
-    len++;
+    context.nodes[context.len] = n;
+    n.setIndex(context.len);
+    context.len++;
 
     return n;
   }
@@ -215,7 +204,35 @@ public class Network
    */
   public static Node get(int index)
   {
-    return nodes[index];
+    SimulationContext context = SimulationContext.current();
+    if (context.viewer!=null && context.viewer==Thread.currentThread())
+      return context.view[index];
+    return context.nodes[index];
+  }
+
+
+
+  /**
+   * Returns a copy of the current node list.
+   */
+  static Node[] toArray()
+  {
+    SimulationContext context = SimulationContext.current();
+    return Arrays.copyOf(context.nodes, context.len);
+  }
+
+
+
+  /**
+   * Makes the current thread see the given node list instead of the actual
+   * one, through {@link #size()} and {@link #get(int)}, or restores the
+   * actual list if <code>snapshot</code> is null.
+   */
+  static void setView(Node[] snapshot)
+  {
+    SimulationContext context = SimulationContext.current();
+    context.view = snapshot;
+    context.viewer = snapshot==null ? null : Thread.currentThread();
   }
 
 
@@ -226,10 +243,11 @@ public class Network
    */
   public static Node getByID(int ID)
   {
-    for (int i=0; i<len; i++)
+    SimulationContext context = SimulationContext.current();
+    for (int i=0; i<context.len; i++)
     {
-      if (nodes[i].getID()==ID)
-        return nodes[i];
+      if (context.nodes[i].getID()==ID)
+        return context.nodes[i];
     }
     return null;
   }
@@ -243,9 +261,10 @@ public class Network
    */
   public static Node removeLast()
   {
-    Node n = nodes[len-1]; // if len was zero this throws an exception
-    nodes[len-1] = null;
-    len--;
+    SimulationContext context = SimulationContext.current();
+    Node n = context.nodes[context.len-1]; // if len was zero this throws an exception
+    context.nodes[context.len-1] = null;
+    context.len--;
     n.setFailState(Fallible.DEAD);
     return n;
   }
@@ -263,9 +282,10 @@ public class Network
    */
   public static Node remove(int i)
   {
-    if (i<0||i>=len)
+    SimulationContext context = SimulationContext.current();
+    if (i<0||i>=context.len)
       throw new IndexOutOfBoundsException(""+i);
-    swap(i, len-1);
+    swap(context.nodes, i, context.len-1);
     return removeLast();
   }
 
@@ -275,7 +295,7 @@ public class Network
   /**
    * Swaps the two nodes at the given indices.
    */
-  private static void swap(int i, int j)
+  private static void swap(Node[] nodes, int i, int j)
   {
     Node n = nodes[i];
     nodes[i] = nodes[j];
@@ -292,8 +312,9 @@ public class Network
    */
   public static void shuffle()
   {
-    for (int i = len; i>1; i--)
-      swap(i-1, CommonState.r.nextInt(i));
+    SimulationContext context = SimulationContext.current();
+    for (int i = context.len; i>1; i--)
+      swap(context.nodes, i-1, CommonState.r.nextInt(i));
   }
 
 
@@ -307,8 +328,9 @@ public class Network
    */
   public static void sort(Comparator<? super Node> c)
   {
-    Arrays.sort(nodes, 0, len, c);
-    for (int i = 0; i<len; i++)
-      nodes[i].setIndex(i);
+    SimulationContext context = SimulationContext.current();
+    Arrays.sort(context.nodes, 0, context.len, c);
+    for (int i = 0; i<context.len; i++)
+      context.nodes[i].setIndex(i);
   }
 }
@@ -23,6 +23,7 @@ import java.util.concurrent.Semaphore;
 import peernet.config.Configuration;
 import peernet.core.Engine.Type;
 import peernet.transport.Transport;
+import peernet.util.ExtendedRandom;
 
 
 /**
@@ -50,9 +51,6 @@ public class Node implements Fallible, Cloneable
 
 
 
-  /** used to generate unique IDs */
-  private static long counterID = -1;
-
   /**
    * The protocols on this node.
    */
@@ -83,11 +81,23 @@ public class Node implements Fallible, Cloneable
   private long ID;
 
   /** The heap storing events for this node */
-  private Heap heap;
+  private EventQueue heap;
 
   /** The semaphore controlling access to the node's heap */
   private Semaphore semaphore;
 
+  /**
+   * Source of randomness for events of this node in parallel SIM mode,
+   * created on demand by {@link EngineSimParallel}.
+   */
+  ExtendedRandom random;
+
+  /**
+   * Execution state of this node's heap, when events are executed by a
+   * {@link CarrierPool} in NET and EMU modes.
+   */
+  CarrierPool.Task task;
+
 
 
 
@@ -122,6 +132,8 @@ public class Node implements Fallible, Cloneable
   public final void setID(long id)
   {
     ID = id;
+    for (Protocol protocol: protocols)
+      protocol.resetPeer();
   }
 
 
@@ -213,6 +225,36 @@ public class Node implements Fallible, Cloneable
 
 
 
+  /**
+   * Returns a copy of this node, for read-only controls to observe while the
+   * node keeps running. The copy has the same ID and index, and clones of the
+   * protocols (so it is as deep as {@link Protocol#clone}), but it shares the
+   * transports, and it has no heap. The caller should hold the node's lock.
+   */
+  Node snapshot()
+  {
+    Node node = null;
+    try
+    {
+      node = (Node) super.clone();
+    }
+    catch (CloneNotSupportedException e)
+    {} // never happens
+
+    node.protocols = protocols.clone();
+    for (int i=0; i<protocols.length; i++)
+    {
+      node.protocols[i] = (Protocol) protocols[i].clone();
+      node.protocols[i].node = node;
+    }
+    node.heap = null;
+    node.task = null;
+    node.semaphore = null;
+    return node;
+  }
+
+
+
   /**
    * Returns the number of protocols included in this node.
    */
@@ -265,7 +307,7 @@ public class Node implements Fallible, Cloneable
   /** returns the next unique ID */
   protected long nextID()
   {
-    return counterID++;
+    return SimulationContext.current().counterID++;
   }
 
 
@@ -364,14 +406,14 @@ public class Node implements Fallible, Cloneable
 
 
 
-  public void setHeap(Heap heap)
+  public void setHeap(EventQueue heap)
   {
     this.heap = heap;
   }
 
 
 
-  public Heap getHeap()
+  public EventQueue getHeap()
   {
     return heap;
   }
@@ -0,0 +1,161 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import peernet.config.Configuration;
+import peernet.transport.Address;
+import peernet.transport.AddressSim;
+
+
+
+
+
+/**
+ * Scaling benchmark of {@link EngineSimParallel}. It runs a synthetic gossip
+ * experiment in serial mode, and then in parallel mode with an increasing
+ * number of threads, each run in a separate JVM, so that each run pays for
+ * JVM startup and warm-up as a standalone simulation does. It reports the
+ * wall-clock time and speedup of each run, and checks that all parallel runs
+ * produce the same digest of the final state.
+ * <p>
+ * Usage: <code>java peernet.core.ParallelBenchmark [size [duration
+ * [maxthreads]]]</code>
+ */
+public class ParallelBenchmark
+{
+  /**
+   * Protocol used by the benchmark. At each cycle it sends its state to a
+   * random node, and it mixes every state it receives into its own, spending
+   * some CPU to mimic real protocol work.
+   */
+  public static class Gossip extends Protocol
+  {
+    long value;
+
+    public Gossip(String prefix)
+    {
+      super(prefix);
+    }
+
+    public void nextCycle(int schedId)
+    {
+      Node peer = Network.get(CommonState.r.nextInt(Network.size()));
+      send(new AddressSim(peer), myPid(), Long.valueOf(value+CommonState.getTime()));
+    }
+
+    public void processEvent(Address src, Object event)
+    {
+      long v = value^(Long) event;
+      for (int i = 0; i<200; i++)
+        v = v*6364136223846793005L+1442695040888963407L;
+      value = v;
+    }
+  }
+
+
+
+  /**
+   * Control printing a digest of the state of all {@link Gossip} instances.
+   */
+  public static class Digest implements Control
+  {
+    private final int pid;
+
+    public Digest(String prefix)
+    {
+      pid = Configuration.getPid(prefix+"."+PAR_PROTOCOL);
+    }
+
+    public boolean execute()
+    {
+      long digest = 0;
+      for (int i = 0; i<Network.size(); i++)
+        digest = digest*31+((Gossip) Network.get(i).getProtocol(pid)).value;
+      System.out.println("digest "+digest);
+      return false;
+    }
+  }
+
+
+
+  public static void main(String[] args) throws IOException, InterruptedException
+  {
+    int size = args.length>0 ? Integer.parseInt(args[0]) : 100000;
+    long duration = args.length>1 ? Long.parseLong(args[1]) : 20000;
+    int maxThreads = args.length>2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+    File config = File.createTempFile("parallel-benchmark", ".txt");
+    config.deleteOnExit();
+    PrintWriter out = new PrintWriter(config);
+    out.println("random.seed 1");
+    out.println("engine.duration "+duration);
+    out.println("network.size "+size);
+    out.println("sim.transport peernet.transport.UniformRandomTransport");
+    out.println("sim.transport.mindelay 50");
+    out.println("sim.transport.maxdelay 150");
+    out.println("protocol.gossip "+Gossip.class.getName());
+    out.println("protocol.gossip.step 1000");
+    out.println("protocol.gossip.randstart");
+    out.println("protocol.gossip.peer "+Peer.class.getName());
+    out.println("control.digest "+Digest.class.getName());
+    out.println("control.digest.protocol gossip");
+    out.println("control.digest.at -1");
+    out.println("control.digest.final");
+    out.close();
+
+    System.out.println("size "+size+", duration "+duration);
+    long serial = run(config, "sim", 1, null);
+    String digest = null;
+    for (int threads = 1; threads<=maxThreads; threads = (threads<maxThreads && 2*threads>maxThreads) ? maxThreads : 2*threads)
+    {
+      String[] result = new String[1];
+      long time = run(config, "sim-parallel", threads, result);
+      if (digest==null)
+        digest = result[0];
+      else if (!digest.equals(result[0]))
+        System.out.println("ERROR: results differ from the 1-thread run");
+      System.out.printf("speedup over serial: %.2f\n", (double) serial/time);
+    }
+  }
+
+
+
+  /**
+   * Runs the experiment in a separate JVM, and returns its wall-clock time in
+   * milliseconds.
+   */
+  private static long run(File config, String mode, int threads, String[] digest) throws IOException, InterruptedException
+  {
+    List<String> cmd = new ArrayList<String>();
+    cmd.add(System.getProperty("java.home")+File.separator+"bin"+File.separator+"java");
+    cmd.add("-cp");
+    cmd.add(System.getProperty("java.class.path"));
+    cmd.add("peernet.Simulator");
+    cmd.add(config.getPath());
+    cmd.add("engine.mode="+mode);
+    cmd.add("engine.threads="+threads);
+
+    long start = System.currentTimeMillis();
+    Process process = new ProcessBuilder(cmd).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+    BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()));
+    String line;
+    while ((line = in.readLine())!=null)
+      if (line.startsWith("digest") && digest!=null)
+        digest[0] = line;
+    process.waitFor();
+    long time = System.currentTimeMillis()-start;
+
+    System.out.println(mode+(mode.equals("sim") ? "" : ", "+threads+" threads")+": "+time+" ms");
+    return time;
+  }
+}
@@ -16,9 +16,6 @@
  */
 package peernet.core;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
-
 import peernet.config.Configuration;
 import peernet.transport.Address;
 
@@ -49,6 +46,12 @@ public abstract class Protocol implements Cloneable
    */
   Node node;
 
+  /**
+   * The Peer of this protocol's node, created on first use by
+   * {@link #myPeer()}, and reset when the node's ID changes.
+   */
+  private volatile Peer peer;
+
   public Protocol(String prefix)
   {
     if (Configuration.contains(prefix+"."+PAR_SETTINGS)) // custom settings
@@ -119,41 +122,62 @@ public abstract class Protocol implements Cloneable
 
 
   /**
-   * Returns a new instance of the Peer used for the referred protocol.
-   * Calls the constructor of the Peer class defined for this protocol.
+   * Returns the Peer of this protocol's node, as defined by the Peer class
+   * configured for this protocol. It is created once, by
+   * {@link #createPeer()}, and the same instance is returned on every call
+   * until the node's ID changes. It is therefore shared by all its users: it
+   * must not be modified, nor retained, e.g. stored in a {@link Linkable} or
+   * sent in a message to another node. Use {@link #newPeer()} to get a
+   * private copy for that. This method is meant for lookups and comparisons.
    * 
    * XXX: Spyros, 2007-11-02: Should I move this to the Protocol interface?
    * XXX: Spyros, 2012-05-23: Yes, I should! ;-)
    */
   public Peer myPeer()
   {
-    Peer p = null;
-    Constructor<Peer> c = settings.getPeerConstructor();
-    try
-    {
-      p = c.newInstance(node, settings.getPid());
-    }
-    catch (IllegalArgumentException e)
-    {
-      e.printStackTrace();
-    }
-    catch (InstantiationException e)
-    {
-      e.printStackTrace();
-    }
-    catch (IllegalAccessException e)
-    {
-      e.printStackTrace();
-    }
-    catch (InvocationTargetException e)
-    {
-      e.printStackTrace();
-    }
+    Peer p = peer;
+    if (p==null) // racing threads create equal peers, either is fine
+      peer = p = createPeer();
     return p;
   }
 
 
 
+  /**
+   * Returns a new copy of the Peer of this protocol's node, which the caller
+   * is free to modify.
+   */
+  public Peer newPeer()
+  {
+    return (Peer) myPeer().clone();
+  }
+
+
+
+  /**
+   * Creates the Peer of this protocol's node. By default it instantiates the
+   * Peer class configured for this protocol, through reflection unless it is
+   * {@link Peer} itself. Protocols with their own Peer class may override it
+   * to call the constructor directly.
+   */
+  protected Peer createPeer()
+  {
+    return settings.newPeer(node);
+  }
+
+
+
+  /**
+   * Discards the cached Peer, so that it is created again on next use.
+   * Called when the node's ID changes.
+   */
+  void resetPeer()
+  {
+    peer = null;
+  }
+
+
+
   /**
    * Returns a clone of the protocol. It is important to pay attention to
    * implement this carefully because in PeerNet all nodes are generated by
@@ -173,6 +197,7 @@ public abstract class Protocol implements Cloneable
     {
       e.printStackTrace();
     }
+    protocol.peer = null; // refers to the original node
     return protocol;
   }
 
@@ -17,6 +17,7 @@
 package peernet.core;
 
 import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 
 import peernet.config.Configuration;
 import peernet.config.IllegalParameterException;
@@ -68,6 +69,12 @@ public class ProtocolSettings
    */
   private final Constructor<Peer> peerConstructor;
 
+  /**
+   * Whether the Peer class of this protocol is {@link Peer} itself, which is
+   * then instantiated without reflection.
+   */
+  private final boolean plainPeer;
+
   /**
    * The pid of this protocol instance.
    */
@@ -132,6 +139,7 @@ public class ProtocolSettings
     }
 
     peerConstructor = constr;
+    plainPeer = cPeer==Peer.class;
   }
 
 
@@ -209,4 +217,29 @@ public class ProtocolSettings
   {
     return peerConstructor;
   }
+
+
+
+  /**
+   * Creates a new instance of the Peer class defined for this protocol,
+   * referring to the given node. The plain {@link Peer} class is instantiated
+   * directly, other classes through their (Node, int) constructor.
+   */
+  public Peer newPeer(Node node)
+  {
+    if (plainPeer)
+      return new Peer(node, pid);
+    try
+    {
+      return peerConstructor.newInstance(node, pid);
+    }
+    catch (InvocationTargetException e)
+    {
+      throw new RuntimeException(e.getCause());
+    }
+    catch (ReflectiveOperationException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
 }
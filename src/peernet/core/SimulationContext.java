@@ -0,0 +1,217 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.core;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import peernet.util.ExtendedRandom;
+
+
+
+
+
+/**
+ * The state of one simulation, which the static methods of {@link Engine},
+ * {@link Network}, {@link CommonState} and of other classes that used to keep
+ * static state, such as {@link peernet.config.Configuration} and
+ * {@link peernet.transport.RouterNetwork}, work on. Independent simulations,
+ * each with its own context, can thus run concurrently in the same JVM, on
+ * different threads.
+ * <p>
+ * A context is bound to a thread by {@link #bind}, and it is then also bound
+ * to the threads that this thread starts, such as the worker threads of
+ * {@link EngineSimParallel}. Threads without a bound context use a default
+ * one, so a single simulation does not need to deal with contexts at all.
+ * Tasks run on thread pools that are not started by a bound thread, such as
+ * the common fork-join pool, have to bind the context of the thread that
+ * submitted them, if they use it.
+ * <p>
+ * Classes outside this package keep their state in a context through a
+ * {@link Key}, which creates their state in each context on first use.
+ * Static state of application classes is not covered, and is shared by all
+ * contexts.
+ */
+public class SimulationContext
+{
+  /**
+   * Identifies the state of some class in each context. Each class creates a
+   * single key, kept in a static final field.
+   */
+  public static abstract class Key<T>
+  {
+    final int index;
+
+    protected Key()
+    {
+      index = keys.getAndIncrement();
+      if (index>=MAX_KEYS)
+        throw new IllegalStateException("More than "+MAX_KEYS+" context keys");
+    }
+
+    /**
+     * Creates the initial state of a context. It may be called more than once
+     * if threads of the same context ask for the state at the same time, and
+     * only one of the results is kept, so it should have no side effects.
+     */
+    protected abstract T create();
+  }
+
+
+
+  /** The maximum number of {@link Key}s */
+  private static final int MAX_KEYS = 64;
+
+  /** The number of {@link Key}s created */
+  private static final AtomicInteger keys = new AtomicInteger();
+
+  /** The context of threads that are not bound to any */
+  private static final SimulationContext DEFAULT = new SimulationContext();
+
+  private static final InheritableThreadLocal<SimulationContext> bound = new InheritableThreadLocal<SimulationContext>();
+
+  /**
+   * False until a context is bound to some thread, which saves the thread
+   * local lookup when there is just one simulation. A thread sees it set if it
+   * bound a context itself, or if it was started after its parent did.
+   */
+  private static boolean anyBound = false;
+
+  /** The state kept through {@link Key}s, by their index */
+  private final AtomicReferenceArray<Object> slots = new AtomicReferenceArray<Object>(MAX_KEYS);
+
+  // ---------------------------------------------------------------------
+  // The state of Engine
+  // ---------------------------------------------------------------------
+
+  /** True once the following fields are read from the configuration */
+  boolean configured = false;
+
+  Engine.Type type;
+
+  Engine.AddressType addressType;
+
+  boolean parallel;
+
+  Engine engine = null;
+
+  // ---------------------------------------------------------------------
+  // The state of Network
+  // ---------------------------------------------------------------------
+
+  /**
+   * The node array. The actual node set consists of only the first
+   * {@link #len} items of the array.
+   */
+  Node[] nodes = null;
+
+  /** Actual size of the network. */
+  int len;
+
+  /**
+   * The prototype node which is used to populate the simulation via cloning.
+   * After all the nodes have been cloned, {@link Control} components can be
+   * applied to perform any further initialization.
+   */
+  Node prototype = null;
+
+  /**
+   * A snapshot of the node list, seen instead of the actual list by the
+   * {@link #viewer} thread only. It is used by {@link EngineNet} to run
+   * read-only controls while the nodes keep running.
+   */
+  Node[] view = null;
+
+  /** The thread seeing {@link #view}, or null */
+  Thread viewer = null;
+
+  /** used to generate unique node IDs */
+  long counterID = -1;
+
+  // ---------------------------------------------------------------------
+  // The state of CommonState
+  // ---------------------------------------------------------------------
+
+  /** Current time, see {@link CommonState#getTime} */
+  long time = 0;
+
+  /** The maximal value {@link #time} can ever take */
+  long endTime = -1;
+
+  long zeroTime = -1;
+
+  /** The source of randomness that {@link CommonState#r} draws from */
+  ExtendedRandom random = null;
+
+
+
+  // ---------------------------------------------------------------------
+  // Methods
+  // ---------------------------------------------------------------------
+  /**
+   * Returns the context bound to the calling thread, or the default one.
+   */
+  public static SimulationContext current()
+  {
+    if (anyBound)
+    {
+      SimulationContext context = bound.get();
+      if (context!=null)
+        return context;
+    }
+    return DEFAULT;
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  /**
+   * Binds this context to the calling thread, and to the threads it starts
+   * from now on. Returns the context bound before, or null, to be passed to
+   * {@link #restore} when done.
+   */
+  public SimulationContext bind()
+  {
+    SimulationContext previous = bound.get();
+    anyBound = true;
+    bound.set(this);
+    return previous;
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  /**
+   * Binds again the context returned by {@link #bind}, or unbinds the calling
+   * thread if it is null.
+   */
+  public static void restore(SimulationContext previous)
+  {
+    if (previous==null)
+      bound.remove();
+    else
+      bound.set(previous);
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  /**
+   * Returns the state identified by the given key in this context, creating
+   * it on first use.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T get(Key<T> key)
+  {
+    Object state = slots.get(key.index);
+    if (state==null)
+    {
+      state = key.create();
+      if (!slots.compareAndSet(key.index, null, state))
+        state = slots.get(key.index);
+    }
+    return (T) state;
+  }
+}
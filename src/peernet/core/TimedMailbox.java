@@ -0,0 +1,178 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.core;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import peernet.transport.Address;
+
+
+
+
+
+/**
+ * Multi-producer, single-consumer event queue of a node in NET and EMU modes.
+ * Any thread may add events, without locking: events are appended to a linked
+ * list of cells by an atomic swap of its tail. The single consumer moves
+ * them into a private {@link EventQueue} ordered by time, before each
+ * extraction, and blocks in {@link #take} until its earliest event is due.
+ * <p>
+ * A blocked consumer publishes the key it waits for. Producers wake it up only
+ * if they add an earlier event, so the consumer is neither woken up needlessly
+ * by later events, nor does it hold a lock that producers compete for.
+ * <p>
+ * The methods of {@link EventQueue} other than {@link #add} may only be called
+ * by the consumer. {@link #size} may be called by any thread, but it is then
+ * approximate.
+ */
+/*package*/ class TimedMailbox implements EventQueue
+{
+  /**
+   * An event added by a producer, not yet seen by the consumer.
+   */
+  private static final class Cell
+  {
+    long time;
+    Address src;
+    Node node;
+    int type;
+    Object event;
+    volatile Cell next;
+  }
+
+  /** Key published by a consumer that is not blocked */
+  private static final long RUNNING = Long.MIN_VALUE;
+
+  /** Last cell added by producers */
+  private final AtomicReference<Cell> tail;
+
+  /** Last cell taken by the consumer; its successors are pending */
+  private Cell head;
+
+  /** Events taken by the consumer, ordered by time */
+  private final EventQueue queue;
+
+  /** The consumer, if it blocks in {@link #take} */
+  private volatile Thread consumer = null;
+
+  /** Key of the event the consumer waits for, or RUNNING */
+  private volatile long deadline = RUNNING;
+
+
+
+  /**
+   * Creates a mailbox whose consumer orders events in the given queue.
+   */
+  public TimedMailbox(EventQueue queue)
+  {
+    this.queue = queue;
+    head = new Cell();
+    tail = new AtomicReference<Cell>(head);
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  /**
+   * Adds an event. It can be called concurrently by any thread.
+   */
+  public void add(long time, Address src, Node node, int type, Object event)
+  {
+    Cell cell = new Cell();
+    cell.time = time;
+    cell.src = src;
+    cell.node = node;
+    cell.type = type;
+    cell.event = event;
+    tail.getAndSet(cell).next = cell;
+
+    if (time<deadline)
+    {
+      Thread thread = consumer;
+      if (thread!=null)
+        LockSupport.unpark(thread);
+    }
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  public Event removeFirst()
+  {
+    drain();
+    return queue.removeFirst();
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  public long getNextTime()
+  {
+    drain();
+    return queue.getNextTime();
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  public int size()
+  {
+    int size = queue.size();
+    for (Cell cell = head.next; cell!=null; cell = cell.next)
+      size++;
+    return size;
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  /**
+   * Waits until the earliest event is due, in real time, and removes it. Only
+   * the consumer may call this method.
+   */
+  public Event take()
+  {
+    consumer = Thread.currentThread();
+    while (true)
+    {
+      long next = getNextTime();
+      long remainingTime = (next>>Engine.instance().rbits)-CommonState.getTime();
+      if (remainingTime<=0)
+        return queue.removeFirst();
+
+      // Publish the deadline, then check again for events added meanwhile:
+      // a producer either sees the deadline, or its event is seen here.
+      deadline = next;
+      if (head.next==null)
+      {
+        if (next==Long.MAX_VALUE)
+          LockSupport.park(this);
+        else
+          LockSupport.parkNanos(this, remainingTime*1000000);
+      }
+      deadline = RUNNING;
+    }
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  /**
+   * Moves the events added by producers into the consumer's queue.
+   */
+  private void drain()
+  {
+    Cell cell;
+    while ((cell = head.next)!=null)
+    {
+      queue.add(cell.time, cell.src, cell.node, cell.type, cell.event);
+      cell.src = null;
+      cell.node = null;
+      cell.event = null;
+      head = cell;
+    }
+  }
+}
@@ -0,0 +1,368 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.core;
+
+import java.util.Arrays;
+
+
+
+
+
+/**
+ * Timing wheel holding the periodic cycle events of protocols, kept apart
+ * from message events. Each (node, protocol, schedule) timer is an entry that
+ * is allocated once, and then moved around the wheel every time it fires, so
+ * that a periodic tick costs O(1) and allocates nothing.
+ * <p>
+ * The wheel is an array of slots, each covering a fixed interval of keys, and
+ * holding a sorted list of the timers that fall in it. Its size follows the
+ * number of timers, and the slot width is chosen so that the whole wheel spans
+ * the range of pending timers, which for periodic timers is about one period.
+ * Timers re-armed by one period mostly land at the end of their slot, where
+ * they are appended directly. Timers lying more than one rotation ahead are
+ * skipped until their rotation comes.
+ * <p>
+ * Keys are the engine's composite time keys, and they are not interpreted. As
+ * in {@link CalendarQueue}, timers with equal keys fire in insertion order.
+ */
+/*package*/ class TimerWheel
+{
+  // --------------------------------------------------------------------------
+  // Constants
+  // --------------------------------------------------------------------------
+  /** Minimum (and initial) number of slots */
+  private static final int MIN_SLOTS = 16;
+
+  /** Initial size of the timer pool */
+  private static final int SIZE = 16;
+
+  /** End of list marker */
+  private static final int NIL = -1;
+
+  // --------------------------------------------------------------------------
+  // Fields
+  // --------------------------------------------------------------------------
+  /** Key of each timer */
+  private long[] keys;
+  /** Node of each timer */
+  private Node[] nodes;
+  /** Type of each timer, see {@link EventType} */
+  private int[] types;
+  /** Next timer in the same slot, or in the free list */
+  private int[] next;
+  /** Head of the free list */
+  private int free = NIL;
+  /** Number of pool entries that have ever been used */
+  private int used = 0;
+
+  /** First and last timer of each slot, or NIL */
+  private int[] heads, tails;
+  /** heads.length-1, the number of slots being a power of two */
+  private int mask;
+  /** Log2 of the slot width */
+  private int shift = 0;
+  /**
+   * The rotation-independent slot number (i.e., key>>shift) where the scan for
+   * the next timer starts. No armed timer belongs to an earlier one.
+   */
+  private long current = Long.MAX_VALUE;
+  /** Number of armed timers */
+  private int size;
+
+
+
+  // --------------------------------------------------------------------------
+  // Constructor
+  // --------------------------------------------------------------------------
+  public TimerWheel()
+  {
+    keys = new long[SIZE];
+    nodes = new Node[SIZE];
+    types = new int[SIZE];
+    next = new int[SIZE];
+    setSlots(MIN_SLOTS);
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  // Methods
+  // --------------------------------------------------------------------------
+  /**
+   * Returns the number of armed timers.
+   */
+  public int size()
+  {
+    return size;
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  /**
+   * Creates a new timer, and arms it to fire at the given key.
+   *
+   * @return the handle of the new timer
+   */
+  public int add(long key, Node node, int type)
+  {
+    int e = allocate();
+    nodes[e] = node;
+    types[e] = type;
+    arm(e, key);
+    return e;
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  /**
+   * Arms again a timer that has fired, to fire at the given key.
+   */
+  public void rearm(int e, long key)
+  {
+    arm(e, key);
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  /**
+   * Disarms the earliest timer and returns its handle. The timer should then
+   * be either re-armed by {@link #rearm}, or disposed of by {@link #release}.
+   *
+   * @return the handle of the earliest timer, or -1 if no timer is armed
+   */
+  public int removeFirst()
+  {
+    if (size==0)
+      return NIL;
+
+    int s = findFirst();
+    int e = heads[s];
+    heads[s] = next[e];
+    if (heads[s]==NIL)
+      tails[s] = NIL;
+
+    size--;
+    if (size==0)
+      current = Long.MAX_VALUE;
+    else if (size<heads.length/2 && heads.length>MIN_SLOTS)
+      resize(heads.length/2);
+    return e;
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  /**
+   * Returns the key of the earliest timer, or <tt>Long.MAX_VALUE</tt> if no
+   * timer is armed.
+   */
+  public long getNextTime()
+  {
+    if (size==0)
+      return Long.MAX_VALUE;
+
+    int s = findFirst(); // may reallocate the slots
+    return keys[heads[s]];
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  /**
+   * Disposes of a disarmed timer.
+   */
+  public void release(int e)
+  {
+    nodes[e] = null;
+    next[e] = free;
+    free = e;
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  /** Returns the key at which timer <code>e</code> fires or last fired */
+  public long key(int e)
+  {
+    return keys[e];
+  }
+
+
+
+  /** Returns the node of timer <code>e</code> */
+  public Node node(int e)
+  {
+    return nodes[e];
+  }
+
+
+
+  /** Returns the type of timer <code>e</code> */
+  public int type(int e)
+  {
+    return types[e];
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  // Private methods
+  // --------------------------------------------------------------------------
+  private void arm(int e, long key)
+  {
+    keys[e] = key;
+    link(e);
+    size++;
+    if (size>2*heads.length)
+      resize(2*heads.length);
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  /**
+   * Links timer <code>e</code> in its slot, after any timers with the same or
+   * smaller key.
+   */
+  private void link(int e)
+  {
+    long key = keys[e];
+    long c = key>>shift;
+    if (c<current)
+      current = c;
+
+    int s = (int) c&mask;
+    int p = tails[s];
+    if (p==NIL) // empty slot
+    {
+      next[e] = NIL;
+      heads[s] = tails[s] = e;
+    }
+    else if (keys[p]<=key) // the usual case: append
+    {
+      next[e] = NIL;
+      next[p] = e;
+      tails[s] = e;
+    }
+    else if (keys[heads[s]]>key)
+    {
+      next[e] = heads[s];
+      heads[s] = e;
+    }
+    else
+    {
+      p = heads[s];
+      while (keys[next[p]]<=key) // stops before the tail, whose key is larger
+        p = next[p];
+      next[e] = next[p];
+      next[p] = e;
+    }
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  /**
+   * Returns the slot whose first timer is the earliest one. It also advances
+   * the current slot up to that timer. Assumes the wheel is not empty.
+   */
+  private int findFirst()
+  {
+    for (int i = 0; i<=mask; i++)
+    {
+      int s = (int) current&mask;
+      int e = heads[s];
+      if (e!=NIL && (keys[e]>>shift)==current)
+        return s;
+      current++;
+    }
+
+    // A full rotation without timers: re-fit the wheel to the timers
+    resize(heads.length);
+    int mins = NIL;
+    for (int s = 0; s<heads.length; s++)
+      if (heads[s]!=NIL && (mins==NIL || keys[heads[s]]<keys[heads[mins]]))
+        mins = s;
+    current = keys[heads[mins]]>>shift;
+    return mins;
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  /**
+   * Fits the slot width to the range of armed timers, and redistributes them
+   * over <code>nslots</code> slots.
+   */
+  private void resize(int nslots)
+  {
+    long min = Long.MAX_VALUE;
+    long max = Long.MIN_VALUE;
+    for (int s = 0; s<heads.length; s++)
+    {
+      if (heads[s]!=NIL)
+      {
+        min = Math.min(min, keys[heads[s]]);
+        max = Math.max(max, keys[tails[s]]);
+      }
+    }
+    if (min<max)
+    {
+      long width = (max-min)/nslots+1;
+      shift = 64-Long.numberOfLeadingZeros(width-1);
+    }
+
+    int[] old = heads;
+    setSlots(nslots);
+    for (int s = 0; s<old.length; s++)
+    {
+      int e = old[s];
+      while (e!=NIL)
+      {
+        int n = next[e];
+        link(e);
+        e = n;
+      }
+    }
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  private void setSlots(int nslots)
+  {
+    heads = new int[nslots];
+    tails = new int[nslots];
+    Arrays.fill(heads, NIL);
+    Arrays.fill(tails, NIL);
+    mask = nslots-1;
+    current = Long.MAX_VALUE;
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  private int allocate()
+  {
+    if (free!=NIL)
+    {
+      int e = free;
+      free = next[e];
+      return e;
+    }
+    if (used==keys.length)
+    {
+      int newsize = 2*keys.length;
+      keys = Arrays.copyOf(keys, newsize);
+      nodes = Arrays.copyOf(nodes, newsize);
+      types = Arrays.copyOf(types, newsize);
+      next = Arrays.copyOf(next, newsize);
+    }
+    return used++;
+  }
+}
@@ -15,7 +15,7 @@ import java.util.TimerTask;
 
 import peernet.config.Configuration;
 import peernet.core.CommonState;
-import peernet.core.Control;
+import peernet.core.MutatingControl;
 import peernet.core.Engine;
 import peernet.core.Peer;
 import peernet.core.Linkable;
@@ -31,7 +31,7 @@ import peernet.transport.AddressNet;
 
 
 
-public class BootstrapClient extends TimerTask implements Control
+public class BootstrapClient extends TimerTask implements MutatingControl
 {
   private final static String PAR_SERVER = "host"; //XXX change to addr:port
   private final static String PAR_PORT = "port";
@@ -111,7 +111,7 @@ public class BootstrapClient extends TimerTask implements Control
 
         // TODO: Check what happens if a node has died
         Protocol prot = node.getProtocol(pid);
-        msg.peers[0] = prot.myPeer();
+        msg.peers[0] = prot.newPeer();
         prot.send(address, pid, msg);
       }
     }
@@ -27,7 +27,7 @@ import peernet.core.*;
  * of nodes and the addition of brand new nodes. That is, temporary downtime
  * is not supported by this class.
  */
-public class DynamicNetwork implements Control
+public class DynamicNetwork implements MutatingControl
 {
 
 // --------------------------------------------------------------------------
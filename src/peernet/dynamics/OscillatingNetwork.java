@@ -32,7 +32,7 @@ import peernet.core.*;
  * is, whenever it is executed, it takes the current time and sets the network
  * size accordingly.
  */
-public class OscillatingNetwork implements Control
+public class OscillatingNetwork implements MutatingControl
 {
 
 //--------------------------------------------------------------------------
@@ -4,10 +4,10 @@
  */
 package peernet.dynamics;
 
-import peernet.core.Control;
+import peernet.core.MutatingControl;
 import peernet.graph.Graph;
 
-public interface WireControl extends Control
+public interface WireControl extends MutatingControl
 {
   /**
    * If set (not null), then wire this graph. If null, the current overlay
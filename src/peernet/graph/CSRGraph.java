@@ -0,0 +1,327 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.graph;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.function.IntConsumer;
+
+
+
+
+
+/**
+ * Immutable graph in compressed sparse row form: the neighbors of all nodes
+ * are stored in a single <code>int</code> array, those of node i in positions
+ * <code>offsets[i]</code> to <code>offsets[i+1]-1</code>. It is built once, as a
+ * snapshot of another graph, and it then offers iteration over neighbors as
+ * primitive ints through {@link #degree}, {@link #neighbor} and
+ * {@link #forEachNeighbor}, which allocate nothing. Later changes to the
+ * original graph are not reflected.
+ * <p>
+ * The neighbors of each node are kept in the order the original graph returned
+ * them, so algorithms visit them in the same order as on the original graph.
+ */
+public class CSRGraph implements Graph
+{
+  // ====================== fields ================================
+  // ==============================================================
+  /** Start of the neighbors of each node in {@link #targets}, plus the end */
+  final int[] offsets;
+
+  /** The neighbors of all nodes */
+  final int[] targets;
+
+  private final boolean directed;
+
+  /** The graph this is a snapshot of, for {@link #getNode}; may be null */
+  private final Graph source;
+
+  /** The reverse graph, built on first use by {@link #transpose} */
+  private CSRGraph transpose = null;
+
+
+
+  // ====================== public constructors ===================
+  // ==============================================================
+  /**
+   * Wraps the given arrays, which are stored by reference.
+   *
+   * @param offsets the start of the neighbors of node i in
+   *          <code>targets</code>, for each node, followed by the total
+   *          number of edges
+   * @param targets the neighbors of all nodes
+   * @param directed whether the graph is directed
+   * @param source the graph this is a snapshot of, to which {@link #getNode}
+   *          is delegated, or null
+   */
+  public CSRGraph(int[] offsets, int[] targets, boolean directed, Graph source)
+  {
+    this.offsets = offsets;
+    this.targets = targets;
+    this.directed = directed;
+    this.source = source;
+  }
+
+
+
+  // --------------------------------------------------------------
+  /**
+   * Takes a snapshot of the given graph, through its
+   * {@link Graph#getNeighbours} method.
+   */
+  public CSRGraph(Graph g)
+  {
+    final int n = g.size();
+    offsets = new int[n+1];
+    for (int i = 0; i<n; ++i)
+      offsets[i+1] = offsets[i]+g.getNeighbours(i).size();
+    targets = new int[offsets[n]];
+    for (int i = 0; i<n; ++i)
+    {
+      int k = offsets[i];
+      for (int j: g.getNeighbours(i))
+        targets[k++] = j;
+    }
+    directed = g.directed();
+    source = g;
+  }
+
+
+
+  // --------------------------------------------------------------
+  /**
+   * Returns the undirected version of the given graph, with the same
+   * neighbors as {@link ConstUndirGraph}, in the same order: the neighbors of
+   * node i in g, followed by the nodes j in increasing order that have an edge
+   * (j,i) but not (i,j). Returns g itself if it is undirected already.
+   */
+  public static CSRGraph undirected(CSRGraph g)
+  {
+    if (!g.directed)
+      return g;
+
+    final int n = g.size();
+    final int m = g.targets.length;
+
+    // Find the edges (i,j) without a reverse edge, which j needs as incoming
+    boolean[] oneWay = new boolean[m];
+    int[] in = new int[n];
+    for (int i = 0; i<n; ++i)
+    {
+      for (int k = g.offsets[i]; k<g.offsets[i+1]; ++k)
+      {
+        int j = g.targets[k];
+        if (!g.isEdge(j, i))
+        {
+          oneWay[k] = true;
+          in[j]++;
+        }
+      }
+    }
+
+    int[] offsets = new int[n+1];
+    for (int i = 0; i<n; ++i)
+      offsets[i+1] = offsets[i]+g.degree(i)+in[i];
+    int[] targets = new int[offsets[n]];
+
+    // Outgoing edges first; in[i] becomes the next free position of node i
+    for (int i = 0; i<n; ++i)
+    {
+      System.arraycopy(g.targets, g.offsets[i], targets, offsets[i], g.degree(i));
+      in[i] = offsets[i]+g.degree(i);
+    }
+    for (int i = 0; i<n; ++i)
+    {
+      for (int k = g.offsets[i]; k<g.offsets[i+1]; ++k)
+      {
+        if (oneWay[k])
+          targets[in[g.targets[k]]++] = i;
+      }
+    }
+    return new CSRGraph(offsets, targets, false, g.source);
+  }
+
+
+
+  // --------------------------------------------------------------
+  /**
+   * Returns g itself if it is a CSRGraph, or a snapshot of it otherwise.
+   */
+  public static CSRGraph of(Graph g)
+  {
+    return g instanceof CSRGraph ? (CSRGraph) g : new CSRGraph(g);
+  }
+
+
+
+  // --------------------------------------------------------------
+  /**
+   * Returns the reverse graph, in which the neighbors of node i are the nodes
+   * that have i as a neighbor, in increasing order. It is built on first use
+   * and then kept. Returns this graph itself if it is undirected.
+   */
+  public synchronized CSRGraph transpose()
+  {
+    if (!directed)
+      return this;
+    if (transpose==null)
+    {
+      final int n = size();
+      int[] offsets = new int[n+1];
+      for (int k = 0; k<targets.length; ++k)
+        offsets[targets[k]+1]++;
+      for (int i = 0; i<n; ++i)
+        offsets[i+1] += offsets[i];
+      int[] next = new int[n];
+      System.arraycopy(offsets, 0, next, 0, n);
+      int[] reverse = new int[targets.length];
+      for (int i = 0; i<n; ++i)
+        for (int k = this.offsets[i]; k<this.offsets[i+1]; ++k)
+          reverse[next[targets[k]]++] = i;
+      transpose = new CSRGraph(offsets, reverse, true, source);
+      transpose.transpose = this;
+    }
+    return transpose;
+  }
+
+
+
+  // ======================= primitive access =====================
+  // ==============================================================
+  /**
+   * Returns the k-th neighbor of node i, for k from 0 to
+   * <code>degree(i)-1</code>.
+   */
+  public int neighbor(int i, int k)
+  {
+    return targets[offsets[i]+k];
+  }
+
+
+
+  // ---------------------------------------------------------------
+  /**
+   * Performs the given action on each neighbor of node i, in order.
+   */
+  public void forEachNeighbor(int i, IntConsumer action)
+  {
+    for (int k = offsets[i]; k<offsets[i+1]; ++k)
+      action.accept(targets[k]);
+  }
+
+
+
+  // ---------------------------------------------------------------
+  /**
+   * Returns the total number of edges. For undirected graphs, each edge is
+   * counted in both directions.
+   */
+  public int edges()
+  {
+    return targets.length;
+  }
+
+
+
+  // ======================= Graph implementations ================
+  // ==============================================================
+  public boolean isEdge(int i, int j)
+  {
+    for (int k = offsets[i]; k<offsets[i+1]; ++k)
+    {
+      if (targets[k]==j)
+        return true;
+    }
+    return false;
+  }
+
+
+
+  // ---------------------------------------------------------------
+  /**
+   * Returns an unmodifiable view of the neighbors of node i. Prefer
+   * {@link #degree} and {@link #neighbor}, which do not box the indices.
+   */
+  public Collection<Integer> getNeighbours(int i)
+  {
+    final int from = offsets[i];
+    final int size = offsets[i+1]-from;
+    return new AbstractList<Integer>()
+    {
+      public Integer get(int k)
+      {
+        if (k<0||k>=size)
+          throw new IndexOutOfBoundsException();
+        return targets[from+k];
+      }
+
+      public int size()
+      {
+        return size;
+      }
+    };
+  }
+
+
+
+  // ---------------------------------------------------------------
+  /** Returns the node of the original graph, if known, otherwise null */
+  public Object getNode(int i)
+  {
+    return source==null ? null : source.getNode(i);
+  }
+
+
+
+  // ---------------------------------------------------------------
+  /** Returns null always */
+  public Object getEdge(int i, int j)
+  {
+    return null;
+  }
+
+
+
+  // ---------------------------------------------------------------
+  public int size()
+  {
+    return offsets.length-1;
+  }
+
+
+
+  // --------------------------------------------------------------------
+  public boolean directed()
+  {
+    return directed;
+  }
+
+
+
+  // --------------------------------------------------------------------
+  /** not supported */
+  public boolean setEdge(int i, int j)
+  {
+    throw new UnsupportedOperationException();
+  }
+
+
+
+  // ---------------------------------------------------------------
+  /** not supported */
+  public boolean clearEdge(int i, int j)
+  {
+    throw new UnsupportedOperationException();
+  }
+
+
+
+  // ---------------------------------------------------------------
+  public int degree(int i)
+  {
+    return offsets[i+1]-offsets[i];
+  }
+}
@@ -33,9 +33,24 @@ public class GraphAlgorithms
   // ====================================================================
   /** output of some algorithms is passed here */
   public int[] root = null;
-  private Stack<Integer> stack = new Stack<Integer>();
+  /** The node stack of {@link #tarjan}, and its size */
+  private int[] stack = null;
+  private int top = 0;
+  /**
+   * The explicit call stack of the depth-first searches: the node of each
+   * frame, and the position of its next edge in the {@link CSRGraph}
+   */
+  private int[] callNode = null;
+  private int[] callEdge = null;
   private int counter = 0;
   private Graph g = null;
+  /** {@link #g}, if it is a {@link CSRGraph}, for the primitive fast paths */
+  private CSRGraph csr = null;
+  /**
+   * The queue of {@link #bfs}, holding each node at most once, and its end
+   */
+  private int[] queue = null;
+  private int tail = 0;
   public final static int WHITE = 0;
   public final static int GREY = 1;
   public final static int BLACK = 2;
@@ -51,115 +66,161 @@ public class GraphAlgorithms
   // =================== private methods ================================
   // ====================================================================
   /**
-   * Collects nodes accessible from node "from" using depth-first search. Works
-   * on the array {@link #color} which must be of the same length as the size of
-   * the graph, and must contain values according to the following semantics:
-   * WHITE (0): not seen yet, GREY (1): currently worked upon. BLACK (other than
-   * 0 or 1): finished. If a negative color is met, it is saved in the
-   * {@link #cluster} set and is treated as black. This can be used to check if
-   * the currently visited cluster is weakly connected to another cluster. On
+   * Collects nodes accessible from node "from" using breadth-first search.
+   * Works on the array {@link #color} which must be of the same length as the
+   * size of the graph, and must contain values according to the following
+   * semantics: WHITE (0): not seen yet, GREY (1): currently worked upon. BLACK
+   * (other than 0 or 1): finished. If a negative color is met, it is saved in
+   * the {@link #cluster} set and is treated as black. This can be used to check
+   * if the currently visited cluster is weakly connected to another cluster. On
    * exit no nodes are GREY. The result is the modified array {@link #color} and
-   * the modified set {@link #cluster}.
+   * the modified set {@link #cluster}. In addition, it stores the shortest
+   * distances from "from" in {@link #d}, if it is not null. On return,
+   * <code>d[i]</code> contains the length of the shortest path from "from" to
+   * "i", if such a path exists, or it is unchanged (ie the original value of
+   * <code>d[i]</code> is kept, whatever that was. <code>d</code> must either be
+   * long enough or null.
    */
-  private void dfs(int from)
+  private void bfs(int from)
   {
+    if (queue==null||queue.length<g.size())
+      queue = new int[g.size()];
+    int head = 0;
+    tail = 0;
+    int u, du;
+    queue[tail++] = from;
+    if (d!=null)
+      d[from] = 0;
     color[from] = GREY;
-    for (int j: g.getNeighbours(from))
+    while (head<tail)
     {
-      if (color[j]==WHITE)
+      u = queue[head++];
+      du = (d!=null ? d[u] : 0);
+      if (csr!=null)
       {
-        dfs(j);
+        for (int k = csr.offsets[u]; k<csr.offsets[u+1]; ++k)
+          bfsVisit(csr.targets[k], du);
       }
       else
       {
-        if (color[j]<0)
-          cluster.add(color[j]);
+        for (int j: g.getNeighbours(u))
+          bfsVisit(j, du);
       }
+      color[u] = BLACK;
+    }
+  }
+
+
+
+  // --------------------------------------------------------------------
+  /** Visits neighbor j of a node at distance du during {@link #bfs}. */
+  private void bfsVisit(int j, int du)
+  {
+    if (color[j]==WHITE)
+    {
+      color[j] = GREY;
+      queue[tail++] = j;
+      if (d!=null)
+        d[j] = du+1;
+    }
+    else
+    {
+      if (color[j]<0)
+        cluster.add(color[j]);
     }
-    color[from] = BLACK;
   }
 
 
 
   // --------------------------------------------------------------------
   /**
-   * Collects nodes accessible from node "from" using breadth-first search. Its
-   * parameters and side-effects are identical to those of dfs. In addition, it
-   * stores the shortest distances from "from" in {@link #d}, if it is not null.
-   * On return, <code>d[i]</code> contains the length of the shortest path from
-   * "from" to "i", if such a path exists, or it is unchanged (ie the original
-   * value of <code>d[i]</code> is kept, whatever that was. <code>d</code> must
-   * either be long enough or null.
+   * The depth-first part of the Tarjan algorithm, from node s. It is
+   * iterative, with the explicit call stack {@link #callNode},
+   * {@link #callEdge}, so it does not overflow on long paths. It follows the
+   * edges in the same order as a recursive implementation would.
    */
-  private void bfs(int from)
+  private void tarjanVisit(CSRGraph g, int s)
   {
-    List<Integer> q = new LinkedList<Integer>();
-    int u, du;
-    q.add(from);
-    q.add(0);
-    if (d!=null)
-      d[from] = 0;
-    color[from] = GREY;
-    while (!q.isEmpty())
+    final int[] offsets = g.offsets;
+    final int[] targets = g.targets;
+    int depth = 0;
+    tarjanEnter(s);
+    callNode[depth] = s;
+    callEdge[depth++] = offsets[s];
+    while (depth>0)
     {
-      u = q.remove(0).intValue();
-      du = q.remove(0).intValue();
-      for (int j: g.getNeighbours(u))
+      int i = callNode[depth-1];
+      int k = callEdge[depth-1];
+      if (k<offsets[i+1])
       {
-        if (color[j]==WHITE)
+        int j = targets[k];
+        if (color[j]==WHITE) // descend, and come back to this edge
         {
-          color[j] = GREY;
-          q.add(j);
-          q.add(du+1);
-          if (d!=null)
-            d[j] = du+1;
+          tarjanEnter(j);
+          callNode[depth] = j;
+          callEdge[depth++] = offsets[j];
+          continue;
         }
-        else
+        if (color[j]>0&&color[root[j]]<color[root[i]])
+        // inComponent is false and have to update root
         {
-          if (color[j]<0)
-            cluster.add(color[j]);
+          root[i] = root[j];
         }
+        callEdge[depth-1]++;
+        continue;
+      }
+
+      depth--;
+      int j;
+      if (root[i]==i) // this node is the root of its cluster
+      {
+        do
+        {
+          j = stack[--top];
+          color[j] = -color[j];
+          root[j] = i;
+        }
+        while (j!=i);
       }
-      color[u] = BLACK;
     }
   }
 
 
 
   // --------------------------------------------------------------------
-  /** The recursive part of the Tarjan algorithm. */
-  private void tarjanVisit(int i)
+  /** Marks node i as visited by {@link #tarjanVisit}. */
+  private void tarjanEnter(int i)
   {
     color[i] = counter++;
     root[i] = i;
-    stack.push(i);
-    for (int j: g.getNeighbours(i))
-    {
-      if (color[j]==WHITE)
-      {
-        tarjanVisit(j);
-      }
-      if (color[j]>0&&color[root[j]]<color[root[i]])
-      // inComponent is false and have to update root
-      {
-        root[i] = root[j];
-      }
-    }
-    int j;
-    if (root[i]==i) // this node is the root of its cluster
+    stack[top++] = i;
+  }
+
+
+
+  // --------------------------------------------------------------------
+  /** Makes sure the call stack can hold n frames. */
+  private void allocateCallStack(int n)
+  {
+    if (callNode==null||callNode.length<n)
     {
-      do
-      {
-        j = stack.pop();
-        color[j] = -color[j];
-        root[j] = i;
-      }
-      while (j!=i);
+      callNode = new int[n];
+      callEdge = new int[n];
     }
   }
 
 
 
+  // --------------------------------------------------------------------
+  /** Sets the graph to work on. */
+  private void setGraph(Graph g)
+  {
+    this.g = g;
+    csr = g instanceof CSRGraph ? (CSRGraph) g : null;
+  }
+
+
+
   // =================== public methods ================================
   // ====================================================================
   /**
@@ -168,44 +229,109 @@ public class GraphAlgorithms
    * node has the cluster index as color. The cluster indexes carry no
    * information; we guarantee only that different clusters have different
    * indexes.
+   * 
+   * @see #weakClusterSizes
    */
-  public Map weaklyConnectedClusters(Graph g)
+  public Map<Integer, Integer> weaklyConnectedClusters(Graph g)
   {
-    this.g = g;
-    if (cluster==null)
-      cluster = new HashSet<Integer>();
-    if (color==null||color.length<g.size())
-      color = new int[g.size()];
+    int[] sizes = weakClusterSizes(g);
     // cluster numbers are negative integers
-    int i, j, actCluster = 0;
-    for (i = 0; i<g.size(); ++i)
-      color[i] = WHITE;
-    for (i = 0; i<g.size(); ++i)
+    for (int i = 0; i<g.size(); ++i)
+      color[i] = -1-color[i];
+    Hashtable<Integer, Integer> ht = new Hashtable<Integer, Integer>();
+    for (int c = 0; c<sizes.length; ++c)
+      ht.put(-1-c, sizes[c]);
+    return ht;
+  }
+
+
+
+  // --------------------------------------------------------------------
+  /**
+   * Returns the sizes of the weakly connected clusters, computed with
+   * union-find in nearly linear time. Clusters are numbered from 0, in the
+   * order of their lowest node index. The cluster number of each node is left
+   * in the array {@link #color}.
+   */
+  public int[] weakClusterSizes(Graph g)
+  {
+    final CSRGraph csr = CSRGraph.of(g);
+    final int n = csr.size();
+    UnionFind uf = new UnionFind(n);
+    for (int i = 0; i<n; ++i)
+      for (int k = csr.offsets[i]; k<csr.offsets[i+1]; ++k)
+        uf.union(i, csr.targets[k]);
+
+    if (color==null||color.length<n)
+      color = new int[n];
+    // root[i] holds the number of the cluster rooted at i, once known
+    if (root==null||root.length<n)
+      root = new int[n];
+    Arrays.fill(root, 0, n, -1);
+    int[] sizes = new int[uf.sets()];
+    int clusters = 0;
+    for (int i = 0; i<n; ++i)
     {
-      if (color[i]==WHITE)
+      int r = uf.find(i);
+      if (root[r]<0)
+        root[r] = clusters++;
+      color[i] = root[r];
+      sizes[color[i]]++;
+    }
+    return sizes;
+  }
+
+
+
+  // --------------------------------------------------------------------
+  /**
+   * Computes the weakly connected clusters of the subgraphs spanned by the
+   * nodes with index less than <code>prefixes[i]</code>, as
+   * {@link PrefixSubGraph} would. Instead of computing them from scratch for
+   * each prefix, it adds the nodes one by one, in increasing index order, and
+   * merges their clusters with union-find, recording the results as each
+   * prefix size is reached. In other words, it removes the nodes in reverse
+   * order. On return, <code>maxSizes[i]</code> is the size of the largest
+   * cluster of the i-th prefix (0 for an empty one), and
+   * <code>counts[i]</code> the number of its clusters.
+   */
+  public static void prefixClusters(Graph g, final int[] prefixes, int[] maxSizes, int[] counts)
+  {
+    final CSRGraph out = CSRGraph.of(g);
+    final CSRGraph in = out.transpose();
+    final int n = out.size();
+
+    // visit the prefixes by increasing size
+    Integer[] order = new Integer[prefixes.length];
+    for (int i = 0; i<order.length; ++i)
+      order[i] = i;
+    Arrays.sort(order, new Comparator<Integer>()
+    {
+      public int compare(Integer a, Integer b)
       {
-        cluster.clear();
-        bfs(i); // dfs is recursive, for large graphs not ok
-        --actCluster;
-        for (j = 0; j<g.size(); ++j)
-        {
-          if (color[j]==BLACK||cluster.contains(new Integer(color[j])))
-            color[j] = actCluster;
-        }
+        return Integer.compare(prefixes[a], prefixes[b]);
       }
-    }
-    Hashtable<Integer, Integer> ht = new Hashtable<Integer, Integer>();
-    Integer one = new Integer(1);
-    for (j = 0; j<g.size(); ++j)
+    });
+
+    UnionFind uf = new UnionFind(n);
+    int added = 0;
+    for (int i: order)
     {
-      Integer in = new Integer(color[j]);
-      Integer num = ht.get(in);
-      if (num==null)
-        ht.put(in, one);
-      else
-        ht.put(in, new Integer(num.intValue()+1));
+      final int prefix = Math.max(0, Math.min(prefixes[i], n));
+      for (; added<prefix; ++added)
+      {
+        // edges between the new node and the nodes already added
+        for (int k = out.offsets[added]; k<out.offsets[added+1]; ++k)
+          if (out.targets[k]<added)
+            uf.union(added, out.targets[k]);
+        for (int k = in.offsets[added]; k<in.offsets[added+1]; ++k)
+          if (in.targets[k]<added)
+            uf.union(added, in.targets[k]);
+      }
+      // the nodes not added yet are singletons
+      maxSizes[i] = added>0 ? uf.maxSize() : 0;
+      counts[i] = uf.sets()-(n-added);
     }
-    return ht;
   }
 
 
@@ -217,7 +343,7 @@ public class GraphAlgorithms
    */
   public void dist(Graph g, int i)
   {
-    this.g = g;
+    setGraph(g);
     if (d==null||d.length<g.size())
       d = new int[g.size()];
     if (color==null||color.length<g.size())
@@ -246,6 +372,8 @@ public class GraphAlgorithms
   {
     if (g.directed())
       throw new IllegalArgumentException("graph is directed");
+    if (g instanceof CSRGraph)
+      return clustering((CSRGraph) g, i);
     Object[] n = g.getNeighbours(i).toArray();
     if (n.length==1)
       return 1.0;
@@ -259,6 +387,24 @@ public class GraphAlgorithms
 
 
 
+  // --------------------------------------------------------------------
+  /** {@link #clustering(Graph, int)} without boxing the neighbors. */
+  private static double clustering(CSRGraph g, int i)
+  {
+    final int from = g.offsets[i];
+    final int n = g.degree(i);
+    if (n==1)
+      return 1.0;
+    int edges = 0;
+    for (int j = 0; j<n; ++j)
+      for (int k = j+1; k<n; ++k)
+        if (g.isEdge(g.targets[from+j], g.targets[from+k]))
+          ++edges;
+    return ((edges*2.0)/n)/(n-1);
+  }
+
+
+
   // --------------------------------------------------------------------
   /**
    * Performs anti-entropy epidemic multicasting from node 0. As a result the
@@ -278,17 +424,24 @@ public class GraphAlgorithms
       c2[i] = c1[i] = WHITE;
     c2[0] = c1[0] = BLACK;
     Collection<Integer> neighbours = null;
+    final CSRGraph csr = g instanceof CSRGraph ? (CSRGraph) g : null;
     int black = 1;
     int k = 0;
     for (; k<b.length||black<g.size(); ++k)
     {
       for (int i = 0; i<c2.length; ++i)
       {
-        neighbours = g.getNeighbours(i);
-        Iterator<Integer> it = neighbours.iterator();
-        for (int j = r.nextInt(neighbours.size()); j>0; --j)
-          it.next();
-        int randn = it.next();
+        int randn;
+        if (csr!=null)
+          randn = csr.neighbor(i, r.nextInt(csr.degree(i)));
+        else
+        {
+          neighbours = g.getNeighbours(i);
+          Iterator<Integer> it = neighbours.iterator();
+          for (int j = r.nextInt(neighbours.size()); j>0; --j)
+            it.next();
+          randn = it.next();
+        }
         // push pull exchane with random neighbour
         if (c1[i]==BLACK) // c2[i] is black too
         {
@@ -337,30 +490,34 @@ public class GraphAlgorithms
   /**
    * Returns the strongly connected cluster roots with size as a value. Cluster
    * membership can be seen from the content of the array {@link #root}; each
-   * node has the root of the strongly connected cluster it belongs to. A word
-   * of caution: for large graphs that have a large diameter and that are
-   * strongly connected (such as large rings) you can get stack overflow because
-   * of the large depth of recursion.
+   * node has the root of the strongly connected cluster it belongs to. The
+   * root is the node of the cluster visited first by the depth-first search.
+   * The search is iterative, so it works on graphs of any diameter, in time
+   * and space linear in the size of the graph.
    */
-  // XXX implement a non-recursive version ASAP!!!
-  public Map tarjan(Graph g)
+  public Map<Integer, Integer> tarjan(Graph g)
   {
-    this.g = g;
-    stack.clear();
-    if (root==null||root.length<g.size())
-      root = new int[g.size()];
-    if (color==null||color.length<g.size())
-      color = new int[g.size()];
-    for (int i = 0; i<g.size(); ++i)
+    setGraph(g);
+    final CSRGraph csr = CSRGraph.of(g);
+    final int n = csr.size();
+    if (root==null||root.length<n)
+      root = new int[n];
+    if (color==null||color.length<n)
+      color = new int[n];
+    if (stack==null||stack.length<n)
+      stack = new int[n];
+    allocateCallStack(n);
+    top = 0;
+    for (int i = 0; i<n; ++i)
       color[i] = WHITE;
     counter = 1;
     // color is WHITE (0): not visited
     // not WHITE, positive (c>1): visited as the c-th node
     // color is negative (c<1): inComponent true
-    for (int i = 0; i<g.size(); ++i)
+    for (int i = 0; i<n; ++i)
     {
       if (color[i]==WHITE)
-        tarjanVisit(i);
+        tarjanVisit(csr, i);
     }
     for (int i = 0; i<g.size(); ++i)
       color[i] = 0;
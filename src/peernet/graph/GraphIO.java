@@ -20,6 +20,12 @@ package peernet.graph;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 /**
 * Implenments static methods to load and write graphs.
@@ -27,6 +33,15 @@ import java.io.*;
 public class GraphIO {
 private GraphIO() {}
 
+/** The first four bytes of the binary format: "PNCG" in ASCII. */
+private static final int BINARY_MAGIC = 0x504e4347;
+
+/** The version of the binary format. */
+private static final int BINARY_VERSION = 1;
+
+/** The size of the buffers used for reading and writing the binary format. */
+private static final int BUFFER_SIZE = 1 << 16;
+
 
 // ================== public static methods =========================
 // ==================================================================
@@ -43,7 +58,9 @@ public static void writeEdgeList( Graph g, PrintStream out ) {
 		Iterator it=g.getNeighbours(i).iterator();
 		while(it.hasNext())
 		{
-			out.println(i+" "+it.next());
+			out.print(i);
+			out.print(' ');
+			out.println(it.next());
 		}
 	}
 }
@@ -60,11 +77,13 @@ public static void writeNeighborList( Graph g, PrintStream out ) {
 	
 	for(int i=0; i<g.size(); ++i)
 	{
-		out.print(i+" ");
+		out.print(i);
+		out.print(' ');
 		Iterator it=g.getNeighbours(i).iterator();
 		while(it.hasNext())
 		{
-			out.print(it.next()+" ");
+			out.print(it.next());
+			out.print(' ');
 		}
 		out.println();
 	}
@@ -204,6 +223,162 @@ public static void writeChaco( Graph g, PrintStream out ) {
 
 // -------------------------------------------------------------------
 
+/**
+* Saves the given graph to the given channel in a compact binary format,
+* which {@link #readBinary} reads back. The neighbors of each node are
+* stored in order, so the graph read back is the same, except that its nodes
+* have no objects attached.
+* <p>
+* The format is a header of four bytes "PNCG", one byte for the version
+* (currently 1), one byte that is 1 for directed graphs and 0 otherwise, the
+* number of nodes as an int and the number of edges as a long, all big-endian.
+* Then, for each node, comes its number of neighbors, and the differences of
+* each neighbor from the previous one, the first one from the node itself.
+* The numbers are encoded in 7 bits per byte, lowest first, with the highest
+* bit set in all but the last byte. The differences are zigzag encoded first,
+* so small negative ones are short too: 0, -1, 1, -2 become 0, 1, 2, 3.
+* <p>
+* The data is encoded into a buffer that is written to the channel when
+* full. The channel is not closed.
+*/
+public static void writeBinary( Graph g, WritableByteChannel out )
+throws IOException {
+
+	final CSRGraph csr = CSRGraph.of(g);
+	final int[] offsets = csr.offsets;
+	final int[] targets = csr.targets;
+	final ByteBuffer header = ByteBuffer.allocate(18);
+	header.putInt(BINARY_MAGIC);
+	header.put((byte)BINARY_VERSION);
+	header.put((byte)(csr.directed() ? 1 : 0));
+	header.putInt(csr.size());
+	header.putLong(csr.edges());
+	header.flip();
+	writeFully(header, out);
+
+	final byte[] buf = new byte[BUFFER_SIZE];
+	final ByteBuffer bb = ByteBuffer.wrap(buf);
+	int pos = 0;
+	for(int i=0; i<csr.size(); ++i)
+	{
+		pos = writeVarint(buf, pos, offsets[i+1]-offsets[i]);
+		int previous = i;
+		for(int k=offsets[i]; k<offsets[i+1]; ++k)
+		{
+			// a varint takes at most 5 bytes
+			if( pos > buf.length-10 )
+			{
+				bb.limit(pos).position(0);
+				writeFully(bb, out);
+				pos = 0;
+			}
+			final int d = targets[k]-previous;
+			pos = writeVarint(buf, pos, (d<<1)^(d>>31));
+			previous = targets[k];
+		}
+		if( pos > buf.length-10 )
+		{
+			bb.limit(pos).position(0);
+			writeFully(bb, out);
+			pos = 0;
+		}
+	}
+	bb.limit(pos).position(0);
+	writeFully(bb, out);
+}
+
+// -------------------------------------------------------------------
+
+/**
+* Saves the given graph to the given file in the binary format of
+* {@link #writeBinary(Graph, WritableByteChannel)}.
+*/
+public static void writeBinary( Graph g, String file ) throws IOException {
+
+	FileChannel fc = FileChannel.open(Paths.get(file),
+		StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+		StandardOpenOption.TRUNCATE_EXISTING);
+	try
+	{
+		writeBinary(g, fc);
+	}
+	finally
+	{
+		fc.close();
+	}
+}
+
+// -------------------------------------------------------------------
+
+/**
+* Reads a graph saved by {@link #writeBinary(Graph, WritableByteChannel)}
+* from the given channel, which is not closed.
+* @throws IOException if the data is not in the binary format or it is
+* truncated
+*/
+public static CSRGraph readBinary( ReadableByteChannel in )
+throws IOException {
+
+	final ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+	bb.limit(0);
+	fill(bb, in, 18);
+	if( bb.getInt() != BINARY_MAGIC )
+		throw new IOException("Not a binary graph");
+	final int version = bb.get();
+	if( version != BINARY_VERSION )
+		throw new IOException("Unknown binary graph version "+version);
+	final boolean directed = bb.get() != 0;
+	final int size = bb.getInt();
+	final long edges = bb.getLong();
+	if( size < 0 || edges < 0 || edges > Integer.MAX_VALUE )
+		throw new IOException("Invalid binary graph header");
+
+	final int[] offsets = new int[size+1];
+	final int[] targets = new int[(int)edges];
+	int m = 0;
+	for(int i=0; i<size; ++i)
+	{
+		final int degree = readVarint(bb, in);
+		if( degree < 0 || degree > edges-m )
+			throw new IOException("Invalid degree of node "+i);
+		int previous = i;
+		for(int k=0; k<degree; ++k)
+		{
+			final int z = readVarint(bb, in);
+			previous += (z>>>1)^-(z&1);
+			if( previous < 0 || previous >= size )
+				throw new IOException("Invalid neighbor of node "+i);
+			targets[m++] = previous;
+		}
+		offsets[i+1] = m;
+	}
+	if( m != edges )
+		throw new IOException("Expected "+edges+" edges, found "+m);
+	return new CSRGraph(offsets, targets, directed, null);
+}
+
+// -------------------------------------------------------------------
+
+/**
+* Reads a graph from the given file in the binary format of
+* {@link #writeBinary(Graph, WritableByteChannel)}.
+*/
+public static CSRGraph readBinary( String file ) throws IOException {
+
+	FileChannel fc = FileChannel.open(Paths.get(file),
+		StandardOpenOption.READ);
+	try
+	{
+		return readBinary(fc);
+	}
+	finally
+	{
+		fc.close();
+	}
+}
+
+// -------------------------------------------------------------------
+
 /**
 * Read a graph in newscast graph format.
 * The format depends on mode, the parameter.
@@ -265,5 +440,70 @@ throws IOException {
 }
 
 
+// ================== private static methods ========================
+// ==================================================================
+
+
+/** Writes the remaining bytes of the buffer to the channel. */
+private static void writeFully( ByteBuffer bb, WritableByteChannel out )
+throws IOException {
+
+	while( bb.hasRemaining() ) out.write(bb);
+}
+
+// -------------------------------------------------------------------
+
+/**
+* Encodes the given value as a varint into the array at the given position,
+* and returns the position after it.
+*/
+private static int writeVarint( byte[] buf, int pos, int value ) {
+
+	while( (value & ~0x7f) != 0 )
+	{
+		buf[pos++] = (byte)((value & 0x7f) | 0x80);
+		value >>>= 7;
+	}
+	buf[pos++] = (byte)value;
+	return pos;
+}
+
+// -------------------------------------------------------------------
+
+/**
+* Reads more data from the channel into the buffer, keeping the remaining
+* bytes, until it has at least the given number of them.
+* @throws EOFException if the channel ends before
+*/
+private static void fill( ByteBuffer bb, ReadableByteChannel in, int bytes )
+throws IOException {
+
+	bb.compact();
+	while( bb.position() < bytes )
+	{
+		if( in.read(bb) < 0 )
+			throw new EOFException("Truncated binary graph");
+	}
+	bb.flip();
+}
+
+// -------------------------------------------------------------------
+
+/** Decodes a varint from the buffer, reading more data when needed. */
+private static int readVarint( ByteBuffer bb, ReadableByteChannel in )
+throws IOException {
+
+	int value = 0;
+	for(int shift=0; shift<35; shift+=7)
+	{
+		if( !bb.hasRemaining() ) fill(bb, in, 1);
+		final byte b = bb.get();
+		value |= (b & 0x7f) << shift;
+		if( b >= 0 ) return value;
+	}
+	throw new IOException("Invalid varint in binary graph");
+}
+
+
 }
 
@@ -0,0 +1,207 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.graph;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+
+
+
+
+/**
+ * Multi-source breadth-first search (MS-BFS) over a {@link CSRGraph}, which
+ * runs the searches from many sources at once. Each node holds one bit per
+ * source, in <code>lanes/64</code> <code>long</code> words: whether the source
+ * has already reached it, and whether it reached it in the last level. A level
+ * is expanded for all sources together, by a single pass over the edges of
+ * the nodes reached in the last level, combining the bits with bitwise
+ * operations. So, sources that reach a node at the same level share the cost
+ * of scanning its edges, which is the common case in small-world overlays.
+ * <p>
+ * It computes the number of (source, node) pairs at each hop distance, which
+ * is exactly what one {@link GraphAlgorithms#dist} call per source would
+ * yield. An instance is not thread safe; {@link #hopCounts} runs the batches
+ * of sources in parallel, with an instance per thread.
+ */
+public class MultiSourceBFS
+{
+  private final CSRGraph g;
+
+  /** Number of long words per node */
+  private final int width;
+
+  /** For each node and source, whether the source has reached the node */
+  private final long[] seen;
+
+  /** For each node and source, whether the source reached it in the last level */
+  private long[] visit;
+
+  /** For each node and source, whether the source reaches it in this level */
+  private long[] next;
+
+  /** Number of pairs at each distance */
+  private long[] counts = new long[16];
+
+
+
+  // ====================== public constructors ===================
+  // ==============================================================
+  /**
+   * @param lanes the number of sources searched at once, a positive multiple
+   *          of 64
+   */
+  public MultiSourceBFS(CSRGraph g, int lanes)
+  {
+    if (lanes<=0||lanes%64!=0)
+      throw new IllegalArgumentException("lanes must be a positive multiple of 64: "+lanes);
+    this.g = g;
+    width = lanes/64;
+    seen = new long[g.size()*width];
+    visit = new long[g.size()*width];
+    next = new long[g.size()*width];
+  }
+
+
+
+  // ====================== public methods ========================
+  // ==============================================================
+  /**
+   * Runs the searches from <code>sources[from..to-1]</code>, at most
+   * <code>lanes</code> of them, and adds to <code>result[k]</code> the number
+   * of (source, node) pairs at distance k, growing the array if needed.
+   *
+   * @return the result array, or the new one if it had to grow
+   */
+  public long[] run(int[] sources, int from, int to, long[] result)
+  {
+    if (to-from>64*width)
+      throw new IllegalArgumentException("more sources than lanes");
+    final int n = g.size();
+    final int[] offsets = g.offsets;
+    final int[] targets = g.targets;
+    Arrays.fill(seen, 0);
+    Arrays.fill(visit, 0);
+
+    for (int s = from; s<to; ++s)
+    {
+      int lane = s-from;
+      int word = sources[s]*width+(lane>>>6);
+      seen[word] |= 1L<<lane;
+      visit[word] |= 1L<<lane;
+    }
+    counts[0] = to-from;
+    int depth = 1;
+
+    while (true)
+    {
+      // Expand the last level of all sources at once
+      for (int v = 0; v<n; ++v)
+      {
+        final int base = v*width;
+        long any = 0;
+        for (int w = 0; w<width; ++w)
+          any |= visit[base+w];
+        if (any==0)
+          continue;
+        for (int k = offsets[v]; k<offsets[v+1]; ++k)
+        {
+          final int ubase = targets[k]*width;
+          for (int w = 0; w<width; ++w)
+          {
+            long found = visit[base+w]&~seen[ubase+w];
+            if (found!=0)
+            {
+              next[ubase+w] |= found;
+              seen[ubase+w] |= found;
+            }
+          }
+        }
+      }
+
+      // The new level becomes the last one
+      long reached = 0;
+      for (int i = 0; i<next.length; ++i)
+        reached += Long.bitCount(next[i]);
+      if (reached==0)
+        break;
+      long[] tmp = visit;
+      visit = next;
+      next = tmp;
+      Arrays.fill(next, 0);
+
+      if (depth==counts.length)
+        counts = Arrays.copyOf(counts, 2*depth);
+      counts[depth++] = reached;
+    }
+
+    if (result.length<depth)
+      result = Arrays.copyOf(result, depth);
+    for (int k = 0; k<depth; ++k)
+      result[k] += counts[k];
+    return result;
+  }
+
+
+
+  // ---------------------------------------------------------------
+  /**
+   * Returns the number of (source, node) pairs at each hop distance, from the
+   * given sources to all nodes of the graph, counting each source at distance
+   * 0 from itself. Pairs whose node is not reachable from the source are not
+   * counted. The sources are split in batches of <code>lanes</code>, which
+   * run in parallel on the common fork-join pool.
+   */
+  public static long[] hopCounts(final CSRGraph g, final int[] sources, final int lanes)
+  {
+    final ThreadLocal<MultiSourceBFS> searches = new ThreadLocal<MultiSourceBFS>()
+    {
+      protected MultiSourceBFS initialValue()
+      {
+        return new MultiSourceBFS(g, lanes);
+      }
+    };
+
+    class Task extends RecursiveTask<long[]>
+    {
+      private static final long serialVersionUID = 1L;
+      final int from, to;
+
+      Task(int from, int to)
+      {
+        this.from = from;
+        this.to = to;
+      }
+
+      protected long[] compute()
+      {
+        if (to-from<=lanes)
+          return searches.get().run(sources, from, to, new long[0]);
+
+        // split on a batch boundary
+        int middle = from+((to-from)/lanes/2)*lanes;
+        if (middle==from)
+          middle += lanes;
+        Task right = new Task(middle, to);
+        right.fork();
+        long[] a = new Task(from, middle).compute();
+        long[] b = right.join();
+        if (a.length<b.length)
+        {
+          long[] tmp = a;
+          a = b;
+          b = tmp;
+        }
+        for (int k = 0; k<b.length; ++k)
+          a[k] += b[k];
+        return a;
+      }
+    }
+    if (sources.length==0)
+      return new long[0];
+    return ForkJoinPool.commonPool().invoke(new Task(0, sources.length));
+  }
+}
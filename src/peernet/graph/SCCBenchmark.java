@@ -0,0 +1,232 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.graph;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Random;
+import java.util.Stack;
+
+
+
+
+
+/**
+ * Benchmark of {@link GraphAlgorithms#tarjan}, which is iterative, against
+ * the former recursive implementation, on graphs wired by the
+ * {@link GraphFactory} generators. For each graph it prints the number of
+ * strongly connected clusters and the largest one, the time of each
+ * implementation, and whether they found the same clusters. The recursive one
+ * runs in a thread with the given stack size, and it is reported to overflow
+ * if it does.
+ * <p>
+ * Usage: <code>java peernet.graph.SCCBenchmark [nodes [stackMB]]</code>,
+ * by default 1000000 nodes and the default stack size of the JVM.
+ */
+public class SCCBenchmark
+{
+  /**
+   * Graph that just records the edges set by the generators, to be turned
+   * into a {@link CSRGraph}.
+   */
+  private static class EdgeList implements Graph
+  {
+    private final int n;
+    private int[] from = new int[1024];
+    private int[] to = new int[1024];
+    private int m = 0;
+
+    EdgeList(int n)
+    {
+      this.n = n;
+    }
+
+    public boolean setEdge(int i, int j)
+    {
+      if (m==from.length)
+      {
+        from = Arrays.copyOf(from, 2*m);
+        to = Arrays.copyOf(to, 2*m);
+      }
+      from[m] = i;
+      to[m++] = j;
+      return true;
+    }
+
+    CSRGraph toCSR()
+    {
+      int[] offsets = new int[n+1];
+      for (int e = 0; e<m; ++e)
+        offsets[from[e]+1]++;
+      for (int i = 0; i<n; ++i)
+        offsets[i+1] += offsets[i];
+      int[] next = Arrays.copyOf(offsets, n);
+      int[] targets = new int[m];
+      for (int e = 0; e<m; ++e)
+        targets[next[from[e]]++] = to[e];
+      return new CSRGraph(offsets, targets, true, null);
+    }
+
+    public int size()
+    {
+      return n;
+    }
+
+    public boolean directed()
+    {
+      return true;
+    }
+
+    public boolean isEdge(int i, int j)
+    {
+      throw new UnsupportedOperationException();
+    }
+
+    public Collection<Integer> getNeighbours(int i)
+    {
+      throw new UnsupportedOperationException();
+    }
+
+    public Object getNode(int i)
+    {
+      return null;
+    }
+
+    public Object getEdge(int i, int j)
+    {
+      return null;
+    }
+
+    public boolean clearEdge(int i, int j)
+    {
+      throw new UnsupportedOperationException();
+    }
+
+    public int degree(int i)
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+
+
+  /**
+   * The recursive Tarjan algorithm, as GraphAlgorithms implemented it before.
+   */
+  private static class RecursiveTarjan
+  {
+    private final Graph g;
+    final int[] root;
+    private final int[] color;
+    private final Stack<Integer> stack = new Stack<Integer>();
+    private int counter = 1;
+
+    RecursiveTarjan(Graph g)
+    {
+      this.g = g;
+      root = new int[g.size()];
+      color = new int[g.size()];
+    }
+
+    void run()
+    {
+      for (int i = 0; i<g.size(); ++i)
+      {
+        if (color[i]==GraphAlgorithms.WHITE)
+          visit(i);
+      }
+    }
+
+    private void visit(int i)
+    {
+      color[i] = counter++;
+      root[i] = i;
+      stack.push(i);
+      for (int j: g.getNeighbours(i))
+      {
+        if (color[j]==GraphAlgorithms.WHITE)
+        {
+          visit(j);
+        }
+        if (color[j]>0&&color[root[j]]<color[root[i]])
+        {
+          root[i] = root[j];
+        }
+      }
+      int j;
+      if (root[i]==i)
+      {
+        do
+        {
+          j = stack.pop();
+          color[j] = -color[j];
+          root[j] = i;
+        }
+        while (j!=i);
+      }
+    }
+  }
+
+
+
+  public static void main(String[] args) throws InterruptedException
+  {
+    int n = args.length>0 ? Integer.parseInt(args[0]) : 1000000;
+    long stack = args.length>1 ? Long.parseLong(args[1])<<20 : 0;
+
+    System.out.println("nodes "+n+", recursive stack "+(stack==0 ? "default" : (stack>>20)+"MB"));
+    System.out.println("graph\tedges\tclusters\tlargest\titerative (s)\trecursive (s)\tsame");
+    run("ringlattice", GraphFactory.wireRingLattice(new EdgeList(n), 2), stack);
+    run("ws", GraphFactory.wireWS(new EdgeList(n), 4, 0.1, new Random(1)), stack);
+    run("kout", GraphFactory.wireKOut(new EdgeList(n), 3, new Random(1)), stack);
+    run("star", GraphFactory.wireStar(new EdgeList(n)), stack);
+    run("tree", GraphFactory.wireRegRootedTree(new EdgeList(n), 3), stack);
+    run("hypercube", GraphFactory.wireHypercube(new EdgeList(n)), stack);
+    run("scalefree", GraphFactory.wireScaleFreeBA(new EdgeList(n), 3, new Random(1)), stack);
+  }
+
+
+
+  private static void run(String name, Graph edges, long stack) throws InterruptedException
+  {
+    final CSRGraph g = ((EdgeList) edges).toCSR();
+
+    GraphAlgorithms ga = new GraphAlgorithms();
+    long begin = System.nanoTime();
+    Map<Integer, Integer> clusters = ga.tarjan(g);
+    double iterative = (System.nanoTime()-begin)/1e9;
+    int largest = 0;
+    for (int size: clusters.values())
+      largest = Math.max(largest, size);
+
+    final RecursiveTarjan rt = new RecursiveTarjan(g);
+    final double[] recursive = { -1 };
+    Thread thread = new Thread(null, new Runnable()
+    {
+      public void run()
+      {
+        long begin = System.nanoTime();
+        try
+        {
+          rt.run();
+          recursive[0] = (System.nanoTime()-begin)/1e9;
+        }
+        catch (StackOverflowError e)
+        {
+          // reported below
+        }
+      }
+    }, "recursive", stack);
+    thread.start();
+    thread.join();
+
+    String same = "-";
+    if (recursive[0]>=0)
+      same = ""+Arrays.equals(Arrays.copyOf(ga.root, g.size()), rt.root);
+    System.out.printf("%s\t%d\t%d\t%d\t%.3f\t%s\t%s\n", name, g.edges(), clusters.size(), largest, iterative,
+        recursive[0]>=0 ? String.format("%.3f", recursive[0]) : "stack overflow", same);
+  }
+}
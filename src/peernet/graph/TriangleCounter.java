@@ -0,0 +1,353 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.graph;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+
+
+
+
+/**
+ * Counts the triangles of an undirected graph, for computing clustering
+ * coefficients. It works on a copy of the graph's adjacency with the neighbors
+ * of each node sorted, and with each edge kept only at the end of lower
+ * degree. Each triangle is then found exactly once, by merging the remaining
+ * neighbors of the two ends of one of its edges, instead of one
+ * {@link Graph#isEdge} call per pair of neighbors of each node. Keeping edges
+ * at their lower degree end bounds the lists to merge by the square root of
+ * the number of edges, even for hubs. The nodes are processed in parallel.
+ * <p>
+ * Counting the triangles of only a few nodes, such as a random sample, is
+ * cheaper than counting them all. Then, each node is processed on its own,
+ * by merging its sorted neighbors with those of each of its neighbors.
+ * <p>
+ * Multiple edges and self-loops are ignored, which is what the coefficient
+ * means anyway. With them, {@link GraphAlgorithms#clustering} counts some
+ * pairs more than once.
+ */
+public class TriangleCounter
+{
+  /** Number of nodes each fork-join task processes without splitting further */
+  private static final int GRAIN = 4096;
+
+  /**
+   * Nodes are processed on their own when fewer than the graph size divided
+   * by this are asked for
+   */
+  private static final int SAMPLE_RATIO = 16;
+
+  /** Number of distinct neighbors of each node, other than itself */
+  private final int[] degree;
+
+  /** Start of the neighbors of each node in {@link #neighbors}, plus the end */
+  private final int[] start;
+
+  /** The sorted neighbors of all nodes, without duplicates and self-loops */
+  private final int[] neighbors;
+
+  /** Start of the kept neighbors of each node in {@link #targets}, plus the end */
+  private final int[] offsets;
+
+  /**
+   * The sorted neighbors of all nodes, where each edge is kept only at the end
+   * of lower degree, or of lower ID for equal degrees
+   */
+  private final int[] targets;
+
+  /** Number of triangles of each node, computed on first use */
+  private int[] triangles = null;
+
+
+
+  // ====================== public constructors ===================
+  // ==============================================================
+  /**
+   * @throws IllegalArgumentException if g is directed
+   */
+  public TriangleCounter(Graph g)
+  {
+    if (g.directed())
+      throw new IllegalArgumentException("graph is directed");
+    CSRGraph csr = CSRGraph.of(g);
+    final int n = csr.size();
+
+    // Sort the neighbors, and drop duplicates and self-loops
+    start = new int[n+1];
+    int[] sorted = Arrays.copyOf(csr.targets, csr.targets.length);
+    degree = new int[n];
+    int m = 0;
+    for (int i = 0; i<n; ++i)
+    {
+      int from = csr.offsets[i];
+      int to = csr.offsets[i+1];
+      Arrays.sort(sorted, from, to);
+      start[i] = m;
+      for (int k = from; k<to; ++k)
+      {
+        if (sorted[k]!=i&&(k==from||sorted[k]!=sorted[k-1]))
+          sorted[m++] = sorted[k];
+      }
+      degree[i] = m-start[i];
+    }
+    start[n] = m;
+    neighbors = Arrays.copyOf(sorted, m);
+
+    // Keep each edge at one end only; the order stays sorted
+    offsets = new int[n+1];
+    int kept = 0;
+    for (int i = 0; i<n; ++i)
+    {
+      offsets[i] = kept;
+      for (int k = start[i]; k<start[i+1]; ++k)
+      {
+        if (before(i, neighbors[k]))
+          sorted[kept++] = neighbors[k];
+      }
+    }
+    offsets[n] = kept;
+    targets = Arrays.copyOf(sorted, kept);
+  }
+
+
+
+  // ====================== public methods ========================
+  // ==============================================================
+  /**
+   * Returns the number of distinct neighbors of node i, other than itself.
+   */
+  public int degree(int i)
+  {
+    return degree[i];
+  }
+
+
+
+  // ---------------------------------------------------------------
+  /**
+   * Returns the number of edges among the neighbors of node i, which is the
+   * number of triangles node i is part of. The first call counts the
+   * triangles of all nodes.
+   */
+  public int triangles(int i)
+  {
+    return triangles()[i];
+  }
+
+
+
+  // ---------------------------------------------------------------
+  /**
+   * Returns the clustering coefficient of node i, as defined by
+   * {@link GraphAlgorithms#clustering}: 1 for one neighbor, and NaN for none.
+   * Unlike there, the neighbors are counted without duplicates and without i
+   * itself, so the two differ for nodes with multiple edges or a self-loop.
+   */
+  public double clustering(int i)
+  {
+    int n = degree[i];
+    if (n==1)
+      return 1.0;
+    int edges = triangles(i);
+    return ((edges*2.0)/n)/(n-1);
+  }
+
+
+
+  // ---------------------------------------------------------------
+  /**
+   * Returns the clustering coefficients of the given nodes, in the same order.
+   * If there are few of them, and the triangles of all nodes were not counted
+   * yet, the nodes are processed on their own, in parallel.
+   */
+  public double[] clustering(final int[] nodes)
+  {
+    final double[] result = new double[nodes.length];
+    synchronized (this)
+    {
+      if (triangles!=null||nodes.length>=degree.length/SAMPLE_RATIO)
+      {
+        for (int k = 0; k<nodes.length; ++k)
+          result[k] = clustering(nodes[k]);
+        return result;
+      }
+    }
+
+    class Task extends RecursiveAction
+    {
+      private static final long serialVersionUID = 1L;
+      final int from, to;
+
+      Task(int from, int to)
+      {
+        this.from = from;
+        this.to = to;
+      }
+
+      protected void compute()
+      {
+        if (to-from<=GRAIN/SAMPLE_RATIO)
+        {
+          for (int k = from; k<to; ++k)
+          {
+            int i = nodes[k];
+            int n = degree[i];
+            result[k] = n==1 ? 1.0 : ((trianglesOf(i)*2.0)/n)/(n-1);
+          }
+        }
+        else
+        {
+          int middle = (from+to)>>>1;
+          invokeAll(new Task(from, middle), new Task(middle, to));
+        }
+      }
+    }
+    ForkJoinPool.commonPool().invoke(new Task(0, nodes.length));
+    return result;
+  }
+
+
+
+  // ====================== private methods =======================
+  // ==============================================================
+  /**
+   * Returns the number of triangles of each node, counting them the first
+   * time. The nodes are split over the common fork-join pool. Each triangle is
+   * found from the node of its lowest order, which credits the other two
+   * nodes atomically.
+   */
+  private synchronized int[] triangles()
+  {
+    if (triangles!=null)
+      return triangles;
+    final int n = degree.length;
+    final AtomicIntegerArray counts = new AtomicIntegerArray(n);
+    class Task extends RecursiveAction
+    {
+      private static final long serialVersionUID = 1L;
+      final int from, to;
+
+      Task(int from, int to)
+      {
+        this.from = from;
+        this.to = to;
+      }
+
+      protected void compute()
+      {
+        if (to-from<=GRAIN)
+        {
+          for (int u = from; u<to; ++u)
+            count(u, counts);
+        }
+        else
+        {
+          int middle = (from+to)>>>1;
+          invokeAll(new Task(from, middle), new Task(middle, to));
+        }
+      }
+    }
+    ForkJoinPool.commonPool().invoke(new Task(0, n));
+    triangles = new int[n];
+    for (int i = 0; i<n; ++i)
+      triangles[i] = counts.get(i);
+    return triangles;
+  }
+
+
+
+  // ---------------------------------------------------------------
+  /**
+   * Finds the triangles whose node of lowest order is u, by intersecting the
+   * kept neighbors of u with those of each of them, and adds them to the
+   * counts of their nodes.
+   */
+  private void count(int u, AtomicIntegerArray counts)
+  {
+    final int uFrom = offsets[u];
+    final int uTo = offsets[u+1];
+    int found = 0;
+    for (int k = uFrom; k<uTo; ++k)
+    {
+      int v = targets[k];
+      int a = uFrom;
+      int b = offsets[v];
+      int bEnd = offsets[v+1];
+      int common = 0;
+      while (a<uTo&&b<bEnd)
+      {
+        int x = targets[a];
+        int y = targets[b];
+        if (x<y)
+          a++;
+        else if (x>y)
+          b++;
+        else
+        {
+          counts.incrementAndGet(x);
+          common++;
+          a++;
+          b++;
+        }
+      }
+      if (common>0)
+        counts.addAndGet(v, common);
+      found += common;
+    }
+    if (found>0)
+      counts.addAndGet(u, found);
+  }
+
+
+
+  // ---------------------------------------------------------------
+  /**
+   * Counts the triangles of node i alone, as the number of common neighbors
+   * of i and each of its neighbors, each found from both of its ends.
+   */
+  private int trianglesOf(int i)
+  {
+    final int iFrom = start[i];
+    final int iTo = start[i+1];
+    int twice = 0;
+    for (int k = iFrom; k<iTo; ++k)
+    {
+      int j = neighbors[k];
+      int a = iFrom;
+      int b = start[j];
+      int bEnd = start[j+1];
+      while (a<iTo&&b<bEnd)
+      {
+        int x = neighbors[a];
+        int y = neighbors[b];
+        if (x<y)
+          a++;
+        else if (x>y)
+          b++;
+        else
+        {
+          twice++;
+          a++;
+          b++;
+        }
+      }
+    }
+    return twice/2;
+  }
+
+
+
+  // ---------------------------------------------------------------
+  /**
+   * The order in which edges are kept: by degree, then by ID.
+   */
+  private boolean before(int i, int j)
+  {
+    return degree[i]<degree[j]||(degree[i]==degree[j]&&i<j);
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.graph;
+
+import java.util.Arrays;
+
+
+
+
+
+/**
+ * Disjoint sets of the integers 0 to n-1 (union-find), with union by size and
+ * path halving, so that any sequence of operations takes nearly linear time.
+ * Initially, each integer is a set by itself. It keeps track of the number of
+ * sets and of the size of the largest one, which makes it suitable for
+ * computing the weakly connected clusters of a graph incrementally, as edges
+ * are added.
+ */
+public class UnionFind
+{
+  /** The parent of each element, or the element itself for roots */
+  private final int[] parent;
+
+  /** The size of the set of each root */
+  private final int[] size;
+
+  private int sets;
+
+  private int maxSize;
+
+
+
+  // ====================== public constructors ===================
+  // ==============================================================
+  /**
+   * Creates n singleton sets, of the integers 0 to n-1.
+   */
+  public UnionFind(int n)
+  {
+    parent = new int[n];
+    size = new int[n];
+    reset();
+  }
+
+
+
+  // ====================== public methods ========================
+  // ==============================================================
+  /**
+   * Turns each integer into a singleton set again.
+   */
+  public void reset()
+  {
+    for (int i = 0; i<parent.length; ++i)
+      parent[i] = i;
+    Arrays.fill(size, 1);
+    sets = parent.length;
+    maxSize = parent.length>0 ? 1 : 0;
+  }
+
+
+
+  // ---------------------------------------------------------------
+  /**
+   * Returns the representative of the set of i.
+   */
+  public int find(int i)
+  {
+    while (parent[i]!=i)
+    {
+      parent[i] = parent[parent[i]];
+      i = parent[i];
+    }
+    return i;
+  }
+
+
+
+  // ---------------------------------------------------------------
+  /**
+   * Merges the sets of i and j. Returns true if they were different sets.
+   */
+  public boolean union(int i, int j)
+  {
+    i = find(i);
+    j = find(j);
+    if (i==j)
+      return false;
+    if (size[i]<size[j])
+    {
+      int tmp = i;
+      i = j;
+      j = tmp;
+    }
+    parent[j] = i;
+    size[i] += size[j];
+    if (size[i]>maxSize)
+      maxSize = size[i];
+    sets--;
+    return true;
+  }
+
+
+
+  // ---------------------------------------------------------------
+  /**
+   * Returns the size of the set of i.
+   */
+  public int size(int i)
+  {
+    return size[find(i)];
+  }
+
+
+
+  // ---------------------------------------------------------------
+  /**
+   * Returns the number of sets.
+   */
+  public int sets()
+  {
+    return sets;
+  }
+
+
+
+  // ---------------------------------------------------------------
+  /**
+   * Returns the size of the largest set.
+   */
+  public int maxSize()
+  {
+    return maxSize;
+  }
+}
@@ -0,0 +1,462 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.rangesim;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import peernet.config.Configuration;
+import peernet.config.IllegalParameterException;
+import peernet.config.MissingParameterException;
+import peernet.config.ParsedProperties;
+import peernet.core.CommonState;
+import peernet.core.Engine;
+import peernet.core.Engine.Type;
+import peernet.core.SimulationContext;
+import peernet.util.StringListParser;
+
+
+
+
+
+/**
+ * Runs one experiment for each point of a grid of parameter values, all in
+ * the same JVM, so that only the first one pays for starting the JVM, loading
+ * classes and compiling the hot code. The grid is given by the properties
+ * {@value #PAR_RANGE}<tt>.*</tt> of a base configuration, each of which has
+ * the form <tt>parameter;values</tt>, where the values are a range list as
+ * parsed by {@link StringListParser}. For example:
+ * <pre>
+ *   range.0 SIZE;1000:10000|1000
+ *   range.1 random.seed;1:10
+ * </pre>
+ * runs 100 experiments, each with the base configuration with
+ * <tt>SIZE</tt> and <tt>random.seed</tt> set to one combination of the values.
+ * The experiments are run in the order of the ranges, the last range varying
+ * fastest.
+ * <p>
+ * Each experiment runs in a new {@link SimulationContext}, so it starts from
+ * a clean engine, network, configuration and random generator. Applications
+ * that keep static state of their own have to reset it in their initializers.
+ * Only the SIM execution mode, sequential or parallel, is supported.
+ * <p>
+ * If {@value #PAR_OUTPUT} is defined, the standard output and error of each
+ * experiment are written to separate files in that directory, named after the
+ * number of the experiment, and the parameter values of each experiment are
+ * listed in the file <tt>experiments.txt</tt>. Otherwise, the output of all
+ * experiments goes to the standard output, each preceded by a line with its
+ * parameter values.
+ * <p>
+ * Experiments can also run concurrently, by {@value #PAR_THREADS} threads,
+ * each with its own context. Applications that keep static state have to be
+ * run by a single thread.
+ * <p>
+ * Usage: <code>java peernet.rangesim.RangeSimulator config [name=value ...]</code>,
+ * with the same arguments as {@link peernet.Simulator}.
+ */
+public class RangeSimulator
+{
+  /**
+   * The prefix of the ranges of parameter values.
+   *
+   * @config
+   */
+  public static final String PAR_RANGE = "range";
+
+  /**
+   * The directory where the output of each experiment is written. If it is
+   * not defined, all output goes to the standard output and error. It is
+   * created if it does not exist.
+   *
+   * @config
+   */
+  public static final String PAR_OUTPUT = "simulation.output";
+
+  /**
+   * The number of experiments run concurrently. Defaults to 1. More than one
+   * requires {@value #PAR_OUTPUT}.
+   *
+   * @config
+   */
+  public static final String PAR_THREADS = "simulation.threads";
+
+  /** The base configuration */
+  private final Properties base;
+
+  /** The names of the parameters given by ranges */
+  private final String[] pars;
+
+  /** The values of each parameter */
+  private final String[][] values;
+
+  /** The total number of experiments */
+  private final int experiments;
+
+  private final File output;
+
+  private final int threads;
+
+  /** Routes the standard output of each thread to that of its experiment */
+  private RoutingStream out = null;
+
+  /** Routes the standard error of each thread to that of its experiment */
+  private RoutingStream err = null;
+
+
+
+  // ---------------------------------------------------------------------
+  // Initialization
+  // ---------------------------------------------------------------------
+  /**
+   * Reads the ranges and the other parameters of this class from the given
+   * base configuration, which must also be the current one.
+   */
+  public RangeSimulator(Properties base)
+  {
+    this.base = base;
+    String[] ranges = Configuration.getNames(PAR_RANGE);
+    pars = new String[ranges.length];
+    values = new String[ranges.length][];
+    long total = 1;
+    for (int i = 0; i<ranges.length; i++)
+    {
+      String[] array = Configuration.getString(ranges[i]).split(";");
+      if (array.length!=2)
+        throw new IllegalParameterException(ranges[i], "should be formatted as <parameter>;<value list>");
+      pars[i] = array[0].trim();
+      try
+      {
+        values[i] = StringListParser.parseList(array[1].trim());
+      }
+      catch (IllegalArgumentException e)
+      {
+        throw new IllegalParameterException(ranges[i], e.getMessage());
+      }
+      total *= values[i].length;
+    }
+    if (total>Integer.MAX_VALUE)
+      throw new IllegalParameterException(PAR_RANGE, "too many experiments: "+total);
+    experiments = (int) total;
+
+    output = Configuration.contains(PAR_OUTPUT) ? new File(Configuration.getString(PAR_OUTPUT)) : null;
+    threads = Configuration.getInt(PAR_THREADS, 1);
+    if (threads<1)
+      throw new IllegalParameterException(PAR_THREADS, "should be positive");
+    if (threads>1&&output==null)
+      throw new IllegalParameterException(PAR_OUTPUT, "is required when "+PAR_THREADS+" is more than 1");
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  // Methods
+  // ---------------------------------------------------------------------
+  /**
+   * Runs all experiments. An experiment that fails is reported on its
+   * standard error, and does not stop the others.
+   *
+   * @return the number of experiments that failed
+   * @throws IOException if the output files cannot be created
+   */
+  public int run() throws IOException
+  {
+    if (output!=null)
+    {
+      if (!output.isDirectory()&&!output.mkdirs())
+        throw new IOException("Cannot create directory "+output);
+      writeIndex();
+      out = new RoutingStream(System.out);
+      err = new RoutingStream(System.err);
+      System.setOut(new PrintStream(out));
+      System.setErr(new PrintStream(err));
+    }
+
+    final AtomicInteger next = new AtomicInteger();
+    final AtomicInteger failed = new AtomicInteger();
+    try
+    {
+      if (threads==1)
+      {
+        for (int k = 0; k<experiments; k++)
+          if (!runExperiment(k))
+            failed.incrementAndGet();
+      }
+      else
+      {
+        Thread[] workers = new Thread[Math.min(threads, experiments)];
+        for (int t = 0; t<workers.length; t++)
+        {
+          workers[t] = new Thread("range-"+t)
+          {
+            public void run()
+            {
+              for (int k = next.getAndIncrement(); k<experiments; k = next.getAndIncrement())
+                if (!runExperiment(k))
+                  failed.incrementAndGet();
+            }
+          };
+          workers[t].start();
+        }
+        for (Thread w: workers)
+          w.join();
+      }
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+    finally
+    {
+      if (output!=null)
+      {
+        System.setOut(out.fallback);
+        System.setErr(err.fallback);
+      }
+    }
+    return failed.get();
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  /**
+   * Runs experiment k. Returns true if it succeeded.
+   */
+  private boolean runExperiment(int k)
+  {
+    Properties p = new Properties();
+    p.putAll(base);
+    int[] index = point(k);
+    StringBuilder label = new StringBuilder();
+    for (int i = 0; i<pars.length; i++)
+    {
+      p.setProperty(pars[i], values[i][index[i]]);
+      label.append(i==0 ? "" : " ").append(pars[i]).append('=').append(values[i][index[i]]);
+    }
+
+    PrintStream runOut = null;
+    PrintStream runErr = null;
+    try
+    {
+      if (output!=null)
+      {
+        runOut = new PrintStream(new BufferedOutputStream(new FileOutputStream(file(k, ".out"))));
+        runErr = new PrintStream(new BufferedOutputStream(new FileOutputStream(file(k, ".err"))));
+        out.set(runOut);
+        err.set(runErr);
+      }
+      else
+        System.out.println("Experiment "+k+": "+label);
+      System.err.println("RangeSimulator: experiment "+k+": "+label);
+
+      return runExperiment(p);
+    }
+    catch (Throwable e)
+    {
+      System.err.println("RangeSimulator: experiment failed");
+      e.printStackTrace();
+      return false;
+    }
+    finally
+    {
+      if (output!=null)
+      {
+        out.set(null);
+        err.set(null);
+        if (runOut!=null)
+          runOut.close();
+        if (runErr!=null)
+          runErr.close();
+      }
+    }
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  /**
+   * Runs one experiment under the given configuration, in a new
+   * {@link SimulationContext} bound to the calling thread while it runs.
+   * Returns true if it succeeded; otherwise, the error is reported on the
+   * standard error, configuration errors as by {@link peernet.Simulator}, and
+   * others with their stack trace. Errors such as {@link StackOverflowError}
+   * or {@link OutOfMemoryError} fail the experiment too, rather than the
+   * thread running it, so that the following experiments still run.
+   */
+  public static boolean runExperiment(Properties p)
+  {
+    SimulationContext previous = new SimulationContext().bind();
+    try
+    {
+      Configuration.setConfig(p);
+      if (Engine.getType()!=Type.SIM)
+        throw new IllegalParameterException("engine.mode", "Only sim and sim-parallel are supported by RangeSimulator");
+
+      System.err.println("Random seed: "+CommonState.r.getLastSeed());
+      Engine.instance().startExperiment();
+      return true;
+    }
+    catch (MissingParameterException e)
+    {
+      System.err.println("RangeSimulator: experiment failed");
+      System.err.println(e+"");
+    }
+    catch (IllegalParameterException e)
+    {
+      System.err.println("RangeSimulator: experiment failed");
+      System.err.println(e+"");
+    }
+    catch (Throwable e)
+    {
+      System.err.println("RangeSimulator: experiment failed");
+      e.printStackTrace();
+    }
+    finally
+    {
+      SimulationContext.restore(previous);
+    }
+    return false;
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  /**
+   * Returns the index of the value of each parameter in experiment k.
+   */
+  private int[] point(int k)
+  {
+    int[] index = new int[pars.length];
+    for (int i = pars.length-1; i>=0; i--)
+    {
+      index[i] = k%values[i].length;
+      k /= values[i].length;
+    }
+    return index;
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  private File file(int k, String ext)
+  {
+    return new File(output, String.format("%08d", k)+ext);
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  /**
+   * Writes the parameter values of each experiment to experiments.txt, as
+   * tab separated columns, after a line with the parameter names.
+   */
+  private void writeIndex() throws IOException
+  {
+    PrintStream index = new PrintStream(new BufferedOutputStream(new FileOutputStream(new File(output,
+        "experiments.txt"))));
+    index.print("experiment");
+    for (String par: pars)
+      index.print("\t"+par);
+    index.println();
+    for (int k = 0; k<experiments; k++)
+    {
+      int[] point = point(k);
+      index.print(k);
+      for (int i = 0; i<pars.length; i++)
+        index.print("\t"+values[i][point[i]]);
+      index.println();
+    }
+    index.close();
+    if (index.checkError())
+      throw new IOException("Cannot write "+new File(output, "experiments.txt"));
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  /**
+   * Loads the configuration and runs the experiments.
+   *
+   * @param args passed on to {@link ParsedProperties#ParsedProperties(String[])}
+   */
+  public static void main(String[] args) throws IOException
+  {
+    System.err.println("RangeSimulator: loading configuration");
+    ParsedProperties base = new ParsedProperties(args);
+    Configuration.setConfig(base);
+    int failed;
+    try
+    {
+      RangeSimulator rs = new RangeSimulator(base);
+      System.err.println("RangeSimulator: "+rs.experiments+" experiments");
+      failed = rs.run();
+    }
+    catch (IllegalParameterException e)
+    {
+      System.err.println(e+"");
+      System.exit(1);
+      return;
+    }
+    if (failed>0)
+    {
+      System.err.println("RangeSimulator: "+failed+" experiments failed");
+      System.exit(1);
+    }
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  /**
+   * Stream that writes to the stream set for the current thread, or for the
+   * thread that started it, or else to a fallback stream.
+   */
+  private static class RoutingStream extends OutputStream
+  {
+    final PrintStream fallback;
+
+    private final InheritableThreadLocal<OutputStream> target = new InheritableThreadLocal<OutputStream>();
+
+    RoutingStream(PrintStream fallback)
+    {
+      this.fallback = fallback;
+    }
+
+    void set(OutputStream stream)
+    {
+      if (stream==null)
+        target.remove();
+      else
+        target.set(stream);
+    }
+
+    private OutputStream stream()
+    {
+      OutputStream stream = target.get();
+      return stream==null ? fallback : stream;
+    }
+
+    public void write(int b) throws IOException
+    {
+      stream().write(b);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+      stream().write(b, off, len);
+    }
+
+    public void flush() throws IOException
+    {
+      stream().flush();
+    }
+  }
+}
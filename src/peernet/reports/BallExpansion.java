@@ -21,6 +21,8 @@ package peernet.reports;
 import peernet.config.Configuration;
 import peernet.core.CommonState;
 import peernet.core.Network;
+import peernet.graph.BreadthFirstSearch;
+import peernet.graph.CSRGraph;
 import peernet.util.IncrementalStats;
 import peernet.util.RandPermutation;
 
@@ -73,9 +75,6 @@ private final int n;
 
 private final boolean stats;
 
-/** working variable */
-private final int[] b;
-
 private final RandPermutation rp = new RandPermutation(CommonState.r);
 
 // ===================== initialization ================================
@@ -92,7 +91,6 @@ public BallExpansion(String name)
 	maxd = Configuration.getInt(name + "." + PAR_MAXD, Network.size());
 	n = Configuration.getInt(name + "." + PAR_N, 1000);
 	stats = Configuration.contains(name + "." + PAR_STATS);
-	b = new int[maxd];
 }
 
 // ====================== methods ======================================
@@ -123,36 +121,39 @@ public boolean execute() {
 	updateGraph();
 //	System.out.print(name + ": ");
 	rp.reset(g.size());
+	final int[] sources = new int[Math.min(n, g.size())];
+	for (int i = 0; i < sources.length; ++i)
+		sources[i] = rp.next();
+	final int[][] counts = BreadthFirstSearch.distanceCounts(CSRGraph.of(g), sources);
 	if (stats)
 	{
 		IncrementalStats is = new IncrementalStats();
-		for (int i = 0; i < n && i < g.size(); ++i)
+		for (int i = 0; i < sources.length; ++i)
 		{
-			ga.dist(g, rp.next());
-			for (int j=0; j<g.size(); j++)
+			int reached = 1;
+			// deliberately left distance 0 out, as we don't
+			// want to count trivial distance to oneself.
+			for (int k = 1; k < counts[i].length; ++k)
 			{
-				if (ga.d[j] > 0)
-					is.add(ga.d[j]);
-				else if (ga.d[j] == -1)
-					is.add(Double.POSITIVE_INFINITY);
-				// deliberately left ga.d[j]==0 out, as we don't
-				// want to count trivial distance to oneself.
+				is.add(k, counts[i][k]);
+				reached += counts[i][k];
 			}
+			if (reached < g.size())
+				is.add(Double.POSITIVE_INFINITY, g.size() - reached);
 		}
 		System.out.println(is);
 	}
 	else
 	{
 		//System.out.println();
-		for (int i = 0; i < n && i < g.size(); ++i)
+		for (int i = 0; i < sources.length; ++i)
 		{
-			ga.flooding(g, b, rp.next());
 			int j = 0;
 			int numReached = 0;
-			while (j < b.length && b[j] > 0)
+			while (j < maxd && j < counts[i].length)
 			{
-				numReached+=b[j];
-				//System.out.print(b[j] + " ");
+				numReached+=counts[i][j];
+				//System.out.print(counts[i][j] + " ");
 				j++;
 			}
 			System.out.println(CommonState.getTime()+"\t"+Network.size()+"\t"+"\t"+numReached);
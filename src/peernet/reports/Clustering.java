@@ -19,11 +19,24 @@
 package peernet.reports;
 
 import peernet.config.Configuration;
+import peernet.config.IllegalParameterException;
+import peernet.core.CommonState;
 import peernet.graph.GraphAlgorithms;
+import peernet.graph.TriangleCounter;
 import peernet.util.IncrementalStats;
+import peernet.util.RandPermutation;
 
 /**
  * Control to observe the clustering coefficient.
+ * The coefficients are computed by a {@link TriangleCounter}, in parallel.
+ * Instead of the first {@value #PAR_N} nodes, it can use a random sample of
+ * {@value #PAR_SAMPLES} nodes, in which case it also prints bounds on the
+ * average clustering coefficient of the whole graph.
+ * <p>
+ * Multiple edges and self-loops are ignored, so for nodes that have them the
+ * coefficients differ from those of {@link GraphAlgorithms#clustering}, which
+ * this control used before: a duplicate neighbor or the node itself no longer
+ * counts towards the degree or the number of edges between neighbors.
  * @see GraphAlgorithms#clustering
  */
 public class Clustering extends GraphObserver
@@ -38,8 +51,30 @@ public class Clustering extends GraphObserver
  */
 private static final String PAR_N = "n";
 
+/**
+ * The number of nodes to sample at random, without replacement, to estimate
+ * the average clustering coefficient. If given, {@value #PAR_N} is ignored.
+ * Defaults to none, that is, no sampling.
+ * @config
+ */
+private static final String PAR_SAMPLES = "samples";
+
+/**
+ * The probability that the average clustering coefficient of the graph is
+ * within the bounds printed along with a sampled estimate. Must be between 0
+ * and 1, exclusive. Defaults to 0.95.
+ * @config
+ */
+private static final String PAR_CONFIDENCE = "confidence";
+
 private final int n;
 
+private final int samples;
+
+private final double confidence;
+
+private final RandPermutation rp = new RandPermutation(CommonState.r);
+
 // ===================== initialization ================================
 // =====================================================================
 
@@ -52,6 +87,14 @@ public Clustering(String name)
 {
 	super(name);
 	n = Configuration.getInt(name + "." + PAR_N, Integer.MAX_VALUE);
+	samples = Configuration.getInt(name + "." + PAR_SAMPLES, 0);
+	confidence = Configuration.getDouble(name + "." + PAR_CONFIDENCE, 0.95);
+	if (samples < 0)
+		throw new IllegalParameterException(name + "." + PAR_SAMPLES,
+				"Must not be negative");
+	if (confidence <= 0 || confidence >= 1)
+		throw new IllegalParameterException(name + "." + PAR_CONFIDENCE,
+				"Must be between 0 and 1, exclusive");
 }
 
 // ====================== methods ======================================
@@ -63,17 +106,48 @@ public Clustering(String name)
 * The output is
 * produced by {@link IncrementalStats#toString}, over the values of
 * the clustering coefficients of the given number of nodes.
-* Clustering coefficients are calculated by {@link GraphAlgorithms#clustering}.
+* Clustering coefficients are calculated by {@link TriangleCounter}, as
+* defined by {@link GraphAlgorithms#clustering}.
+* <p>
+* If {@value #PAR_SAMPLES} is given, the statistics are over that many
+* random nodes instead, and they are followed by a lower and an upper bound on
+* the average clustering coefficient of all nodes, which hold with probability
+* {@value #PAR_CONFIDENCE}. The bounds follow from Hoeffding's inequality,
+* since the coefficients are between 0 and 1.
 * @return always false
 */
 public boolean execute()
 {
 	IncrementalStats stats = new IncrementalStats();
 	updateGraph();
-	for (int i = 0; i < n && i < g.size(); ++i) {
-		stats.add(GraphAlgorithms.clustering(g, i));
+	final int size = g.size();
+	final boolean sampled = samples > 0;
+	final int[] nodes = new int[sampled ? Math.min(samples, size) : Math.min(n, size)];
+	if (sampled && nodes.length < size) {
+		rp.reset(size);
+		for (int i = 0; i < nodes.length; ++i)
+			nodes[i] = rp.next();
+	}
+	else {
+		for (int i = 0; i < nodes.length; ++i)
+			nodes[i] = i;
 	}
-	System.out.println(name + ": " + stats);
+
+	final double[] cc = new TriangleCounter(g).clustering(nodes);
+	for (int i = 0; i < cc.length; ++i) {
+		stats.add(cc[i]);
+	}
+	if (!sampled) {
+		System.out.println(name + ": " + stats);
+		return false;
+	}
+
+	double epsilon = 0;
+	if (nodes.length < size)
+		epsilon = Math.sqrt(Math.log(2 / (1 - confidence)) / (2 * nodes.length));
+	double average = stats.getAverage();
+	System.out.println(name + ": " + stats + " " + Math.max(average - epsilon, 0)
+			+ " " + Math.min(average + epsilon, 1));
 	return false;
 }
 
@@ -102,6 +102,15 @@ public boolean execute()
 	Map clst;
 	updateGraph();
 	
+	if(type.equals("wcc") && sizestats) {
+		// the cluster sizes suffice, without mapping them to IDs
+		IncrementalStats stats = new IncrementalStats();
+		for (int size : ga.weakClusterSizes(g))
+			stats.add(size);
+		System.out.println(name + ": " + stats);
+		return false;
+	}
+
 	if(type.equals("wcc"))
 		clst=ga.weaklyConnectedClusters(g);
 	else if(type.equals("scc"))
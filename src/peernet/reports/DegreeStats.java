@@ -87,6 +87,9 @@ private final RandPermutation rp = new RandPermutation(CommonState.r);
 
 private int nextnode = 0;
 
+/** The live overlay, which tells which links point to nodes that are up */
+private final OverlayGraph overlay;
+
 //--------------------------------------------------------------------------
 //Initialization
 //--------------------------------------------------------------------------
@@ -102,6 +105,7 @@ public DegreeStats(String name)
 	n = Configuration.getInt(name + "." + PAR_N, -1);
 	trace = Configuration.contains(name + "." + PAR_TRACE);
 	method = Configuration.getString(name + "." + PAR_METHOD, "stats");
+	overlay = new OverlayGraph(pid);
 	type = Configuration.getString(name + "." + PAR_TYPE, "live");
 	if ((type.equals("all") || type.equals("dead")) && undir) {
 		throw new IllegalParameterException(
@@ -141,11 +145,11 @@ private int nextDegree()
 {
 	final int nodeid = nextNodeId();
 	if (type.equals("live")) {
-		return g.degree(nodeid);
+		return undir ? g.degree(nodeid) : overlay.degree(nodeid);
 	} else if (type.equals("all")) {
-		return ((OverlayGraph) g).fullDegree(nodeid);
+		return overlay.fullDegree(nodeid);
 	} else if (type.equals("dead")) {
-		return ((OverlayGraph) g).fullDegree(nodeid) - g.degree(nodeid);
+		return overlay.fullDegree(nodeid) - overlay.degree(nodeid);
 	} else
 		throw new RuntimeException(name + ": invalid type");
 }
@@ -72,14 +72,27 @@ public abstract class GraphObserver implements Control
   protected final GraphAlgorithms ga = new GraphAlgorithms();
   protected Graph g;
   // ---------------------------------------------------------------------
-  private static int lastpid = -1;
-  private static long time = -1;
-  private static int phase = -1;
-  private static Graph dirg;
-  private static Graph undirg;
-  private static boolean fast;
-  /** If any extending class defines undir we need to maintain an undir graph. */
-  private static boolean needUndir = false;
+  /** The graphs shared by the observers of a simulation */
+  private static class State
+  {
+    int lastpid = -1;
+    long time = -1;
+    int phase = -1;
+    CSRGraph dirg;
+    Graph undirg;
+    boolean fast;
+    /** If any extending class defines undir we need to maintain an undir graph. */
+    boolean needUndir = false;
+  }
+
+  /** The shared graphs of each {@link SimulationContext} */
+  private static final SimulationContext.Key<State> STATE = new SimulationContext.Key<State>()
+  {
+    protected State create()
+    {
+      return new State();
+    }
+  };
 
 
 
@@ -96,8 +109,9 @@ public abstract class GraphObserver implements Control
     this.name = name;
     pid = Configuration.getPid(name+"."+PAR_PROT);
     undir = (Configuration.contains(name+"."+PAR_UNDIR)|Configuration.contains(name+"."+PAR_UNDIR_ALT));
-    GraphObserver.fast = Configuration.contains(PAR_FAST);
-    GraphObserver.needUndir = (GraphObserver.needUndir||undir);
+    State state = SimulationContext.current().get(STATE);
+    state.fast = Configuration.contains(PAR_FAST);
+    state.needUndir = (state.needUndir||undir);
   }
 
 
@@ -107,37 +121,55 @@ public abstract class GraphObserver implements Control
   /**
    * Sets {@link #g}. It MUST be called by any implementation of
    * {@link #execute()} before doing anything else. Attempts to initialize
-   * {@link #g} from a pre-calculated graph stored in a static field, but first
-   * it checks whether it needs to be updated. If the simulation time has
-   * progressed or it was calculated for a different protocol, then updates this
-   * static graph as well. The purpose of this mechanism is to save the time of
+   * {@link #g} from a pre-calculated graph shared by all observers of the
+   * simulation, but first it checks whether it needs to be updated. If the
+   * simulation time has progressed or it was calculated for a different
+   * protocol, then updates this shared graph as well. The purpose of this mechanism is to save the time of
    * constructing the graph if many observers are run on the same graph. Time
    * savings can be very significant if the undirected version of the same graph
    * is observed by many observers.
+   * <p>
+   * The graph is a {@link CSRGraph} snapshot of the overlay (unless
+   * {@value #PAR_FAST} is defined and the undirected version is observed), so
+   * changes to the overlay or to the order of nodes are not reflected until it
+   * is updated, at the next time or after {@link #invalidateGraph}.
    */
   protected void updateGraph()
   {
+    State state = SimulationContext.current().get(STATE);
     if (
-        CommonState.getTime() != GraphObserver.time ||
-        //CommonState.getPhase() != GraphObserver.phase ||
-        pid != GraphObserver.lastpid)
+        CommonState.getTime() != state.time ||
+        //CommonState.getPhase() != state.phase ||
+        pid != state.lastpid)
     {
       // we need to update the graphs
-      GraphObserver.lastpid = pid;
-      GraphObserver.time = CommonState.getTime();
-      //GraphObserver.phase = CommonState.getPhase();
-      GraphObserver.dirg = new OverlayGraph(pid);
-      if (GraphObserver.needUndir)
+      state.lastpid = pid;
+      state.time = CommonState.getTime();
+      //state.phase = CommonState.getPhase();
+      state.dirg = new OverlayGraph(pid).snapshot();
+      if (state.needUndir)
       {
-        if (fast)
-          GraphObserver.undirg = new FastUndirGraph(GraphObserver.dirg);
+        if (state.fast)
+          state.undirg = new FastUndirGraph(state.dirg);
         else
-          GraphObserver.undirg = new ConstUndirGraph(GraphObserver.dirg);
+          state.undirg = CSRGraph.undirected(state.dirg);
       }
     }
     if (undir)
-      g = GraphObserver.undirg;
+      g = state.undirg;
     else
-      g = GraphObserver.dirg;
+      g = state.dirg;
+  }
+
+
+
+  /**
+   * Forces the next call to {@link #updateGraph} to take a new snapshot of the
+   * overlay, for observers that change it, or shuffle the network, between
+   * observations.
+   */
+  protected static void invalidateGraph()
+  {
+    SimulationContext.current().get(STATE).time = -1;
   }
 }
@@ -20,6 +20,7 @@ import peernet.config.Configuration;
 import peernet.config.IllegalParameterException;
 import peernet.core.CommonState;
 import peernet.core.Control;
+import peernet.core.SimulationContext;
 import peernet.graph.ConstUndirGraph;
 import peernet.graph.FastUndirGraph;
 import peernet.graph.Graph;
@@ -86,20 +87,34 @@ public abstract class GraphObserver_2 implements Control
   protected final GraphAlgorithms ga = new GraphAlgorithms();
   protected Graph g;
   // ---------------------------------------------------------------------
-  private static int lastpid = -1234;
-  private static long time = -1234;
-  private static int phase = -1234;
-  private static int ctime = -1234;
-  private static Graph dirg;
-  private static Graph undirg;
-  private static Graph reverseg;
-  private static boolean fast;
-  /** If any extending class defines undir we need to maintain an undir graph. */
-  private static boolean needUndir = false;
-  /**
-   * If any extending class defines reverse we need to maintain a reverse graph.
-   */
-  private static boolean needReverse = false;
+  /** The graphs shared by the observers of a simulation */
+  private static class State
+  {
+    int lastpid = -1234;
+    long time = -1234;
+    int phase = -1234;
+    int ctime = -1234;
+    Graph dirg;
+    Graph undirg;
+    Graph reverseg;
+    boolean fast;
+    /** If any extending class defines undir we need to maintain an undir graph. */
+    boolean needUndir = false;
+    /**
+     * If any extending class defines reverse we need to maintain a reverse
+     * graph.
+     */
+    boolean needReverse = false;
+  }
+
+  /** The shared graphs of each {@link SimulationContext} */
+  private static final SimulationContext.Key<State> STATE = new SimulationContext.Key<State>()
+  {
+    protected State create()
+    {
+      return new State();
+    }
+  };
 
 
 
@@ -122,8 +137,9 @@ public abstract class GraphObserver_2 implements Control
       throw new IllegalParameterException(name+"."+PAR_UNDIR+", "+name+"."+PAR_REVERSE,
           "Parameters must not be defined together.");
     }
-    GraphObserver_2.needUndir = (GraphObserver_2.needUndir||undir);
-    GraphObserver_2.needReverse = (GraphObserver_2.needReverse||reverse);
+    State state = SimulationContext.current().get(STATE);
+    state.needUndir = (state.needUndir||undir);
+    state.needReverse = (state.needReverse||reverse);
   }
 
 
@@ -133,43 +149,44 @@ public abstract class GraphObserver_2 implements Control
   /**
    * Sets {@link #g}. It MUST be called by any implementation of
    * {@link #execute()} before doing anything else. Attempts to initialize
-   * {@link #g} from a pre-calculated graph stored in a static field, but first
-   * it checks whether it needs to be updated. If the simulation time has
-   * progressed or it was calculated for a different protocol, then updates this
-   * static graph as well. The purpose of this mechanism is to save the time of
+   * {@link #g} from a pre-calculated graph shared by all observers of the
+   * simulation, but first it checks whether it needs to be updated. If the
+   * simulation time has progressed or it was calculated for a different
+   * protocol, then updates this shared graph as well. The purpose of this mechanism is to save the time of
    * constructing the graph if many observers are run on the same graph. Time
    * savings can be very significant if the undirected version of the same graph
    * is observed by many observers.
    */
   protected void updateGraph()
   {
+    State state = SimulationContext.current().get(STATE);
     if (
-        CommonState.getTime() != GraphObserver_2.time ||
-        //CommonState.getPhase() != GraphObserver_2.phase ||
-        pid != GraphObserver_2.lastpid)
+        CommonState.getTime() != state.time ||
+        //CommonState.getPhase() != state.phase ||
+        pid != state.lastpid)
     {
       // we need to update the graphs
-      GraphObserver_2.lastpid = pid;
-      GraphObserver_2.time = CommonState.getTime();
-//      GraphObserver_2.phase = CommonState.getPhase();
-      GraphObserver_2.dirg = new OverlayGraph(pid);
-      if (GraphObserver_2.needUndir)
+      state.lastpid = pid;
+      state.time = CommonState.getTime();
+//      state.phase = CommonState.getPhase();
+      state.dirg = new OverlayGraph(pid);
+      if (state.needUndir)
       {
-        if (fast)
-          GraphObserver_2.undirg = new FastUndirGraph(GraphObserver_2.dirg);
+        if (state.fast)
+          state.undirg = new FastUndirGraph(state.dirg);
         else
-          GraphObserver_2.undirg = new ConstUndirGraph(GraphObserver_2.dirg);
+          state.undirg = new ConstUndirGraph(state.dirg);
       }
-      if (GraphObserver_2.needReverse)
+      if (state.needReverse)
       {
-        GraphObserver_2.reverseg = new ReverseGraph(GraphObserver_2.dirg);
+        state.reverseg = new ReverseGraph(state.dirg);
       }
     }
     if (undir)
-      g = GraphObserver_2.undirg;
+      g = state.undirg;
     else if (reverse)
-      g = GraphObserver_2.reverseg;
+      g = state.reverseg;
     else
-      g = GraphObserver_2.dirg;
+      g = state.dirg;
   }
 }
@@ -19,15 +19,22 @@
 package peernet.reports;
 
 import peernet.config.Configuration;
+import peernet.config.IllegalParameterException;
+import peernet.graph.CSRGraph;
+import peernet.graph.Graph;
 import peernet.graph.GraphIO;
 import peernet.util.FileNameGenerator;
 
+import java.io.BufferedOutputStream;
 import java.io.PrintStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 
 /**
 * Prints the whole graph in a given format.
+* Files are written through a buffer, and optionally in the background, by a
+* separate thread, so that the simulation goes on while a large graph is
+* being saved.
 */
 public class GraphPrinter extends GraphObserver {
 
@@ -51,6 +58,9 @@ private static final String PAR_BASENAME = "outf";
 * Other supported formats are "chaco" to be used with Yehuda Koren's
 * Embedder, "netmeter" to be used with Sergi Valverde's netmeter and
 * "edgelist" that dumps one (directed) node pair in each line for each edge.
+* The format "binary" is compact and fast to write and read, but it can only
+* be saved to a file; {@link GraphIO#readBinary(String)} reads it back.
+* @see GraphIO#writeBinary(Graph, String)
 * @see GraphIO#writeEdgeList
 * @see GraphIO#writeChaco
 * @see GraphIO#writeNeighborList
@@ -59,12 +69,32 @@ private static final String PAR_BASENAME = "outf";
 */
 private static final String PAR_FORMAT = "format";
 
+/**
+* If set, files are written in the background, by a separate thread, from a
+* snapshot of the graph. Only one file is written at a time: if the previous
+* one is not complete at the next saving point, the simulation waits for it.
+* Requires {@value #PAR_BASENAME}.
+* @config
+*/
+private static final String PAR_BACKGROUND = "background";
+
+/** The size of the buffer of the text formats */
+private static final int BUFFER_SIZE = 1 << 16;
+
 private final String baseName;
 
 private final FileNameGenerator fng;
 
 private final String format;
 
+private final boolean background;
+
+/** The thread writing in the background, if any */
+private Thread writer = null;
+
+/** The error of the last write in the background, if any */
+private volatile IOException failure = null;
+
 
 // ===================== initialization ================================
 // =====================================================================
@@ -80,8 +110,15 @@ public GraphPrinter(String name) {
 	super(name);
 	baseName = Configuration.getString(name+"."+PAR_BASENAME,null);
 	format = Configuration.getString(name+"."+PAR_FORMAT,"neighborlist");
+	background = Configuration.contains(name+"."+PAR_BACKGROUND);
 	if(baseName!=null) fng = new FileNameGenerator(baseName,".graph");
 	else fng = null;
+	if( baseName == null && format.equals("binary") )
+		throw new IllegalParameterException(name+"."+PAR_FORMAT,
+			"The binary format requires "+name+"."+PAR_BASENAME);
+	if( baseName == null && background )
+		throw new IllegalParameterException(name+"."+PAR_BACKGROUND,
+			"Writing in the background requires "+name+"."+PAR_BASENAME);
 }
 
 
@@ -99,31 +136,39 @@ try {
 	
 	System.out.print(name+": ");
 	
-	// initialize output streams
-	FileOutputStream fos = null;
-	PrintStream pstr = System.out;
-	if( baseName != null )
+	if( baseName == null )
 	{
-		String fname = fng.nextCounterName();
-		fos = new FileOutputStream(fname);
-		System.out.println("writing to file "+fname);
-		pstr = new PrintStream(fos);
+		System.out.println();
+		write(g, System.out);
+		return false;
 	}
-	else	System.out.println();
 	
-	if( format.equals("neighborlist") )
-		GraphIO.writeNeighborList(g, pstr);
-	else if( format.equals("edgelist") )
-		GraphIO.writeEdgeList(g, pstr);
-	else if( format.equals("chaco") )
-		GraphIO.writeChaco(g, pstr);
-	else if( format.equals("netmeter") )
-		GraphIO.writeNetmeter(g, pstr);
-	else
-		System.err.println(name+": unsupported format "+format);
-	
-	if( fos != null ) fos.close();
+	final String fname = fng.nextCounterName();
+	System.out.println("writing to file "+fname);
+	if( !background )
+	{
+		write(g, fname);
+		return false;
+	}
 	
+	// the graph of the observer is replaced, not modified, when the
+	// overlay changes, so a snapshot of it stays valid
+	final Graph snapshot = CSRGraph.of(g);
+	join();
+	writer = new Thread(new Runnable() {
+		public void run() {
+			try
+			{
+				write(snapshot, fname);
+			}
+			catch( IOException e )
+			{
+				failure = e;
+				System.err.println(name+": error writing "+fname+": "+e);
+			}
+		}
+	}, name);
+	writer.start();
 	return false;
 }
 catch( IOException e )
@@ -132,5 +177,70 @@ catch( IOException e )
 }
 }
 
+// ------------------------------------------------------------------
+
+/**
+* Writes the given graph to the given file.
+*/
+private void write(Graph graph, String fname) throws IOException {
+	
+	if( format.equals("binary") )
+	{
+		GraphIO.writeBinary(graph, fname);
+		return;
+	}
+	
+	PrintStream pstr = new PrintStream(new BufferedOutputStream(
+		new FileOutputStream(fname), BUFFER_SIZE));
+	write(graph, pstr);
+	pstr.close();
+	if( pstr.checkError() )
+		throw new IOException("Error writing "+fname);
 }
 
+// ------------------------------------------------------------------
+
+/**
+* Writes the given graph to the given stream in a text format.
+*/
+private void write(Graph graph, PrintStream pstr) {
+	
+	if( format.equals("neighborlist") )
+		GraphIO.writeNeighborList(graph, pstr);
+	else if( format.equals("edgelist") )
+		GraphIO.writeEdgeList(graph, pstr);
+	else if( format.equals("chaco") )
+		GraphIO.writeChaco(graph, pstr);
+	else if( format.equals("netmeter") )
+		GraphIO.writeNetmeter(graph, pstr);
+	else
+		System.err.println(name+": unsupported format "+format);
+}
+
+// ------------------------------------------------------------------
+
+/**
+* Waits for the file being written in the background, if any.
+* @throws IOException if writing it failed
+*/
+private void join() throws IOException {
+	
+	if( writer == null ) return;
+	try
+	{
+		writer.join();
+	}
+	catch( InterruptedException e )
+	{
+		Thread.currentThread().interrupt();
+	}
+	writer = null;
+	if( failure != null )
+	{
+		IOException e = failure;
+		failure = null;
+		throw e;
+	}
+}
+
+}
@@ -19,7 +19,9 @@
 package peernet.reports;
 
 import peernet.config.Configuration;
-import peernet.graph.GraphAlgorithms;
+import peernet.graph.BreadthFirstSearch;
+import peernet.graph.CSRGraph;
+import peernet.graph.TriangleCounter;
 import peernet.util.IncrementalStats;
 
 /**
@@ -57,6 +59,7 @@ private static final String PAR_NL = "nl";
 * If zero is given, then no statistics
 * will be printed about clustering. If a negative value is given then
 * the value is the full size of the graph.
+* Multiple edges and self-loops are ignored, as in {@link Clustering}.
 * Defaults to zero.
 * @config
 */
@@ -112,9 +115,13 @@ public boolean execute() {
 	{
 		stats.reset();
 		final int n = ( nc<0 ? g.size() : nc );
-		for(int i=0; i<n && i<g.size(); ++i)
+		final int[] nodes = new int[Math.min(n, g.size())];
+		for(int i=0; i<nodes.length; ++i)
+			nodes[i] = i;
+		final double[] cc = new TriangleCounter(g).clustering(nodes);
+		for(int i=0; i<cc.length; ++i)
 		{
-			stats.add(GraphAlgorithms.clustering(g,i));
+			stats.add(cc[i]);
 		}
 		System.out.print(stats.getAverage()+" ");
 	}
@@ -123,21 +130,22 @@ public boolean execute() {
 	{
 		stats.reset();
 		final int n = ( nl<0 ? g.size() : nl );
-		outerloop:
-		for(int i=0; i<n && i<g.size(); ++i)
+		final int[] sources = new int[Math.min(n, g.size())];
+		for(int i=0; i<sources.length; ++i)
+			sources[i] = i;
+		final int[][] counts = BreadthFirstSearch.distanceCounts(CSRGraph.of(g), sources);
+		for(int i=0; i<sources.length; ++i)
 		{
-			ga.dist(g,i);
-			for(int j=0; j<g.size(); ++j)
+			int reached = 1;
+			for(int k=1; k<counts[i].length; ++k)
+				reached += counts[i][k];
+			if (reached < g.size())
 			{
-				if( j==i ) continue;
-				if (ga.d[j] == -1)
-				{
-					stats.add(Double.POSITIVE_INFINITY);
-					break outerloop;
-				}
-				else
-					stats.add(ga.d[j]); 
+				stats.add(Double.POSITIVE_INFINITY);
+				break;
 			}
+			for(int k=1; k<counts[i].length; ++k)
+				stats.add(k, counts[i][k]);
 		}
 		System.out.print(stats.getAverage());
 	}
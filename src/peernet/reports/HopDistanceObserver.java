@@ -0,0 +1,116 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+
+package peernet.reports;
+
+import peernet.config.Configuration;
+import peernet.config.IllegalParameterException;
+import peernet.core.CommonState;
+import peernet.graph.CSRGraph;
+import peernet.graph.MultiSourceBFS;
+import peernet.util.RandPermutation;
+
+/**
+ * Control to observe the hop distances between nodes: their distribution, the
+ * diameter and the average path length. It runs a breadth-first search from
+ * each source node, many of them at once through {@link MultiSourceBFS}, so
+ * with all nodes as sources (the default) the results are exact over all
+ * pairs, at a fraction of the cost of one search per node.
+ * <p>
+ * It prints one line with the diameter, that is, the largest finite distance,
+ * the average path length over the pairs of distinct nodes connected by a
+ * path, and the number of pairs not connected by a path. It then prints the
+ * number of pairs at each distance, in the format of
+ * {@link peernet.util.IncrementalFreq#print}, counted in <code>long</code>s.
+ * Distance 0 counts the sources themselves.
+ */
+public class HopDistanceObserver extends GraphObserver
+{
+
+// ===================== fields =======================================
+// ====================================================================
+
+/**
+ * The number of source nodes, selected at random. Defaults to the size of the
+ * graph, in which case all nodes are sources.
+ * @config
+ */
+private static final String PAR_N = "n";
+
+/**
+ * The number of searches run at once, by a single thread. It must be a
+ * multiple of 64. Defaults to 256.
+ * @config
+ */
+private static final String PAR_LANES = "lanes";
+
+private final int n;
+
+private final int lanes;
+
+private final RandPermutation rp = new RandPermutation(CommonState.r);
+
+// ===================== initialization ================================
+// =====================================================================
+
+/**
+ * Standard constructor that reads the configuration parameters.
+ * Invoked by the simulation engine.
+ * @param name the configuration prefix for this class
+ */
+public HopDistanceObserver(String name)
+{
+	super(name);
+	n = Configuration.getInt(name + "." + PAR_N, Integer.MAX_VALUE);
+	lanes = Configuration.getInt(name + "." + PAR_LANES, 256);
+	if (lanes <= 0 || lanes % 64 != 0)
+		throw new IllegalParameterException(name + "." + PAR_LANES,
+				"Must be a positive multiple of 64");
+}
+
+// ====================== methods ======================================
+// =====================================================================
+
+/**
+* Prints the hop distance statistics, as described in the class
+* documentation.
+* @return always false
+*/
+public boolean execute()
+{
+	updateGraph();
+	final int size = g.size();
+	final int[] sources = new int[Math.min(n, size)];
+	if (sources.length == size)
+	{
+		for (int i = 0; i < size; ++i)
+			sources[i] = i;
+	}
+	else
+	{
+		rp.reset(size);
+		for (int i = 0; i < sources.length; ++i)
+			sources[i] = rp.next();
+	}
+
+	final long[] counts = MultiSourceBFS.hopCounts(CSRGraph.of(g), sources, lanes);
+	long pairs = 0;
+	double sum = 0;
+	for (int k = 1; k < counts.length; ++k)
+	{
+		pairs += counts[k];
+		sum += (double) k * counts[k];
+	}
+	final long unreachable = (long) sources.length * size - sources.length - pairs;
+	final int diameter = Math.max(counts.length - 1, 0);
+
+	System.out.println(name + ": " + diameter + " " + (sum / pairs) + " " + unreachable);
+	for (int k = 0; k < counts.length; ++k)
+		System.out.println(k + " " + counts[k]);
+	System.out.println("\n\n");
+	return false;
+}
+
+}
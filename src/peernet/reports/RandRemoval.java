@@ -23,9 +23,6 @@ import peernet.core.*;
 import peernet.graph.*;
 import peernet.util.IncrementalStats;
 
-import java.util.Map;
-import java.util.Iterator;
-
 /**
  * It tests the network for robustness to random node removal.
  * It does not actually remove
@@ -33,9 +30,11 @@ import java.util.Iterator;
  * simulation. A warning though: as a side effect it <em>may
  * shuffle the network</em> (see {@value #PAR_N}) so if this is an issue,
  * it should not be used,
- * or only after the simulation has finished.
+ * or only after the simulation has finished. Because of this side effect it
+ * is a {@link MutatingControl}, so in NET and EMU modes it runs while all
+ * nodes are stopped.
  */
-public class RandRemoval extends GraphObserver
+public class RandRemoval extends GraphObserver implements MutatingControl
 {
 
 // ===================== fields =======================================
@@ -97,21 +96,22 @@ public boolean execute()
 		maxClust[i] = new IncrementalStats();
 		clustNum[i] = new IncrementalStats();
 	}
+	final int[] prefixes = new int[steps];
+	for (int i = 0; i < steps; i++)
+		prefixes[i] = size / 2 - i * (size / 100);
+	final int[] maxSizes = new int[steps];
+	final int[] counts = new int[steps];
 	for (int j = 0; j < n; ++j) {
-		PrefixSubGraph sg = new PrefixSubGraph(g);
-		IncrementalStats stats = new IncrementalStats();
+		GraphAlgorithms.prefixClusters(g, prefixes, maxSizes, counts);
 		for (int i = 0; i < steps; i++) {
-			sg.setSize(size / 2 - i * (size / 100));
-			Map clst = ga.weaklyConnectedClusters(sg);
-			stats.reset();
-			Iterator it = clst.values().iterator();
-			while (it.hasNext()) {
-				stats.add(((Integer) it.next()).intValue());
-			}
-			maxClust[i].add(stats.getMax());
-			clustNum[i].add(clst.size());
+			maxClust[i].add(maxSizes[i]);
+			clustNum[i].add(counts[i]);
+		}
+		if( j+1 < n ) {
+			Network.shuffle();
+			invalidateGraph();
+			updateGraph();
 		}
-		if( j+1 < n ) Network.shuffle();
 	}
 	for (int i = 0; i < steps; ++i) {
 		System.out.println(maxClust[i].getAverage() + " "
@@ -5,6 +5,7 @@
 package peernet.transport;
 
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 
 
@@ -18,6 +19,9 @@ public class AddressNet implements Address
   protected InetAddress ip;
   protected int port;
 
+  /** The socket address for sending, created on demand */
+  private transient InetSocketAddress socketAddress = null;
+
 
 
   public AddressNet(InetAddress ip, int port)
@@ -72,6 +76,18 @@ public class AddressNet implements Address
 
 
 
+  /**
+   * Returns the IP address and port as a socket address.
+   */
+  public final InetSocketAddress getSocketAddress()
+  {
+    if (socketAddress==null)
+      socketAddress = new InetSocketAddress(ip, port);
+    return socketAddress;
+  }
+
+
+
   /**
    * Default toString()
    */
@@ -0,0 +1,351 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.transport;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+
+
+
+/**
+ * Compact binary codec. A message is encoded as its protocol identifier
+ * followed by its payload, which is a tagged value:
+ * <ul>
+ * <li><code>null</code>, {@link Integer}, {@link Long}, {@link Double},
+ * {@link Boolean}, {@link String}, <code>byte[]</code> and {@link AddressNet}
+ * values are written in fixed binary forms,</li>
+ * <li>{@link BinaryMessage} values are written as the name of their class,
+ * followed by whatever their {@link BinaryMessage#writeTo} method writes,</li>
+ * <li>any other value is written by Java serialization, as a fallback.</li>
+ * </ul>
+ * Values are read straight from the receive buffer, apart from strings and
+ * byte arrays, which need their own copy anyway. The class of a
+ * {@link BinaryMessage} is resolved once, and it is recognized by comparing the
+ * class name in place in later messages.
+ */
+public class BinaryCodec implements Codec
+{
+  private static final byte NULL = 0;
+  private static final byte INTEGER = 1;
+  private static final byte LONG = 2;
+  private static final byte DOUBLE = 3;
+  private static final byte BOOLEAN = 4;
+  private static final byte STRING = 5;
+  private static final byte BYTES = 6;
+  private static final byte ADDRESS = 7;
+  private static final byte MESSAGE = 8;
+  private static final byte SERIALIZED = 9;
+
+
+
+  /**
+   * A {@link BinaryMessage} class, with its encoded name and the constructor
+   * decoding it.
+   */
+  private static final class MessageClass
+  {
+    final byte[] name;
+    final int hash;
+    final Constructor<?> constructor;
+
+    MessageClass(byte[] name, Constructor<?> constructor)
+    {
+      this.name = name;
+      this.hash = Arrays.hashCode(name);
+      this.constructor = constructor;
+    }
+  }
+
+  /** Message classes by class, for encoding */
+  private static final ConcurrentHashMap<Class<?>, MessageClass> byClass = new ConcurrentHashMap<Class<?>, MessageClass>();
+
+  /** Message classes by hash of their name, for decoding */
+  private static final ConcurrentHashMap<Integer, MessageClass> byHash = new ConcurrentHashMap<Integer, MessageClass>();
+
+
+
+  public BinaryCodec(String prefix)
+  {
+  }
+
+
+
+  public void encode(int pid, Object payload, ByteBuffer buffer) throws IOException
+  {
+    buffer.putInt(pid);
+    try
+    {
+      write(buffer, payload);
+    }
+    catch (UncheckedIOException e)
+    {
+      throw e.getCause();
+    }
+  }
+
+
+
+  public Packet decode(Address src, ByteBuffer buffer) throws IOException
+  {
+    try
+    {
+      int pid = buffer.getInt();
+      return new Packet(src, pid, read(buffer));
+    }
+    catch (UncheckedIOException e)
+    {
+      throw e.getCause();
+    }
+    catch (BufferUnderflowException e)
+    {
+      throw new IOException("Truncated message");
+    }
+  }
+
+
+
+  /**
+   * Writes a value into the buffer.
+   *
+   * @throws UncheckedIOException if a value falling back to serialization
+   *           cannot be serialized
+   */
+  public static void write(ByteBuffer buffer, Object value)
+  {
+    if (value==null)
+      buffer.put(NULL);
+    else if (value instanceof BinaryMessage)
+    {
+      MessageClass mc = messageClass(value.getClass());
+      buffer.put(MESSAGE);
+      buffer.putInt(mc.hash);
+      buffer.putShort((short) mc.name.length);
+      buffer.put(mc.name);
+      ((BinaryMessage) value).writeTo(buffer);
+    }
+    else if (value instanceof Integer)
+    {
+      buffer.put(INTEGER);
+      buffer.putInt((Integer) value);
+    }
+    else if (value instanceof Long)
+    {
+      buffer.put(LONG);
+      buffer.putLong((Long) value);
+    }
+    else if (value instanceof Double)
+    {
+      buffer.put(DOUBLE);
+      buffer.putDouble((Double) value);
+    }
+    else if (value instanceof Boolean)
+    {
+      buffer.put(BOOLEAN);
+      buffer.put((byte) ((Boolean) value ? 1 : 0));
+    }
+    else if (value instanceof String)
+    {
+      buffer.put(STRING);
+      writeBytes(buffer, ((String) value).getBytes(StandardCharsets.UTF_8));
+    }
+    else if (value instanceof byte[])
+    {
+      buffer.put(BYTES);
+      writeBytes(buffer, (byte[]) value);
+    }
+    else if (value instanceof AddressNet)
+    {
+      AddressNet address = (AddressNet) value;
+      byte[] ip = address.getIP().getAddress();
+      buffer.put(ADDRESS);
+      buffer.put((byte) ip.length);
+      buffer.put(ip);
+      buffer.putChar((char) address.getPort());
+    }
+    else
+    {
+      // Length-prefixed, so that reading never goes past the value
+      buffer.put(SERIALIZED);
+      int start = buffer.position();
+      buffer.putInt(0);
+      try
+      {
+        SerializationCodec.writeObject(value, buffer);
+      }
+      catch (IOException e)
+      {
+        throw new UncheckedIOException(e);
+      }
+      buffer.putInt(start, buffer.position()-start-4);
+    }
+  }
+
+
+
+  /**
+   * Reads a value written by {@link #write} from the buffer.
+   *
+   * @throws UncheckedIOException if the value cannot be decoded
+   * @throws BufferUnderflowException if the value is truncated
+   */
+  public static Object read(ByteBuffer buffer)
+  {
+    try
+    {
+      byte tag = buffer.get();
+      switch (tag)
+      {
+        case NULL:
+          return null;
+        case INTEGER:
+          return buffer.getInt();
+        case LONG:
+          return buffer.getLong();
+        case DOUBLE:
+          return buffer.getDouble();
+        case BOOLEAN:
+          return buffer.get()!=0;
+        case STRING:
+          return new String(readBytes(buffer), StandardCharsets.UTF_8);
+        case BYTES:
+          return readBytes(buffer);
+        case ADDRESS:
+          byte[] ip = new byte[checkLength(buffer.get(), buffer)];
+          buffer.get(ip);
+          return new AddressNet(InetAddress.getByAddress(ip), buffer.getChar());
+        case MESSAGE:
+          return messageClass(buffer).constructor.newInstance(buffer);
+        case SERIALIZED:
+          int length = checkLength(buffer.getInt(), buffer);
+          ByteBuffer slice = buffer.slice();
+          slice.limit(length);
+          buffer.position(buffer.position()+length);
+          return SerializationCodec.readObject(slice);
+        default:
+          throw new IOException("Unknown value tag "+tag);
+      }
+    }
+    catch (IOException e)
+    {
+      throw new UncheckedIOException(e);
+    }
+    catch (ClassNotFoundException e)
+    {
+      throw new UncheckedIOException(new IOException(e));
+    }
+    catch (InvocationTargetException e)
+    {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new UncheckedIOException(new IOException(e.getCause()));
+    }
+    catch (ReflectiveOperationException e)
+    {
+      throw new UncheckedIOException(new IOException(e));
+    }
+  }
+
+
+
+  private static void writeBytes(ByteBuffer buffer, byte[] bytes)
+  {
+    buffer.putInt(bytes.length);
+    buffer.put(bytes);
+  }
+
+
+
+  private static byte[] readBytes(ByteBuffer buffer) throws IOException
+  {
+    byte[] bytes = new byte[checkLength(buffer.getInt(), buffer)];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+
+
+  /**
+   * Returns a length read from the buffer, after checking that it is not
+   * negative and that the buffer has that many bytes left, so that a malformed
+   * message is rejected before anything is allocated or read for it.
+   *
+   * @throws IOException if the length is out of range
+   */
+  private static int checkLength(int length, ByteBuffer buffer) throws IOException
+  {
+    if (length<0 || length>buffer.remaining())
+      throw new IOException("Bad length "+length+" with "+buffer.remaining()+" bytes left");
+    return length;
+  }
+
+
+
+  /**
+   * Returns the message class of a {@link BinaryMessage} class, registering it
+   * on first use.
+   */
+  private static MessageClass messageClass(Class<?> c)
+  {
+    MessageClass mc = byClass.get(c);
+    if (mc==null)
+    {
+      try
+      {
+        mc = new MessageClass(c.getName().getBytes(StandardCharsets.UTF_8), c.getConstructor(ByteBuffer.class));
+      }
+      catch (NoSuchMethodException e)
+      {
+        throw new IllegalArgumentException(c.getName()+" has no public constructor taking a ByteBuffer");
+      }
+      byClass.put(c, mc);
+      byHash.put(mc.hash, mc);
+    }
+    return mc;
+  }
+
+
+
+  /**
+   * Reads the class name of a {@link BinaryMessage} from the buffer, and
+   * returns its message class. Known names are compared in place. An unknown
+   * name is loaded without initializing its class, so that a name that does
+   * not denote a {@link BinaryMessage} runs none of its code.
+   */
+  private static MessageClass messageClass(ByteBuffer buffer) throws ClassNotFoundException, IOException
+  {
+    int hash = buffer.getInt();
+    int length = checkLength(buffer.getShort()&0xffff, buffer);
+    MessageClass mc = byHash.get(hash);
+    if (mc!=null && mc.name.length==length)
+    {
+      int pos = buffer.position();
+      int i = 0;
+      while (i<length && buffer.get(pos+i)==mc.name[i])
+        i++;
+      if (i==length)
+      {
+        buffer.position(pos+length);
+        return mc;
+      }
+    }
+
+    byte[] name = new byte[length];
+    buffer.get(name);
+    Class<?> c = Class.forName(new String(name, StandardCharsets.UTF_8), false, BinaryCodec.class.getClassLoader());
+    if (!BinaryMessage.class.isAssignableFrom(c))
+      throw new IOException(c.getName()+" is not a BinaryMessage");
+    return messageClass(c);
+  }
+}
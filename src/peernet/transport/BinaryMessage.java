@@ -0,0 +1,26 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.transport;
+
+import java.nio.ByteBuffer;
+
+
+
+
+
+/**
+ * A payload that writes itself in compact binary form for
+ * {@link BinaryCodec}. Implementing classes must also have a public
+ * constructor taking a {@link ByteBuffer}, which reads back what
+ * {@link #writeTo} wrote. Nested values can be written and read with
+ * {@link BinaryCodec#write} and {@link BinaryCodec#read}.
+ */
+public interface BinaryMessage
+{
+  /**
+   * Writes the content of this message into the buffer.
+   */
+  public void writeTo(ByteBuffer buffer);
+}
@@ -0,0 +1,55 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.transport;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+
+
+
+/**
+ * Pool of direct buffers for encoding outgoing datagrams, shared by all
+ * transports of the JVM. Each buffer can hold the largest UDP payload.
+ */
+/*package*/ class BufferPool
+{
+  /** The largest UDP payload over IPv4 */
+  static final int SIZE = 65507;
+
+  private static final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+
+
+
+  /** Disable instance construction */
+  private BufferPool()
+  {
+  }
+
+
+
+  /**
+   * Returns a cleared buffer, taken from the pool if one is available.
+   */
+  static ByteBuffer acquire()
+  {
+    ByteBuffer buffer = buffers.poll();
+    if (buffer==null)
+      return ByteBuffer.allocateDirect(SIZE);
+    buffer.clear();
+    return buffer;
+  }
+
+
+
+  /**
+   * Returns a buffer to the pool.
+   */
+  static void release(ByteBuffer buffer)
+  {
+    buffers.offer(buffer);
+  }
+}
@@ -0,0 +1,270 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+
+
+
+
+/**
+ * Coalesces the outgoing messages of a UDP transport into batches, one per
+ * destination, each sent as a single datagram of at most one MTU. A batch is
+ * sent when the next message would not fit in it, or at the latest when its
+ * latency budget expires, counting from its first message. A single flusher
+ * thread sends the batches whose budget has expired, for all transports.
+ * <p>
+ * A batch datagram starts with {@link #MARKER}, which cannot be the first
+ * field of a single message (a protocol identifier), followed by the messages,
+ * each preceded by its length as an unsigned short. Batches that end up with a
+ * single message are sent as a plain datagram instead.
+ */
+/*package*/ class Coalescer
+{
+  /** First field of a batch datagram */
+  static final int MARKER = -1;
+
+  /** Size of the batch header */
+  private static final int HEADER = 4;
+
+  /** Size of the length preceding each message in a batch */
+  private static final int FRAME = 2;
+
+  /**
+   * The pending messages for one destination.
+   */
+  private static class Batch
+  {
+    final Coalescer owner;
+    final InetSocketAddress dest;
+    final ByteBuffer buffer;
+    final long deadline;
+    int count = 0;
+
+    Batch(Coalescer owner, InetSocketAddress dest, ByteBuffer buffer, long deadline)
+    {
+      this.owner = owner;
+      this.dest = dest;
+      this.buffer = buffer;
+      this.deadline = deadline;
+    }
+  }
+
+  /**
+   * Batches waiting for their budget to expire, in order of deadline as long as
+   * all transports have the same budget
+   */
+  private static final ConcurrentLinkedQueue<Batch> expiring = new ConcurrentLinkedQueue<Batch>();
+
+  /** Recycled batch buffers */
+  private static final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+
+  private static Thread flusher = null;
+
+  private final TransportUDP transport;
+
+  private final int mtu;
+
+  /** Latency budget, in nanoseconds */
+  private final long budget;
+
+  /** Open batches by destination; guarded by this */
+  private final HashMap<InetSocketAddress, Batch> batches = new HashMap<InetSocketAddress, Batch>();
+
+
+
+  /**
+   * @param budget the latency budget, in milliseconds
+   */
+  Coalescer(TransportUDP transport, int mtu, long budget)
+  {
+    this.transport = transport;
+    this.mtu = mtu;
+    this.budget = budget*1000000;
+    startFlusher();
+  }
+
+
+
+  /**
+   * Adds an encoded message (between the position and the limit of the
+   * buffer) to the batch of its destination. Messages too large for a batch
+   * are sent immediately.
+   */
+  void send(ByteBuffer message, InetSocketAddress dest) throws IOException
+  {
+    int size = message.remaining();
+    if (HEADER+FRAME+size>mtu)
+    {
+      transport.transmit(message, dest);
+      return;
+    }
+
+    Batch full = null;
+    Batch created = null;
+    synchronized (this)
+    {
+      Batch batch = batches.get(dest);
+      if (batch!=null && batch.buffer.remaining()<FRAME+size)
+      {
+        full = batch;
+        batch = null;
+      }
+      if (batch==null)
+      {
+        batch = created = new Batch(this, dest, acquire(), System.nanoTime()+budget);
+        batch.buffer.putInt(MARKER);
+        batches.put(dest, batch);
+      }
+      batch.buffer.putChar((char) size);
+      batch.buffer.put(message);
+      batch.count++;
+    }
+
+    if (full!=null)
+      transmit(full);
+    if (created!=null)
+    {
+      // The flusher only needs waking up if it may be waiting on an empty queue
+      expiring.add(created);
+      if (expiring.peek()==created)
+        LockSupport.unpark(flusher);
+    }
+  }
+
+
+
+  /**
+   * Sends a batch, unless it has been sent already.
+   */
+  private void expire(Batch batch) throws IOException
+  {
+    synchronized (this)
+    {
+      if (batches.get(batch.dest)!=batch)
+        return; // sent when it became full
+      batches.remove(batch.dest);
+    }
+    transmit(batch);
+  }
+
+
+
+  /**
+   * Sends a batch that has been removed from the open batches.
+   */
+  private void transmit(Batch batch) throws IOException
+  {
+    ByteBuffer buffer = batch.buffer;
+    buffer.flip();
+    if (batch.count==1)
+      buffer.position(HEADER+FRAME);
+    try
+    {
+      transport.transmit(buffer, batch.dest);
+    }
+    finally
+    {
+      buffers.offer(buffer);
+    }
+  }
+
+
+
+  private ByteBuffer acquire()
+  {
+    ByteBuffer buffer = buffers.poll();
+    if (buffer==null || buffer.capacity()!=mtu)
+      return ByteBuffer.allocateDirect(mtu);
+    buffer.clear();
+    return buffer;
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  // Receiving
+  // --------------------------------------------------------------------------
+  /**
+   * Checks whether a received datagram is a batch, and if so, skips its
+   * header, so that its messages can be read by {@link #nextMessage}.
+   */
+  static boolean isBatch(ByteBuffer datagram)
+  {
+    if (datagram.remaining()<HEADER || datagram.getInt(datagram.position())!=MARKER)
+      return false;
+    datagram.position(datagram.position()+HEADER);
+    return true;
+  }
+
+
+
+  /**
+   * Returns the next message of a batch datagram, as a slice of it, and
+   * advances the datagram past it. Returns null once all messages are read,
+   * or if the rest of the datagram is truncated.
+   */
+  static ByteBuffer nextMessage(ByteBuffer datagram)
+  {
+    if (datagram.remaining()<FRAME)
+      return null;
+    int size = datagram.getChar();
+    if (size>datagram.remaining())
+      return null;
+    ByteBuffer message = datagram.slice();
+    message.limit(size);
+    datagram.position(datagram.position()+size);
+    return message;
+  }
+
+
+
+  // --------------------------------------------------------------------------
+  // Flusher
+  // --------------------------------------------------------------------------
+  private static synchronized void startFlusher()
+  {
+    if (flusher!=null)
+      return;
+    flusher = new Thread("udp-coalescer")
+    {
+      public void run()
+      {
+        while (true)
+        {
+          Batch batch = expiring.peek();
+          if (batch==null)
+          {
+            LockSupport.park();
+            continue;
+          }
+          long remaining = batch.deadline-System.nanoTime();
+          if (remaining>0)
+          {
+            LockSupport.parkNanos(remaining);
+            continue;
+          }
+          expiring.poll();
+          try
+          {
+            batch.owner.expire(batch);
+          }
+          catch (IOException e)
+          {
+            // No problem failing to send a packet, as for single messages.
+          }
+        }
+      }
+    };
+    flusher.setDaemon(true);
+    flusher.start();
+  }
+}
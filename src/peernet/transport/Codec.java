@@ -0,0 +1,48 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+
+
+
+
+/**
+ * Converts messages to and from the bytes sent over the network by a
+ * {@link TransportNet}. A message consists of the protocol identifier it is
+ * destined to, and its payload. Implementations are selected through the
+ * transport's <tt>codec</tt> parameter, and are constructed with the
+ * configuration prefix of that parameter. One instance is shared by all clones
+ * of a transport, so implementations have to be thread-safe.
+ *
+ * @see BinaryCodec
+ * @see SerializationCodec
+ */
+public interface Codec
+{
+  /**
+   * Encodes a message into the given buffer, starting at its position, and
+   * advances the position to the end of the message.
+   *
+   * @throws java.nio.BufferOverflowException if the message does not fit in
+   *           the buffer
+   * @throws IOException if the payload cannot be encoded
+   */
+  public void encode(int pid, Object payload, ByteBuffer buffer) throws IOException;
+
+
+
+  /**
+   * Decodes a message from the bytes of the given buffer between its position
+   * and its limit.
+   *
+   * @param src the address the message was received from
+   * @throws IOException if the bytes do not form a valid message
+   * @throws ClassNotFoundException if the payload is of an unknown class
+   */
+  public Packet decode(Address src, ByteBuffer buffer) throws IOException, ClassNotFoundException;
+}
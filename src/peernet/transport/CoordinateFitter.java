@@ -0,0 +1,215 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.transport;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import peernet.config.Configuration;
+import peernet.config.IllegalParameterException;
+import peernet.config.ParsedProperties;
+import peernet.core.CommonState;
+import peernet.core.Control;
+
+
+/**
+ * Fits {@link NetworkCoordinates} to the latencies of static singleton
+ * {@link RouterNetwork}, which must have been initialized by one of the
+ * parsers, and then replaces the latencies with those estimated from the
+ * coordinates. Optionally, it saves the coordinates to a file, which
+ * {@link CoordinateParser} reads in later runs.
+ * <p>
+ * Before replacing the latencies, it prints a report on the accuracy and
+ * speed of the coordinates, over random pairs of routers: the median, 90th
+ * percentile and average of the relative error of the estimated latencies,
+ * the average latency and the time of a lookup in nanoseconds, both from the
+ * original latencies and from the coordinates.
+ * <p>
+ * The fitting can also be run without a simulation:
+ * <pre>
+ * java peernet.transport.CoordinateFitter [config-file] parser=peernet.transport.KingParser
+ *      parser.file=king.txt parser.ticks_per_sec=1000 fitter.file=king.coord
+ * </pre>
+ * which instantiates the parser configured under <code>parser</code>, runs
+ * it, and then runs this class configured under <code>fitter</code>.
+ */
+public class CoordinateFitter implements Control
+{
+  /**
+   * The file to save the coordinates to. If not given, they are not saved.
+   * 
+   * @config
+   */
+  private static final String PAR_FILE = "file";
+
+  /**
+   * The number of dimensions of the coordinates, besides the height.
+   * Defaults to 5.
+   * 
+   * @config
+   */
+  private static final String PAR_DIMENSIONS = "dimensions";
+
+  /**
+   * The number of routers each router measures its latency to. Defaults to
+   * 32.
+   * 
+   * @config
+   */
+  private static final String PAR_NEIGHBORS = "neighbors";
+
+  /**
+   * The number of latency measurements of each router. Defaults to 2000.
+   * 
+   * @config
+   */
+  private static final String PAR_ROUNDS = "rounds";
+
+  /**
+   * The number of random pairs of routers the report is computed over.
+   * Defaults to 1000000.
+   * 
+   * @config
+   */
+  private static final String PAR_PAIRS = "pairs";
+
+  /** Prefix for reading parameters */
+  private String prefix;
+
+  /** Name of the file to save the coordinates to, or null */
+  private String filename;
+
+  private int dimensions;
+
+  private int neighbors;
+
+  private int rounds;
+
+  private int pairs;
+
+
+
+  /**
+   * Read the configuration parameters.
+   */
+  public CoordinateFitter(String prefix)
+  {
+    this.prefix = prefix;
+    filename = Configuration.getString(prefix+"."+PAR_FILE, null);
+    dimensions = Configuration.getInt(prefix+"."+PAR_DIMENSIONS, 5);
+    neighbors = Configuration.getInt(prefix+"."+PAR_NEIGHBORS, 32);
+    rounds = Configuration.getInt(prefix+"."+PAR_ROUNDS, 2000);
+    pairs = Configuration.getInt(prefix+"."+PAR_PAIRS, 1000000);
+    if (dimensions<=0)
+      throw new IllegalParameterException(prefix+"."+PAR_DIMENSIONS, "Must be positive");
+    if (neighbors<=0)
+      throw new IllegalParameterException(prefix+"."+PAR_NEIGHBORS, "Must be positive");
+    if (rounds<0)
+      throw new IllegalParameterException(prefix+"."+PAR_ROUNDS, "Must not be negative");
+    if (pairs<0)
+      throw new IllegalParameterException(prefix+"."+PAR_PAIRS, "Must not be negative");
+  }
+
+
+
+  /**
+   * Fits the coordinates, prints the report, saves the coordinates if a file
+   * is given, and installs them in {@link RouterNetwork}.
+   * 
+   * @return always false
+   */
+  public boolean execute()
+  {
+    int size = RouterNetwork.getSize();
+    System.err.println("CoordinateFitter: fitting "+dimensions+"-dimensional coordinates to "+size+" routers");
+    NetworkCoordinates nc = NetworkCoordinates.fit(dimensions, neighbors, rounds, CommonState.r);
+    if (size>1&&pairs>0)
+      report(nc);
+    if (filename!=null)
+    {
+      try
+      {
+        nc.save(filename);
+      }
+      catch (IOException e)
+      {
+        throw new RuntimeException(e.getMessage());
+      }
+    }
+    RouterNetwork.setCoordinates(nc);
+    return false;
+  }
+
+
+
+  /**
+   * Prints the accuracy and speed of the coordinates, compared to the current
+   * latencies of {@link RouterNetwork}.
+   */
+  private void report(NetworkCoordinates nc)
+  {
+    int size = RouterNetwork.getSize();
+    int[] senders = new int[pairs];
+    int[] receivers = new int[pairs];
+    for (int k = 0; k<pairs; k++)
+    {
+      senders[k] = CommonState.r.nextInt(size);
+      int j = CommonState.r.nextInt(size-1);
+      receivers[k] = j>=senders[k] ? j+1 : j;
+    }
+
+    double[] errors = new double[pairs];
+    int measured = 0;
+    double sum = 0;
+    for (int k = 0; k<pairs; k++)
+    {
+      int latency = RouterNetwork.getLatency(senders[k], receivers[k]);
+      if (latency<=0)
+        continue;
+      double error = Math.abs(nc.getLatency(senders[k], receivers[k])-latency)/(double) latency;
+      errors[measured++] = error;
+      sum += error;
+    }
+    Arrays.sort(errors, 0, measured);
+
+    // Time the lookups twice, the first time to warm up
+    long matrix = 0, coordinates = 0, matrixSum = 0, coordinatesSum = 0;
+    for (int run = 0; run<2; run++)
+    {
+      matrixSum = coordinatesSum = 0;
+      long begin = System.nanoTime();
+      for (int k = 0; k<pairs; k++)
+        matrixSum += RouterNetwork.getLatency(senders[k], receivers[k]);
+      matrix = System.nanoTime()-begin;
+      begin = System.nanoTime();
+      for (int k = 0; k<pairs; k++)
+        coordinatesSum += nc.getLatency(senders[k], receivers[k]);
+      coordinates = System.nanoTime()-begin;
+    }
+
+    System.out.println(prefix+": relative error over "+measured+" pairs: median "+
+        (measured>0 ? errors[measured/2] : Double.NaN)+", 90th percentile "+
+        (measured>0 ? errors[(int) (measured*0.9)] : Double.NaN)+", average "+sum/measured);
+    System.out.println(prefix+": from the latencies: average "+(double) matrixSum/pairs+
+        ", lookup time (ns) "+(double) matrix/pairs);
+    System.out.println(prefix+": from the coordinates: average "+(double) coordinatesSum/pairs+
+        ", lookup time (ns) "+(double) coordinates/pairs);
+  }
+
+
+
+  /**
+   * Fits coordinates to latencies read by a parser, as described in the class
+   * documentation.
+   */
+  public static void main(String[] args)
+  {
+    Configuration.setConfig(new ParsedProperties(args));
+    Control fitter = new CoordinateFitter("fitter");
+    Control parser = (Control) Configuration.getInstance("parser");
+    parser.execute();
+    fitter.execute();
+  }
+}
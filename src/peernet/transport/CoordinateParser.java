@@ -0,0 +1,69 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.transport;
+
+import java.io.File;
+import java.io.IOException;
+
+import peernet.config.Configuration;
+import peernet.config.IllegalParameterException;
+import peernet.core.Control;
+
+
+/**
+ * Initializes static singleton {@link RouterNetwork} with latencies estimated
+ * from {@link NetworkCoordinates}, read from a file saved by
+ * {@link CoordinateFitter}.
+ */
+public class CoordinateParser implements Control
+{
+  /**
+   * The coordinates file.
+   * 
+   * @config
+   */
+  private static final String PAR_FILE = "file";
+
+  /** Prefix for reading parameters */
+  private String prefix;
+
+  /** Name of the coordinates file */
+  private String filename;
+
+
+
+  /**
+   * Read the configuration parameters.
+   */
+  public CoordinateParser(String prefix)
+  {
+    this.prefix = prefix;
+    filename = Configuration.getString(prefix+"."+PAR_FILE);
+  }
+
+
+
+  /**
+   * Initializes static singleton {@link RouterNetwork} from the coordinates
+   * file.
+   * 
+   * @return always false
+   */
+  public boolean execute()
+  {
+    if (!new File(filename).isFile())
+      throw new IllegalParameterException(prefix+"."+PAR_FILE, filename+" does not exist");
+    try
+    {
+      RouterNetwork.setCoordinates(NetworkCoordinates.load(filename));
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e.getMessage());
+    }
+    System.err.println("CoordinateParser: read coordinates of "+RouterNetwork.getSize()+" routers");
+    return false;
+  }
+}
@@ -28,7 +28,8 @@ import peernet.core.Control;
 
 /**
  * Initializes static singleton {@link RouterNetwork} by reading a king data
- * set.
+ * set. A data set given as a file is parsed in a single pass, in parallel,
+ * by {@link TraceScanner}, and the result can be cached next to it.
  * 
  * @author Alberto Montresor
  * @version $Revision: 1.7 $
@@ -52,6 +53,16 @@ public class KingParser implements Control
    */
   private static final String PAR_TICKS_PER_SEC = "ticks_per_sec";
 
+  /**
+   * If set, the latencies parsed from {@value #PAR_FILE} are saved to a
+   * sidecar latency file next to it, named after it and
+   * {@value #PAR_TICKS_PER_SEC}, which later runs map instead of parsing the
+   * data set again, as long as the sidecar is newer.
+   * 
+   * @config
+   */
+  private static final String PAR_CACHE = "cache";
+
   // ---------------------------------------------------------------------
   // Fields
   // ---------------------------------------------------------------------
@@ -67,6 +78,10 @@ public class KingParser implements Control
   /** Prefix for reading parameters */
   private String prefix;
 
+  private int ticks_per_sec;
+
+  private boolean cache;
+
 
 
   // ---------------------------------------------------------------------
@@ -78,9 +93,10 @@ public class KingParser implements Control
   public KingParser(String prefix)
   {
     this.prefix = prefix;
-    int ticks_per_sec = Configuration.getInt(prefix+"."+PAR_TICKS_PER_SEC);
+    ticks_per_sec = Configuration.getInt(prefix+"."+PAR_TICKS_PER_SEC);
     ratio = ((double)ticks_per_sec) / 1000000;  // since King trace is in microseconds
     filename = Configuration.getString(prefix+"."+PAR_FILE, null);
+    cache = Configuration.contains(prefix+"."+PAR_CACHE);
   }
 
 
@@ -96,22 +112,30 @@ public class KingParser implements Control
    */
   public boolean execute()
   {
-    BufferedReader in = null;
     if (filename!=null)
     {
+      if (!new File(filename).isFile())
+        throw new IllegalParameterException(prefix+"."+PAR_FILE, filename+" does not exist");
+      String sidecar = TraceScanner.sidecar(filename, String.valueOf(ticks_per_sec));
+      if (cache&&TraceScanner.mapSidecar(sidecar, filename))
+      {
+        System.err.println("KingParser: mapped "+RouterNetwork.getSize()+" entries from "+sidecar);
+        return false;
+      }
       try
       {
-        in = new BufferedReader(new FileReader(filename));
+        scan();
       }
-      catch (FileNotFoundException e)
+      catch (IOException e)
       {
-        throw new IllegalParameterException(prefix+"."+PAR_FILE, filename+" does not exist");
+        throw new RuntimeException(e.getMessage());
       }
+      if (cache)
+        TraceScanner.saveSidecar(sidecar);
+      return false;
     }
-    else
-    {
-      in = new BufferedReader(new InputStreamReader(ClassLoader.getSystemResourceAsStream("t-king.map")));
-    }
+
+    BufferedReader in = new BufferedReader(new InputStreamReader(ClassLoader.getSystemResourceAsStream("t-king.map")));
 
     String line = null;
     // Skip initial lines
@@ -146,4 +170,35 @@ public class KingParser implements Control
     catch (IOException e) {}
     return false;
   }
+
+
+
+  // ---------------------------------------------------------------------
+  /**
+   * Parses the data set file with a {@link TraceScanner}: the number of
+   * routers is that of the "node" lines, and the lines after them contain
+   * the latencies.
+   */
+  private void scan() throws IOException
+  {
+    TraceScanner scanner = new TraceScanner(filename);
+    try
+    {
+      long[] nodes = new long[2];
+      scanner.countLines("node", nodes);
+      RouterNetwork.reset((int) nodes[0], true);
+      System.err.println("KingParser: read "+nodes[0]+" entries");
+      scanner.scan(nodes[1], new TraceScanner.Sink()
+      {
+        public void latency(int n1, int n2, double latency)
+        {
+          RouterNetwork.setLatency(n1-1, n2-1, (int) (latency*ratio));
+        }
+      });
+    }
+    finally
+    {
+      scanner.close();
+    }
+  }
 }
@@ -0,0 +1,72 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.transport;
+
+import java.io.File;
+import java.io.IOException;
+
+import peernet.config.Configuration;
+import peernet.config.IllegalParameterException;
+import peernet.core.Control;
+
+
+/**
+ * Initializes static singleton {@link RouterNetwork} by memory-mapping a
+ * latency file, as written by {@link LatencyFileWriter}. The latencies stay
+ * off the heap, and nothing is parsed, so this takes no time regardless of
+ * the number of routers.
+ * 
+ * @see RouterNetwork#map
+ */
+public class LatencyFileParser implements Control
+{
+  /**
+   * The latency file.
+   * 
+   * @config
+   */
+  private static final String PAR_FILE = "file";
+
+  /** Prefix for reading parameters */
+  private String prefix;
+
+  /** Name of the latency file */
+  private String filename;
+
+
+
+  /**
+   * Read the configuration parameters.
+   */
+  public LatencyFileParser(String prefix)
+  {
+    this.prefix = prefix;
+    filename = Configuration.getString(prefix+"."+PAR_FILE);
+  }
+
+
+
+  /**
+   * Initializes static singleton {@link RouterNetwork} by mapping the latency
+   * file.
+   * 
+   * @return always false
+   */
+  public boolean execute()
+  {
+    if (!new File(filename).isFile())
+      throw new IllegalParameterException(prefix+"."+PAR_FILE, filename+" does not exist");
+    try
+    {
+      RouterNetwork.map(filename);
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e.getMessage());
+    }
+    System.err.println("LatencyFileParser: mapped latencies for "+RouterNetwork.getSize()+" routers");
+    return false;
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.transport;
+
+import java.io.IOException;
+
+import peernet.config.Configuration;
+import peernet.config.IllegalParameterException;
+import peernet.config.ParsedProperties;
+import peernet.core.Control;
+
+
+/**
+ * Saves the latencies of static singleton {@link RouterNetwork} to a latency
+ * file, which {@link LatencyFileParser} maps back into memory. Placed after
+ * one of the parsers, such as {@link KingParser}, {@link MeridianParser} or
+ * {@link MatrixParser}, it converts their input once, so that later runs
+ * start without parsing it.
+ * <p>
+ * The conversion can also be run without a simulation:
+ * <pre>
+ * java peernet.transport.LatencyFileWriter [config-file] parser=peernet.transport.KingParser
+ *      parser.file=king.txt parser.ticks_per_sec=1000 writer.file=king.lat writer.bits=16
+ * </pre>
+ * which instantiates the parser configured under <code>parser</code>, runs
+ * it, and then runs this class configured under <code>writer</code>.
+ * 
+ * @see RouterNetwork#save
+ */
+public class LatencyFileWriter implements Control
+{
+  /**
+   * The latency file to write.
+   * 
+   * @config
+   */
+  private static final String PAR_FILE = "file";
+
+  /**
+   * The size of each entry in bits: 32, for exact latencies, or 16, for
+   * latencies rounded to multiples of {@value #PAR_UNIT}, which take half the
+   * space. Defaults to 32.
+   * 
+   * @config
+   */
+  private static final String PAR_BITS = "bits";
+
+  /**
+   * The unit of 16-bit entries, in simulation ticks. Defaults to the smallest
+   * one for which the largest latency fits in 16 bits.
+   * 
+   * @config
+   */
+  private static final String PAR_UNIT = "unit";
+
+  /** Name of the latency file */
+  private String filename;
+
+  private int bits;
+
+  private int unit;
+
+
+
+  /**
+   * Read the configuration parameters.
+   */
+  public LatencyFileWriter(String prefix)
+  {
+    filename = Configuration.getString(prefix+"."+PAR_FILE);
+    bits = Configuration.getInt(prefix+"."+PAR_BITS, 32);
+    unit = Configuration.getInt(prefix+"."+PAR_UNIT, 0);
+    if (bits!=16&&bits!=32)
+      throw new IllegalParameterException(prefix+"."+PAR_BITS, "Must be 16 or 32");
+    if (unit<0)
+      throw new IllegalParameterException(prefix+"."+PAR_UNIT, "Must not be negative");
+  }
+
+
+
+  /**
+   * Saves the latencies of {@link RouterNetwork} to the latency file.
+   * 
+   * @return always false
+   */
+  public boolean execute()
+  {
+    try
+    {
+      RouterNetwork.save(filename, bits, unit);
+    }
+    catch (IOException e)
+    {
+      throw new RuntimeException(e.getMessage());
+    }
+    System.err.println("LatencyFileWriter: saved latencies for "+RouterNetwork.getSize()+" routers to "+filename);
+    return false;
+  }
+
+
+
+  /**
+   * Converts latencies read by a parser to a latency file, as described in
+   * the class documentation.
+   */
+  public static void main(String[] args)
+  {
+    Configuration.setConfig(new ParsedProperties(args));
+    Control writer = new LatencyFileWriter("writer");
+    Control parser = (Control) Configuration.getInstance("parser");
+    parser.execute();
+    writer.execute();
+  }
+}
@@ -19,8 +19,7 @@
 package peernet.transport;
 
 import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.StringTokenizer;
@@ -32,6 +31,8 @@ import peernet.core.Control;
 
 /**
  * Initializes static singleton {@link RouterNetwork} by reading a king data set.
+ * A data set given as a file is parsed in a single pass, in parallel, by
+ * {@link TraceScanner}, and the result can be cached next to it.
  * 
  * @author Spyros Voulgaris
  * @version $Revision: 1.0$
@@ -61,6 +62,15 @@ private static final String PAR_RATIO = "ratio";
  */
 private static final String PAR_SIZE = "size";
 
+/**
+ * If set, the latencies parsed from {@value #PAR_FILE} are saved to a
+ * sidecar latency file next to it, named after it, {@value #PAR_RATIO} and
+ * {@value #PAR_SIZE}, which later runs map instead of parsing the data set
+ * again, as long as the sidecar is newer.
+ * @config
+ */
+private static final String PAR_CACHE = "cache";
+
 
 // ---------------------------------------------------------------------
 // Fields
@@ -83,6 +93,8 @@ private String prefix;
  */
 private int size = 0;
 
+private boolean cache;
+
 // ---------------------------------------------------------------------
 // Initialization
 // ---------------------------------------------------------------------
@@ -96,6 +108,7 @@ public MeridianParser(String prefix)
 	ratio = Configuration.getDouble(prefix + "." + PAR_RATIO, 1);
 	filename = Configuration.getString(prefix + "." + PAR_FILE, null);
   size = Configuration.getInt(prefix + "." + PAR_SIZE);
+	cache = Configuration.contains(prefix + "." + PAR_CACHE);
 }
 
 // ---------------------------------------------------------------------
@@ -108,19 +121,28 @@ public MeridianParser(String prefix)
 */
 public boolean execute()
 {
-	BufferedReader in = null;
 	if (filename != null) {
-		try {
-			in = new BufferedReader(new FileReader(filename));
-		} catch (FileNotFoundException e) {
+		if (!new File(filename).isFile())
 			throw new IllegalParameterException(prefix + "." + PAR_FILE, filename
 					+ " does not exist");
+		String sidecar = TraceScanner.sidecar(filename, ratio + "-" + size);
+		if (cache && TraceScanner.mapSidecar(sidecar, filename)) {
+			System.err.println("MeridianParser: mapped " + size + " entries from " + sidecar);
+			return false;
+		}
+		try {
+			scan();
+		} catch (IOException e) {
+			throw new RuntimeException(e.getMessage());
 		}
-	} else {
-		in = new BufferedReader( new InputStreamReader(
-						ClassLoader.getSystemResourceAsStream("t-king.map")
-					)	);
+		if (cache)
+			TraceScanner.saveSidecar(sidecar);
+		return false;
 	}
+
+	BufferedReader in = new BufferedReader( new InputStreamReader(
+					ClassLoader.getSystemResourceAsStream("t-king.map")
+				)	);
 		
 	// XXX If the file format is not correct, we will get quite obscure
 	// exceptions. To be improved.
@@ -151,4 +173,30 @@ public boolean execute()
 	return false;
 }
 
+// ---------------------------------------------------------------------
+
+/**
+ * Parses the data set file with a {@link TraceScanner}.
+ */
+private void scan() throws IOException
+{
+	RouterNetwork.reset(size, true);
+	System.err.println("MeridianParser: going to read " + size + " entries");
+	TraceScanner scanner = new TraceScanner(filename);
+	try {
+		scanner.scan(0, new TraceScanner.Sink() {
+			public void latency(int n1, int n2, double value) {
+				int latency = (int) (value * ratio);
+				int mod = latency % 1000;
+				latency = 1000*(latency/1000);
+				if (mod>=500)
+					latency += 1000;
+				RouterNetwork.setLatency(n1 - 1, n2 - 1, latency);
+			}
+		});
+	} finally {
+		scanner.close();
+	}
+}
+
 }
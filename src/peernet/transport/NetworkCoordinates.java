@@ -0,0 +1,305 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+
+/**
+ * Network coordinates of a set of routers, from which the latency between
+ * any two of them is estimated, instead of being stored for each pair. Each
+ * router has a position in a Euclidean space of a few dimensions, plus a
+ * height, which models its access link: the latency between two routers is
+ * the distance between their positions plus both heights. This takes memory
+ * linear in the number of routers, so it scales to many more routers than a
+ * latency matrix.
+ * <p>
+ * The coordinates are fitted to the latencies of {@link RouterNetwork} by the
+ * Vivaldi algorithm, run offline over the whole matrix: each router
+ * repeatedly measures a random router among a fixed set of neighbors, and
+ * moves to reduce the error of the estimated latency, by a step that shrinks
+ * as its confidence in its own position grows. Latencies are always
+ * estimated as positive, so broken links are lost.
+ * <p>
+ * A coordinates file is little-endian. It consists of the integers "PNVC" in
+ * ASCII, the version (1), the number of routers and the number of
+ * dimensions, followed by the coordinates of each router as floats, its
+ * position followed by its height.
+ *
+ * @see CoordinateFitter
+ */
+public class NetworkCoordinates
+{
+  /** The first four bytes of coordinates files: "PNVC" in ASCII */
+  private static final int FILE_MAGIC = 0x43564e50;
+
+  /** The version of the coordinates file format */
+  private static final int FILE_VERSION = 1;
+
+  /** The size of the header of coordinates files */
+  private static final int HEADER_SIZE = 16;
+
+  /** Weight of a sample in the moving average of the error */
+  private static final double CE = 0.25;
+
+  /** Fraction of the error each step corrects, for equally confident nodes */
+  private static final double CC = 0.25;
+
+  /** The smallest height, which keeps routers apart in the height dimension */
+  private static final float MIN_HEIGHT = 0.1f;
+
+  private final int size;
+
+  private final int dims;
+
+  /**
+   * The coordinates of all routers, each taking dims+1 consecutive entries:
+   * its position, followed by its height
+   */
+  private final float[] coords;
+
+
+
+  // ---------------------------------------------------------------------
+  // Initialization
+  // ---------------------------------------------------------------------
+  private NetworkCoordinates(int size, int dims, float[] coords)
+  {
+    this.size = size;
+    this.dims = dims;
+    this.coords = coords;
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  // Methods
+  // ---------------------------------------------------------------------
+  /**
+   * Returns the estimated latency between two routers, rounded to the
+   * nearest integer.
+   */
+  public int getLatency(int sender, int receiver)
+  {
+    if (sender==receiver)
+      return 0;
+    return (int) (distance(sender, receiver)+0.5);
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  /** Returns the number of routers. */
+  public int size()
+  {
+    return size;
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  /** Returns the number of dimensions of the positions, without the height. */
+  public int dimensions()
+  {
+    return dims;
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  /**
+   * Fits coordinates to the current latencies of {@link RouterNetwork}.
+   * Routers with no known latencies to their neighbors stay near the origin.
+   *
+   * @param dims the number of dimensions of the positions
+   * @param neighbors the number of routers each router measures
+   * @param rounds the number of measurements of each router
+   * @param r the source of randomness
+   */
+  public static NetworkCoordinates fit(int dims, int neighbors, int rounds, Random r)
+  {
+    final int size = RouterNetwork.getSize();
+    final int stride = dims+1;
+    final float[] coords = new float[size*stride];
+    final double[] error = new double[size];
+    final int[][] peers = new int[size][];
+    for (int i = 0; i<size; i++)
+    {
+      for (int k = 0; k<dims; k++)
+        coords[i*stride+k] = (float) (r.nextDouble()-0.5);
+      coords[i*stride+dims] = MIN_HEIGHT;
+      error[i] = 1;
+      peers[i] = new int[Math.min(neighbors, size-1)];
+      for (int k = 0; k<peers[i].length; k++)
+      {
+        int j = r.nextInt(size-1);
+        peers[i][k] = j>=i ? j+1 : j;
+      }
+    }
+
+    NetworkCoordinates nc = new NetworkCoordinates(size, dims, coords);
+    double[] direction = new double[stride];
+    for (int round = 0; round<rounds; round++)
+    {
+      for (int i = 0; i<size; i++)
+      {
+        if (peers[i].length==0)
+          continue;
+        int j = peers[i][r.nextInt(peers[i].length)];
+        int latency = RouterNetwork.getLatency(i, j);
+        if (latency<=0)
+          continue;
+        nc.update(i, j, latency, error, direction, r);
+      }
+    }
+    return nc;
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  /**
+   * Reads coordinates from a file written by {@link #save}.
+   *
+   * @throws IOException if the file cannot be read, or it is not a valid
+   *           coordinates file
+   */
+  public static NetworkCoordinates load(String file) throws IOException
+  {
+    FileChannel fc = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+    try
+    {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      readFully(fc, header, file);
+      if (header.getInt()!=FILE_MAGIC)
+        throw new IOException(file+" is not a coordinates file");
+      int version = header.getInt();
+      if (version!=FILE_VERSION)
+        throw new IOException(file+": unknown coordinates file version "+version);
+      int size = header.getInt();
+      int dims = header.getInt();
+      if (size<0||dims<=0||(long) size*(dims+1)*4!=fc.size()-HEADER_SIZE)
+        throw new IOException(file+" is not a valid coordinates file");
+
+      ByteBuffer data = ByteBuffer.allocate((int) (fc.size()-HEADER_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+      readFully(fc, data, file);
+      float[] coords = new float[size*(dims+1)];
+      data.asFloatBuffer().get(coords);
+      return new NetworkCoordinates(size, dims, coords);
+    }
+    finally
+    {
+      fc.close();
+    }
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  /**
+   * Saves the coordinates to a file, to be read by {@link #load}.
+   *
+   * @throws IOException if the file cannot be written
+   */
+  public void save(String file) throws IOException
+  {
+    ByteBuffer data = ByteBuffer.allocate(HEADER_SIZE+coords.length*4).order(ByteOrder.LITTLE_ENDIAN);
+    data.putInt(FILE_MAGIC).putInt(FILE_VERSION).putInt(size).putInt(dims);
+    data.asFloatBuffer().put(coords);
+    data.clear();
+    FileChannel fc = FileChannel.open(Paths.get(file), StandardOpenOption.WRITE,
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    try
+    {
+      while (data.hasRemaining())
+        fc.write(data);
+    }
+    finally
+    {
+      fc.close();
+    }
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  /**
+   * Returns the distance between the coordinates of two routers, including
+   * their heights.
+   */
+  private double distance(int i, int j)
+  {
+    final int a = i*(dims+1);
+    final int b = j*(dims+1);
+    double sum = 0;
+    for (int k = 0; k<dims; k++)
+    {
+      double d = coords[a+k]-coords[b+k];
+      sum += d*d;
+    }
+    return Math.sqrt(sum)+coords[a+dims]+coords[b+dims];
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  /**
+   * Moves router i after measuring the given latency to router j, and
+   * updates its error estimate.
+   */
+  private void update(int i, int j, int latency, double[] error, double[] direction, Random r)
+  {
+    final int a = i*(dims+1);
+    final int b = j*(dims+1);
+    double norm = 0;
+    for (int k = 0; k<dims; k++)
+    {
+      direction[k] = coords[a+k]-coords[b+k];
+      norm += direction[k]*direction[k];
+    }
+    norm = Math.sqrt(norm);
+    double estimate = norm+coords[a+dims]+coords[b+dims];
+
+    double weight = error[i]/(error[i]+error[j]);
+    double sampleError = Math.abs(estimate-latency)/latency;
+    error[i] = sampleError*CE*weight+error[i]*(1-CE*weight);
+    double force = CC*weight*(latency-estimate);
+
+    if (norm==0)
+    {
+      // Coinciding positions: push apart in a random direction
+      for (int k = 0; k<dims; k++)
+        direction[k] = r.nextDouble()-0.5;
+      norm = 0;
+      for (int k = 0; k<dims; k++)
+        norm += direction[k]*direction[k];
+      norm = Math.sqrt(norm);
+    }
+    // The unit vector from j to i, with the heights as one more dimension
+    double length = norm+coords[a+dims]+coords[b+dims];
+    double scale = norm/length;
+    for (int k = 0; k<dims; k++)
+      coords[a+k] += force*scale*direction[k]/norm;
+    float height = (float) (coords[a+dims]+force*(coords[a+dims]+coords[b+dims])/length);
+    coords[a+dims] = Math.max(height, MIN_HEIGHT);
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  private static void readFully(FileChannel fc, ByteBuffer bb, String file) throws IOException
+  {
+    while (bb.hasRemaining())
+      if (fc.read(bb)<0)
+        throw new IOException(file+" is truncated");
+    bb.flip();
+  }
+}
@@ -25,6 +25,7 @@ import peernet.core.Peer;
 import peernet.core.Linkable;
 import peernet.core.Network;
 import peernet.core.Node;
+import peernet.graph.CSRGraph;
 import peernet.graph.Graph;
 
 
@@ -189,12 +190,12 @@ public class OverlayGraph implements Graph
     {
       // Set the inverse edge
       Linkable protocol_j = (Linkable) Network.get(j).getProtocol(protocolID);
-      Peer peer_i = Network.get(i).getProtocol(protocolID).myPeer();
+      Peer peer_i = Network.get(i).getProtocol(protocolID).newPeer();
       protocol_j.addNeighbor(peer_i);
     }
     // Set the direct edge
     Linkable protocol_i = (Linkable) Network.get(i).getProtocol(protocolID);
-    Peer peer_j = Network.get(j).getProtocol(protocolID).myPeer();
+    Peer peer_j = Network.get(j).getProtocol(protocolID).newPeer();
     protocol_i.addNeighbor(peer_j);
 
     return true;
@@ -246,4 +247,30 @@ public class OverlayGraph implements Graph
     Linkable l = (Linkable) Network.get(i).getProtocol(protocolID);
     return l.degree();
   }
+
+
+
+
+  // ---------------------------------------------------------------
+  /**
+   * Returns a snapshot of the current overlay, with the same neighbors as
+   * {@link #getNeighbours}, in primitive form. It is built in two passes over
+   * the linkables, without boxing the neighbor indices.
+   */
+  public CSRGraph snapshot()
+  {
+    final int n = Network.size();
+    int[] offsets = new int[n+1];
+    for (int i = 0; i<n; ++i)
+      offsets[i+1] = offsets[i]+((Linkable) Network.get(i).getProtocol(protocolID)).degree();
+
+    int[] targets = new int[offsets[n]];
+    for (int i = 0; i<n; ++i)
+    {
+      Linkable l = (Linkable) Network.get(i).getProtocol(protocolID);
+      for (int j = 0, k = offsets[i]; k<offsets[i+1]; ++j, ++k)
+        targets[k] = ((AddressSim)l.getNeighbor(j).address).node.getIndex();
+    }
+    return new CSRGraph(offsets, targets, true, this);
+  }
 }
@@ -17,9 +17,39 @@
  */
 package peernet.transport;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import peernet.core.SimulationContext;
+
 /**
  * This static singleton emulates an underlying router network of fixed size,
- * and stores the latency measurements for all pairs of routers.
+ * and stores the latency measurements for all pairs of routers. Each
+ * {@link SimulationContext} has its own router network.
+ * <p>
+ * The latencies are either kept in arrays on the heap, filled by one of the
+ * parsers, or they are memory-mapped from a latency file by {@link #map}, in
+ * which case they take no heap and loading them takes no time. Alternatively,
+ * latencies can be estimated from {@link NetworkCoordinates}, which take
+ * memory linear in the number of routers. Latency files
+ * are written by {@link #save}, from the latencies in memory; see
+ * {@link LatencyFileWriter} for converting the files read by the parsers.
+ * <p>
+ * A latency file is little-endian. Its header consists of the integers
+ * "PNLM" in ASCII, the version (1), flags (1 for symmetric latencies, plus 2
+ * for 16-bit entries), the number of routers and the unit of 16-bit entries,
+ * padded to 32 bytes. The padding is ignored when reading; files written by
+ * earlier versions kept the smallest latency in it. Then come the latencies,
+ * ordered by sender and then by receiver. For symmetric latencies only the
+ * entries with receiver smaller than sender are stored. The 16-bit entries are
+ * unsigned multiples of the unit, where 0xffff stands for a broken link.
  * 
  * @author Alberto Montresor
  * @version $Revision: 1.5 $
@@ -29,18 +59,65 @@ public class RouterNetwork
   // ---------------------------------------------------------------------
   // Fields
   // ---------------------------------------------------------------------
-  /**
-   * True if latency between nodes is considered symmetric. False otherwise.
-   */
-  private static boolean symm;
-  /**
-   * Size of the router network.
-   */
-  private static int size;
-  /**
-   * Latency distances between nodes.
-   */
-  private static int[][] array;
+  /** The first four bytes of latency files: "PNLM" in ASCII */
+  private static final int FILE_MAGIC = 0x4d4c4e50;
+
+  /** The version of the latency file format */
+  private static final int FILE_VERSION = 1;
+
+  /** The size of the header of latency files, which keeps entries aligned */
+  private static final int HEADER_SIZE = 32;
+
+  /** 16-bit entry standing for a broken link */
+  private static final int BROKEN = 0xffff;
+
+  /** The size of the chunks a latency file is mapped in is 2^CHUNK_BITS */
+  private static final int CHUNK_BITS = 30;
+
+  /** The router network of a simulation */
+  private static class State
+  {
+    /**
+     * True if latency between nodes is considered symmetric. False otherwise.
+     */
+    boolean symm;
+    /**
+     * Size of the router network.
+     */
+    int size;
+    /**
+     * Latency distances between nodes.
+     */
+    int[][] array;
+
+    /**
+     * The latencies mapped from a file, in chunks of
+     * 2^{@link RouterNetwork#CHUNK_BITS} bytes, or null if they are in
+     * {@link #array}
+     */
+    ByteBuffer[] chunks;
+
+    /** The size in bytes of each mapped entry: 2 or 4 */
+    int entryBytes;
+
+    /** The latency that corresponds to 1 in mapped 16-bit entries */
+    int unit;
+
+    /**
+     * The coordinates latencies are estimated from, or null if they are
+     * stored for each pair
+     */
+    NetworkCoordinates coordinates;
+  }
+
+  /** The router network of each {@link SimulationContext} */
+  private static final SimulationContext.Key<State> STATE = new SimulationContext.Key<State>()
+  {
+    protected State create()
+    {
+      return new State();
+    }
+  };
 
 
 
@@ -65,23 +142,36 @@ public class RouterNetwork
    * @param size the number or routers
    * @param symm if latency is symmetric between all pairs of routers
    */
-  @SuppressWarnings("hiding")
   public static void reset(final int size, final boolean symm)
   {
-    RouterNetwork.symm = symm;
-    RouterNetwork.size = size;
-    array = new int[size][];
+    State state = state();
+    state.symm = symm;
+    state.size = size;
+    state.chunks = null;
+    state.coordinates = null;
+    state.array = new int[size][];
     for (int i = 0; i<size; i++)
     {
       if (symm)
-        array[i] = new int[i];
+        state.array[i] = new int[i];
       else
-        array[i] = new int[size];
+        state.array[i] = new int[size];
     }
   }
 
 
 
+  // ---------------------------------------------------------------------
+  /**
+   * Returns the router network of the current {@link SimulationContext}.
+   */
+  private static State state()
+  {
+    return SimulationContext.current().get(STATE);
+  }
+
+
+
   // ---------------------------------------------------------------------
   /**
    * Returns the latency associated to the specified (sender, receiver) pair.
@@ -95,7 +185,10 @@ public class RouterNetwork
   {
     if (sender==receiver)
       return 0;
-    if (symm)
+    State state = state();
+    if (state.coordinates!=null)
+      return state.coordinates.getLatency(sender, receiver);
+    if (state.symm)
     {
       // Symmetric network
       if (sender<receiver)
@@ -105,7 +198,28 @@ public class RouterNetwork
         receiver = tmp;
       }
     }
-    return array[sender][receiver];
+    if (state.chunks!=null)
+      return getMappedLatency(state, sender, receiver);
+    return state.array[sender][receiver];
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  /**
+   * Returns the mapped latency of a (sender, receiver) pair, already swapped
+   * if latencies are symmetric.
+   */
+  private static int getMappedLatency(State state, int sender, int receiver)
+  {
+    long index = state.symm ? (long) sender*(sender-1)/2+receiver : (long) sender*state.size+receiver;
+    long offset = index*state.entryBytes;
+    ByteBuffer chunk = state.chunks[(int) (offset>>>CHUNK_BITS)];
+    int position = (int) (offset&((1<<CHUNK_BITS)-1));
+    if (state.entryBytes==4)
+      return chunk.getInt(position);
+    int entry = chunk.getShort(position)&0xffff;
+    return entry==BROKEN ? -1 : entry*state.unit;
   }
 
 
@@ -121,7 +235,12 @@ public class RouterNetwork
    */
   public static void setLatency(int sender, int receiver, int latency)
   {
-    if (symm)
+    State state = state();
+    if (state.chunks!=null)
+      throw new UnsupportedOperationException("Latencies mapped from a file are read-only");
+    if (state.coordinates!=null)
+      throw new UnsupportedOperationException("Latencies estimated from coordinates are read-only");
+    if (state.symm)
     {
       // Symmetric network
       if (sender<receiver)
@@ -131,7 +250,169 @@ public class RouterNetwork
         receiver = tmp;
       }
     }
-    array[sender][receiver] = latency;
+    state.array[sender][receiver] = latency;
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  /**
+   * Replaces the latencies with those of the given latency file, which is
+   * memory-mapped read-only. The latencies can then be read, but not set.
+   * 
+   * @param file the name of the latency file
+   * @throws IOException if the file cannot be read, or it is not a valid
+   *           latency file
+   */
+  public static void map(String file) throws IOException
+  {
+    FileChannel fc = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+    try
+    {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      while (header.hasRemaining())
+        if (fc.read(header)<0)
+          throw new IOException(file+" is not a latency file");
+      header.flip();
+      if (header.getInt()!=FILE_MAGIC)
+        throw new IOException(file+" is not a latency file");
+      int version = header.getInt();
+      if (version!=FILE_VERSION)
+        throw new IOException(file+": unknown latency file version "+version);
+      int flags = header.getInt();
+      int routers = header.getInt();
+      int entryUnit = header.getInt();
+      int bytes = (flags&2)!=0 ? 2 : 4;
+      boolean symmetric = (flags&1)!=0;
+      long entries = symmetric ? (long) routers*(routers-1)/2 : (long) routers*routers;
+      if (routers<0||fc.size()<HEADER_SIZE+entries*bytes)
+        throw new IOException(file+" is truncated");
+
+      long length = entries*bytes;
+      ByteBuffer[] mapped = new ByteBuffer[(int) ((length>>>CHUNK_BITS)+1)];
+      for (int c = 0; c<mapped.length; c++)
+      {
+        long start = (long) c<<CHUNK_BITS;
+        long chunkLength = Math.min(length-start, 1L<<CHUNK_BITS);
+        mapped[c] = fc.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE+start, chunkLength)
+            .order(ByteOrder.LITTLE_ENDIAN);
+      }
+
+      State state = state();
+      state.symm = symmetric;
+      state.size = routers;
+      state.array = null;
+      state.coordinates = null;
+      state.chunks = mapped;
+      state.entryBytes = bytes;
+      state.unit = entryUnit;
+    }
+    finally
+    {
+      fc.close();
+    }
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  /**
+   * Replaces the latencies with those estimated from the given coordinates.
+   * The latencies can then be read, but not set.
+   */
+  public static void setCoordinates(NetworkCoordinates coordinates)
+  {
+    State state = state();
+    state.symm = true;
+    state.size = coordinates.size();
+    state.array = null;
+    state.chunks = null;
+    state.coordinates = coordinates;
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  /**
+   * Saves the current latencies to a latency file, to be loaded later by
+   * {@link #map}. With 16-bit entries, each latency is rounded to the
+   * nearest multiple of the unit, and negative latencies become broken links.
+   * The file is written to a temporary file in the same directory, which then
+   * replaces it atomically, so that other runs that have the old file mapped
+   * keep reading it unchanged.
+   * 
+   * @param file the name of the latency file
+   * @param bits the size of each entry, 16 or 32 bits
+   * @param unit the unit of 16-bit entries; if 0, the smallest one for
+   *          which the largest latency fits
+   * @throws IOException if the file cannot be written
+   */
+  public static void save(String file, int bits, int unit) throws IOException
+  {
+    State state = state();
+    final int size = state.size;
+    final boolean symm = state.symm;
+    if (bits!=16&&bits!=32)
+      throw new IllegalArgumentException("Entries must be 16 or 32 bits, not "+bits);
+    if (bits==16&&unit<=0)
+    {
+      int max = 0;
+      for (int i = 0; i<size; i++)
+        for (int j = 0; j<(symm ? i : size); j++)
+          max = Math.max(max, getLatency(i, j));
+      unit = Math.max(1, (max+BROKEN-2)/(BROKEN-1));
+    }
+    else if (bits==32)
+      unit = 1;
+
+    Path target = Paths.get(file).toAbsolutePath();
+    Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+    FileChannel fc = FileChannel.open(tmp, StandardOpenOption.WRITE);
+    try
+    {
+      fc.position(HEADER_SIZE);
+      ByteBuffer buffer = ByteBuffer.allocate(1<<16).order(ByteOrder.LITTLE_ENDIAN);
+      for (int i = 0; i<size; i++)
+      {
+        for (int j = 0; j<(symm ? i : size); j++)
+        {
+          if (buffer.remaining()<4)
+          {
+            buffer.flip();
+            while (buffer.hasRemaining())
+              fc.write(buffer);
+            buffer.clear();
+          }
+          int latency = getLatency(i, j);
+          if (bits==32)
+            buffer.putInt(latency);
+          else
+          {
+            int entry = latency<0 ? BROKEN : Math.min((int) ((latency+unit/2L)/unit), BROKEN-1);
+            buffer.putShort((short) entry);
+          }
+        }
+      }
+      buffer.flip();
+      while (buffer.hasRemaining())
+        fc.write(buffer);
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(FILE_MAGIC).putInt(FILE_VERSION);
+      header.putInt((symm ? 1 : 0)|(bits==16 ? 2 : 0));
+      header.putInt(size).putInt(unit);
+      header.clear();
+      fc.position(0);
+      while (header.hasRemaining())
+        fc.write(header);
+      fc.close();
+      Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    finally
+    {
+      fc.close();
+      Files.deleteIfExists(tmp);
+    }
   }
 
 
@@ -143,6 +424,6 @@ public class RouterNetwork
    */
   public static int getSize()
   {
-    return size;
+    return state().size;
   }
 }
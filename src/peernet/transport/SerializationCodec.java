@@ -0,0 +1,129 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+
+
+
+
+/**
+ * Codec encoding payloads by standard Java serialization. It supports any
+ * {@link java.io.Serializable} payload, at the cost of speed and size. The
+ * serialization streams read and write the buffer directly.
+ */
+public class SerializationCodec implements Codec
+{
+  public SerializationCodec(String prefix)
+  {
+  }
+
+
+
+  public void encode(int pid, Object payload, ByteBuffer buffer) throws IOException
+  {
+    buffer.putInt(pid);
+    writeObject(payload, buffer);
+  }
+
+
+
+  public Packet decode(Address src, ByteBuffer buffer) throws IOException, ClassNotFoundException
+  {
+    if (buffer.remaining()<4)
+      throw new IOException("Truncated message");
+    int pid = buffer.getInt();
+    return new Packet(src, pid, readObject(buffer));
+  }
+
+
+
+  /**
+   * Serializes an object into the buffer.
+   */
+  static void writeObject(Object object, ByteBuffer buffer) throws IOException
+  {
+    ObjectOutputStream out = new ObjectOutputStream(new BufferOutputStream(buffer));
+    out.writeObject(object);
+    out.flush();
+  }
+
+
+
+  /**
+   * Deserializes an object from the buffer.
+   */
+  static Object readObject(ByteBuffer buffer) throws IOException, ClassNotFoundException
+  {
+    return new ObjectInputStream(new BufferInputStream(buffer)).readObject();
+  }
+
+
+
+  /**
+   * Output stream writing into a buffer.
+   */
+  private static class BufferOutputStream extends OutputStream
+  {
+    private final ByteBuffer buffer;
+
+    BufferOutputStream(ByteBuffer buffer)
+    {
+      this.buffer = buffer;
+    }
+
+    public void write(int b)
+    {
+      buffer.put((byte) b);
+    }
+
+    public void write(byte[] b, int off, int len)
+    {
+      buffer.put(b, off, len);
+    }
+  }
+
+
+
+  /**
+   * Input stream reading from a buffer.
+   */
+  private static class BufferInputStream extends InputStream
+  {
+    private final ByteBuffer buffer;
+
+    BufferInputStream(ByteBuffer buffer)
+    {
+      this.buffer = buffer;
+    }
+
+    public int read()
+    {
+      return buffer.hasRemaining() ? buffer.get()&0xff : -1;
+    }
+
+    public int read(byte[] b, int off, int len)
+    {
+      if (len==0)
+        return 0;
+      if (!buffer.hasRemaining())
+        return -1;
+      len = Math.min(len, buffer.remaining());
+      buffer.get(b, off, len);
+      return len;
+    }
+
+    public int available()
+    {
+      return buffer.remaining();
+    }
+  }
+}
@@ -0,0 +1,438 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.transport;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+
+/**
+ * Scans latency traces made of lines with two router numbers and a latency,
+ * such as those of {@link KingParser} and {@link MeridianParser}, in a single
+ * pass. The file is memory-mapped and split into chunks, which are parsed in
+ * parallel, on the common fork-join pool, by a scanner that works on the
+ * bytes directly. The parsed lines are still passed on in the order of the
+ * file, so that when a pair of routers appears more than once, the last line
+ * wins, whatever the chunks. Numbers may be separated by spaces, tabs or
+ * commas; empty lines are skipped.
+ * <p>
+ * It also keeps the latencies parsed from a trace in a sidecar latency file,
+ * next to the trace, which later runs map instead of parsing the trace again.
+ */
+class TraceScanner
+{
+  /**
+   * Receives the latencies parsed from a trace, in the order of the lines.
+   */
+  interface Sink
+  {
+    /**
+     * Called for each line, with the router numbers as they appear in the
+     * file.
+     */
+    void latency(int n1, int n2, double latency);
+  }
+
+
+
+  /** The size of the chunks parsed in parallel */
+  private static final int CHUNK_SIZE = 1<<22;
+
+  /**
+   * The number of chunks parsed ahead of the one being passed on, per thread
+   * of the pool, which bounds the parsed lines held in memory
+   */
+  private static final int CHUNKS_AHEAD = 2;
+
+  /** The longest line allowed */
+  private static final int MAX_LINE = 1<<12;
+
+  /** Powers of ten that are exact doubles */
+  private static final double[] POWERS = new double[23];
+
+  static
+  {
+    POWERS[0] = 1;
+    for (int i = 1; i<POWERS.length; i++)
+      POWERS[i] = POWERS[i-1]*10;
+  }
+
+  private final String filename;
+
+  private final FileChannel fc;
+
+  private final long size;
+
+
+
+  // ---------------------------------------------------------------------
+  // Initialization
+  // ---------------------------------------------------------------------
+  /**
+   * Opens the given trace file. It must be closed by {@link #close}.
+   */
+  TraceScanner(String filename) throws IOException
+  {
+    this.filename = filename;
+    fc = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+    size = fc.size();
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  // Methods
+  // ---------------------------------------------------------------------
+  void close() throws IOException
+  {
+    fc.close();
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  /**
+   * Counts the lines that start with the given prefix, which must follow one
+   * another, after any number of other lines at the beginning of the file.
+   * Returns the count in the first element of the given array, and the
+   * position of the line following them in the second.
+   */
+  void countLines(String prefix, long[] result) throws IOException
+  {
+    final byte[] p = prefix.getBytes("US-ASCII");
+    long count = 0;
+    long position = 0;
+    boolean started = false;
+    MappedByteBuffer buffer = null;
+    long bufferStart = 0;
+    while (position<size)
+    {
+      if (buffer==null||position+MAX_LINE>bufferStart+buffer.limit()&&bufferStart+buffer.limit()<size)
+      {
+        bufferStart = position;
+        buffer = fc.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size-position, CHUNK_SIZE+MAX_LINE));
+      }
+      int i = (int) (position-bufferStart);
+      boolean match = buffer.limit()-i>=p.length;
+      for (int k = 0; match&&k<p.length; k++)
+        match = buffer.get(i+k)==p[k];
+      if (match)
+      {
+        started = true;
+        count++;
+      }
+      else if (started)
+        break;
+      while (i<buffer.limit()&&buffer.get(i)!='\n')
+        i++;
+      if (i==buffer.limit()&&bufferStart+i<size)
+        throw new IOException(filename+": line longer than "+MAX_LINE+" bytes at byte "+position);
+      position = bufferStart+i+1;
+    }
+    result[0] = count;
+    result[1] = Math.min(position, size);
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  /**
+   * Parses the lines from the given position to the end of the file, and
+   * passes the latencies to the sink, in the order of the lines. The chunks
+   * are parsed in parallel, a bounded number ahead, while the sink is called
+   * by the calling thread only.
+   *
+   * @throws IOException if a line does not contain three numbers
+   */
+  void scan(final long from, Sink sink) throws IOException
+  {
+    final int chunks = (int) ((size-from+CHUNK_SIZE-1)/CHUNK_SIZE);
+    class Task extends RecursiveTask<Lines>
+    {
+      private static final long serialVersionUID = 1L;
+      final int chunk;
+
+      Task(int chunk)
+      {
+        this.chunk = chunk;
+      }
+
+      protected Lines compute()
+      {
+        Lines lines = new Lines();
+        try
+        {
+          scanChunk(from+(long) chunk*CHUNK_SIZE, lines);
+        }
+        catch (IOException e)
+        {
+          lines.error = e;
+        }
+        return lines;
+      }
+    }
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    int ahead = CHUNKS_AHEAD*pool.getParallelism();
+    Task[] tasks = new Task[chunks];
+    int submitted = 0;
+    try
+    {
+      for (int k = 0; k<chunks; k++)
+      {
+        for (; submitted<chunks&&submitted<=k+ahead; submitted++)
+          pool.execute(tasks[submitted] = new Task(submitted));
+        Lines lines = tasks[k].join();
+        tasks[k] = null;
+        lines.replay(sink);
+      }
+    }
+    finally
+    {
+      for (int k = 0; k<submitted; k++)
+        if (tasks[k]!=null)
+          tasks[k].cancel(false);
+    }
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  /**
+   * Parses the lines that start within the chunk at the given position. A
+   * line that starts in the previous chunk belongs to it.
+   */
+  private void scanChunk(long start, Sink sink) throws IOException
+  {
+    long end = Math.min(start+CHUNK_SIZE, size);
+    // Map one byte before the chunk, to tell whether it starts a line
+    long mapStart = start>0 ? start-1 : 0;
+    long mapEnd = Math.min(end+MAX_LINE, size);
+    MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd-mapStart);
+    final int limit = buffer.limit();
+    final int chunkEnd = (int) (end-mapStart);
+    int i = (int) (start-mapStart);
+    if (start>0&&buffer.get(i-1)!='\n')
+    {
+      while (i<limit&&buffer.get(i)!='\n')
+        i++;
+      i++;
+    }
+
+    int[] pos = new int[1];
+    while (i<chunkEnd)
+    {
+      int lineEnd = i;
+      while (lineEnd<limit&&buffer.get(lineEnd)!='\n')
+        lineEnd++;
+      if (lineEnd==limit&&mapEnd<size)
+        throw new IOException(filename+": line longer than "+MAX_LINE+" bytes at byte "+(mapStart+i));
+
+      pos[0] = i;
+      if (skipSeparators(buffer, pos, lineEnd)<lineEnd)
+      {
+        long lineStart = mapStart+i;
+        int n1 = (int) parseNumber(buffer, pos, lineEnd, lineStart);
+        skipSeparators(buffer, pos, lineEnd);
+        int n2 = (int) parseNumber(buffer, pos, lineEnd, lineStart);
+        skipSeparators(buffer, pos, lineEnd);
+        double latency = parseNumber(buffer, pos, lineEnd, lineStart);
+        sink.latency(n1, n2, latency);
+      }
+      i = lineEnd+1;
+    }
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  /**
+   * The lines parsed from a chunk, kept until those of the previous chunks
+   * have been passed on.
+   */
+  private static class Lines implements Sink
+  {
+    private int[] n1 = new int[1024];
+    private int[] n2 = new int[1024];
+    private double[] latency = new double[1024];
+    private int count = 0;
+
+    /** The error that ended the parsing of the chunk, if any */
+    IOException error = null;
+
+    public void latency(int n1, int n2, double latency)
+    {
+      if (count==this.n1.length)
+      {
+        this.n1 = Arrays.copyOf(this.n1, 2*count);
+        this.n2 = Arrays.copyOf(this.n2, 2*count);
+        this.latency = Arrays.copyOf(this.latency, 2*count);
+      }
+      this.n1[count] = n1;
+      this.n2[count] = n2;
+      this.latency[count++] = latency;
+    }
+
+    /**
+     * Passes the lines on to the given sink, and then throws the error of the
+     * chunk, if any, as it occurred after them.
+     */
+    void replay(Sink sink) throws IOException
+    {
+      for (int i = 0; i<count; i++)
+        sink.latency(n1[i], n2[i], latency[i]);
+      if (error!=null)
+        throw error;
+    }
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  /**
+   * Advances pos[0] past spaces, tabs, commas and carriage returns, and
+   * returns it.
+   */
+  private static int skipSeparators(MappedByteBuffer buffer, int[] pos, int end)
+  {
+    int i = pos[0];
+    while (i<end)
+    {
+      byte b = buffer.get(i);
+      if (b!=' '&&b!='\t'&&b!=','&&b!='\r')
+        break;
+      i++;
+    }
+    return pos[0] = i;
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  /**
+   * Parses the decimal number at pos[0], and advances pos[0] past it. The
+   * result is the same as that of {@link Double#parseDouble}, which is used
+   * for numbers with exponents or too many digits.
+   */
+  private double parseNumber(MappedByteBuffer buffer, int[] pos, int end, long lineStart) throws IOException
+  {
+    final int start = pos[0];
+    int i = start;
+    boolean negative = false;
+    if (i<end&&(buffer.get(i)=='-'||buffer.get(i)=='+'))
+      negative = buffer.get(i++)=='-';
+    long mantissa = 0;
+    int digits = 0;
+    int decimals = 0;
+    boolean point = false;
+    boolean simple = true;
+    for (; i<end; i++)
+    {
+      byte b = buffer.get(i);
+      if (b>='0'&&b<='9')
+      {
+        if (mantissa<(1L<<53)/10)
+        {
+          mantissa = mantissa*10+(b-'0');
+          if (point)
+            decimals++;
+        }
+        else
+          simple = false;
+        digits++;
+      }
+      else if (b=='.'&&!point)
+        point = true;
+      else if (b=='e'||b=='E'||b=='-'||b=='+')
+        simple = false;
+      else
+        break;
+    }
+    pos[0] = i;
+    if (digits==0)
+      throw new IOException(filename+": number expected in the line at byte "+lineStart);
+    if (simple&&decimals<POWERS.length)
+    {
+      // Both are exact, so the division is correctly rounded
+      double value = mantissa/POWERS[decimals];
+      return negative ? -value : value;
+    }
+    byte[] text = new byte[i-start];
+    for (int k = 0; k<text.length; k++)
+      text[k] = buffer.get(start+k);
+    try
+    {
+      return Double.parseDouble(new String(text, "US-ASCII"));
+    }
+    catch (NumberFormatException e)
+    {
+      throw new IOException(filename+": invalid number in the line at byte "+lineStart);
+    }
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  /**
+   * Returns the name of the sidecar latency file of a trace, which depends
+   * on the given key, made of the parameters that affect the latencies.
+   */
+  static String sidecar(String filename, String key)
+  {
+    return filename+"."+key+".lat";
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  /**
+   * Maps the given sidecar file into {@link RouterNetwork}, if it exists and
+   * it is newer than the trace. Returns true if it did.
+   */
+  static boolean mapSidecar(String sidecar, String filename)
+  {
+    File cache = new File(sidecar);
+    if (!cache.isFile()||cache.lastModified()<new File(filename).lastModified())
+      return false;
+    try
+    {
+      RouterNetwork.map(sidecar);
+      return true;
+    }
+    catch (IOException e)
+    {
+      System.err.println("Ignoring "+sidecar+": "+e.getMessage());
+      return false;
+    }
+  }
+
+
+
+  // ---------------------------------------------------------------------
+  /**
+   * Saves the latencies of {@link RouterNetwork} to the given sidecar file.
+   * Failing to is not an error, since the trace can always be parsed again.
+   * The sidecar is replaced atomically (see {@link RouterNetwork#save}), so
+   * runs that have it mapped, or map it meanwhile, see either the old or the
+   * new file in full.
+   */
+  static void saveSidecar(String sidecar)
+  {
+    try
+    {
+      RouterNetwork.save(sidecar, 32, 1);
+    }
+    catch (IOException e)
+    {
+      System.err.println("Could not save "+sidecar+": "+e.getMessage());
+    }
+  }
+}
@@ -10,6 +10,7 @@ import peernet.config.Configuration;
 import peernet.core.Engine;
 import peernet.core.Node;
 import peernet.core.EngineAgent;
+import peernet.core.SimulationContext;
 
 
 
@@ -39,7 +40,21 @@ public abstract class Transport extends EngineAgent implements Cloneable
   private static final String defaultTransportSim = "peernet.transport.UniformRandomTransport";
   private static final String defaultTransportEmu = "peernet.transport.UniformRandomTransport";
   private static final String defaultTransportNet = "peernet.transport.TransportUDP";
-  private static Transport defaultTransportInstance = null;
+
+  /** The default transport of a simulation */
+  private static class State
+  {
+    Transport defaultTransportInstance = null;
+  }
+
+  /** The default transport of each {@link SimulationContext} */
+  private static final SimulationContext.Key<State> STATE = new SimulationContext.Key<State>()
+  {
+    protected State create()
+    {
+      return new State();
+    }
+  };
 
 
 
@@ -72,6 +87,19 @@ public abstract class Transport extends EngineAgent implements Cloneable
 
 
 
+  /**
+   * Returns a lower bound on the delay of any message sent through this
+   * transport. It is used as lookahead by the parallel simulation engine,
+   * which can process concurrently all events that fall within this delay.
+   * Defaults to 0, that is, no guarantee.
+   */
+  public long minDelay()
+  {
+    return 0;
+  }
+
+
+
   public Object clone()
   {
     Transport transport = null;
@@ -90,11 +118,12 @@ public abstract class Transport extends EngineAgent implements Cloneable
 
   public static Transport defaultTransportInstance()
   {
-    if (defaultTransportInstance == null)
+    State state = SimulationContext.current().get(STATE);
+    if (state.defaultTransportInstance == null)
     {
       String key = Engine.getType().toString().toLowerCase() + "." + PAR_TRANSPORT;
       if (Configuration.contains(key))
-        defaultTransportInstance = (Transport) Configuration.getInstance(key);
+        state.defaultTransportInstance = (Transport) Configuration.getInstance(key);
       else // no default transport defined ==> use the absolutely default one
         switch (Engine.getType())
         {
@@ -107,6 +136,6 @@ public abstract class Transport extends EngineAgent implements Cloneable
             break;
         }
     }
-    return defaultTransportInstance;
+    return state.defaultTransportInstance;
   }
 }
@@ -49,6 +49,21 @@ public class TransportEmu extends Transport
 
 
 
+  /**
+   * Returns twice the local delay. Nodes are mapped to routers by their ID
+   * modulo the number of routers, and the IDs of nodes added during the run
+   * keep growing, so any two nodes may end up sharing a router, with no router
+   * latency between them. If the network is known to stay within the routers,
+   * a larger lookahead can be configured explicitly.
+   */
+  @Override
+  public long minDelay()
+  {
+    return local*2;
+  }
+
+
+
   @Override
   public Object clone()
   {
@@ -0,0 +1,275 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package peernet.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import peernet.config.Configuration;
+import peernet.config.IllegalParameterException;
+import peernet.core.Node;
+
+
+
+
+
+/**
+ * UDP transport for NET mode, serving the sockets of all nodes of the JVM from
+ * a few selector threads, instead of a listening thread per node. Each node
+ * still binds its own port, as with {@link TransportUDP}, so addresses are
+ * unaffected, but its channel is non-blocking and registered with one of
+ * {@value #PAR_SELECTORS} selectors, assigned round-robin. Each selector thread
+ * drains the datagrams of its ready channels into a single, reused direct
+ * buffer, decodes them, and hands them to the engine.
+ */
+public class TransportNIO extends TransportUDP
+{
+  /**
+   * The number of selector threads. Defaults to 1.
+   *
+   * @config
+   */
+  private static final String PAR_SELECTORS = "selectors";
+
+  /** The selector threads, shared by all clones */
+  private final SelectorThread[] selectors;
+
+  /** Round-robin counter for assigning nodes to selectors, shared by all clones */
+  private final AtomicInteger nextSelector = new AtomicInteger();
+
+
+
+  public TransportNIO(String prefix)
+  {
+    super(prefix);
+    int count = Configuration.getInt(prefix+"."+PAR_SELECTORS, 1);
+    if (count<1)
+      throw new IllegalParameterException(prefix+"."+PAR_SELECTORS, "At least one selector is needed");
+    selectors = new SelectorThread[count];
+  }
+
+
+
+  /**
+   * Registers the node's channel with the next selector. A node whose channel
+   * could not be bound is reported and not registered, so it receives nothing.
+   */
+  @Override
+  public boolean listen(Node node, Receiver receiver)
+  {
+    if (channel==null)
+    {
+      System.err.println("TransportNIO: no port could be bound for node "+node.getID()+", it will not receive");
+      return true;
+    }
+    int i = Math.floorMod(nextSelector.getAndIncrement(), selectors.length);
+    SelectorThread selector;
+    synchronized (selectors)
+    {
+      if (selectors[i]==null)
+      {
+        selectors[i] = new SelectorThread(i);
+        selectors[i].start();
+      }
+      selector = selectors[i];
+    }
+    selector.register(new Registration(channel, node, receiver, this));
+    return true;
+  }
+
+
+
+  /**
+   * Not supported: packets are delivered by the selector threads.
+   */
+  @Override
+  public Packet receive()
+  {
+    throw new UnsupportedOperationException("TransportNIO delivers packets through listen()");
+  }
+
+
+
+  @Override
+  public Object clone()
+  {
+    TransportNIO trans = (TransportNIO) super.clone();
+    try
+    {
+      if (trans.channel!=null)
+        trans.channel.configureBlocking(false);
+    }
+    catch (IOException e)
+    {
+      e.printStackTrace();
+      System.exit(-1);
+    }
+    return trans;
+  }
+
+
+
+  /**
+   * A node's channel, and where its packets go.
+   */
+  private static class Registration
+  {
+    final DatagramChannel channel;
+    final Node node;
+    final Receiver receiver;
+    final TransportNIO transport;
+
+    Registration(DatagramChannel channel, Node node, Receiver receiver, TransportNIO transport)
+    {
+      this.channel = channel;
+      this.node = node;
+      this.receiver = receiver;
+      this.transport = transport;
+    }
+  }
+
+
+
+  /**
+   * Thread receiving the datagrams of the channels registered with its
+   * selector.
+   */
+  private static class SelectorThread extends Thread
+  {
+    private final Selector selector;
+
+    /** Channels to register, as registration has to be done by this thread */
+    private final ConcurrentLinkedQueue<Registration> pending = new ConcurrentLinkedQueue<Registration>();
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BufferPool.SIZE);
+
+    /** Maximum number of datagrams received from a channel in a row */
+    private static final int BATCH = 64;
+
+    SelectorThread(int index)
+    {
+      super("nio-selector-"+index);
+      setDaemon(true);
+      try
+      {
+        selector = Selector.open();
+      }
+      catch (IOException e)
+      {
+        throw new RuntimeException(e);
+      }
+    }
+
+    void register(Registration registration)
+    {
+      pending.add(registration);
+      selector.wakeup();
+    }
+
+    public void run()
+    {
+      while (true)
+      {
+        try
+        {
+          selector.select();
+
+          Registration registration;
+          while ((registration = pending.poll())!=null)
+          {
+            try
+            {
+              registration.channel.register(selector, SelectionKey.OP_READ, registration);
+            }
+            catch (ClosedChannelException e)
+            {
+              e.printStackTrace();
+            }
+            catch (RuntimeException e) // a bad registration must not stop the other channels
+            {
+              e.printStackTrace();
+            }
+          }
+
+          Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+          while (keys.hasNext())
+          {
+            SelectionKey key = keys.next();
+            keys.remove();
+            try
+            {
+              drain((Registration) key.attachment());
+            }
+            catch (IOException e) // failure of a single channel
+            {
+              e.printStackTrace();
+            }
+            catch (RuntimeException e)
+            {
+              e.printStackTrace();
+            }
+          }
+        }
+        catch (IOException e)
+        {
+          e.printStackTrace();
+          System.exit(-1);
+        }
+      }
+    }
+
+    /**
+     * Receives the datagrams waiting on a channel, up to {@value #BATCH}, so
+     * that a flooded channel does not starve the others. The selector reports
+     * the channel again if more are left.
+     */
+    private void drain(Registration registration) throws IOException
+    {
+      for (int i = 0; i<BATCH; i++)
+      {
+        buffer.clear();
+        InetSocketAddress from = (InetSocketAddress) registration.channel.receive(buffer);
+        if (from==null)
+          return;
+        buffer.flip();
+        AddressNet src = new AddressNet(from.getAddress(), from.getPort());
+        if (Coalescer.isBatch(buffer))
+        {
+          ByteBuffer message;
+          while ((message = Coalescer.nextMessage(buffer))!=null)
+            deliver(registration, src, message);
+        }
+        else
+          deliver(registration, src, buffer);
+      }
+    }
+
+    /**
+     * Decodes a message and hands it to the engine. A runtime exception drops
+     * the message only, as this thread serves the channels of other nodes too.
+     */
+    private void deliver(Registration registration, AddressNet src, ByteBuffer message)
+    {
+      try
+      {
+        Packet packet = registration.transport.decode(src, message);
+        if (packet!=null)
+          registration.receiver.receive(registration.node, packet);
+      }
+      catch (RuntimeException e)
+      {
+        e.printStackTrace();
+      }
+    }
+  }
+}
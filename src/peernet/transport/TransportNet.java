@@ -5,12 +5,38 @@ package peernet.transport;
 
 import java.net.InetAddress;
 
+import peernet.config.Configuration;
+import peernet.core.Node;
+
 
 
 
 
 public abstract class TransportNet extends Transport
 {
+  /**
+   * The {@link Codec} class encoding messages into datagrams. Defaults to
+   * {@link BinaryCodec}. Use {@link SerializationCodec} for plain Java
+   * serialization.
+   * 
+   * @config
+   */
+  private static final String PAR_CODEC = "codec";
+
+  /**
+   * The codec of this transport, shared by all its clones.
+   */
+  protected Codec codec;
+
+
+
+  public TransportNet(String prefix)
+  {
+    codec = (Codec) Configuration.getInstance(prefix+"."+PAR_CODEC, new BinaryCodec(prefix+"."+PAR_CODEC));
+  }
+
+
+
   /**
    * Returns the IP address where this Transport is listening to.
    */
@@ -25,6 +51,33 @@ public abstract class TransportNet extends Transport
 
 
 
+  /**
+   * Receives packets on behalf of the engine, for transports that listen by
+   * themselves (see {@link TransportNet#listen}).
+   */
+  public interface Receiver
+  {
+    /**
+     * Called for each packet received for a node. It must not block.
+     */
+    public void receive(Node node, Packet packet);
+  }
+
+
+
+  /**
+   * Starts delivering the packets received by this transport for the given
+   * node to the receiver, from threads of the transport's own. Transports that
+   * do not do so return false, and the engine then calls {@link #receive} from
+   * a dedicated thread. This default implementation returns false.
+   */
+  public boolean listen(Node node, Receiver receiver)
+  {
+    return false;
+  }
+
+
+
   /**
    * Waits (i.e., blocks) for the next packet from the network,
    * marshals it, and returns it as a Packet.
@@ -3,16 +3,13 @@
  */
 package peernet.transport;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 
 import peernet.config.Configuration;
 import peernet.core.Node;
@@ -21,6 +18,16 @@ import peernet.core.Node;
 
 
 
+/**
+ * UDP transport for NET mode. Each node clone binds its own blocking datagram
+ * channel. Messages are encoded by the transport's {@link Codec} into pooled
+ * direct buffers, and decoded straight from a direct receive buffer.
+ * <p>
+ * Optionally, messages to the same destination are coalesced into datagrams
+ * of up to {@value #PAR_MTU} bytes, delayed by at most {@value #PAR_BATCH}
+ * milliseconds (see {@link Coalescer}). Batched datagrams are understood by
+ * all receivers, whether they batch or not.
+ */
 public class TransportUDP extends TransportNet
 {
   /**
@@ -29,12 +36,38 @@ public class TransportUDP extends TransportNet
   private static final String PAR_PORT = "port";
 
   /**
-   * Stores the UDP socket used by this Transport. Note that each node
-   * running on a single JVM uses its own exclusive socket.
+   * The latency budget of message coalescing, in milliseconds. If positive,
+   * messages to the same destination sent within this time are coalesced into
+   * one datagram. Defaults to 0, which sends each message immediately.
+   *
+   * @config
+   */
+  private static final String PAR_BATCH = "batch";
+
+  /**
+   * The maximum size of a coalesced datagram. Defaults to 1472, the UDP
+   * payload of an Ethernet frame.
+   *
+   * @config
+   */
+  private static final String PAR_MTU = "mtu";
+
+  /**
+   * Stores the UDP channel used by this Transport. Note that each node
+   * running on a single JVM uses its own exclusive channel.
    */
-  private DatagramSocket socket = null;
-  private DatagramPacket dgram = null;
-  private byte[] recvBuffer = null;
+  protected DatagramChannel channel = null;
+  /** Receive buffer, allocated on the first {@link #receive} */
+  private ByteBuffer recvBuffer = null;
+
+  /** Source of the batch datagram being read by {@link #receive}, or null */
+  private AddressNet batchSrc = null;
+
+  private final long batch;
+  private final int mtu;
+
+  /** The coalescer of this clone, or null if coalescing is off */
+  private Coalescer coalescer = null;
 
   /**
    * The next available port to try to bind to. Define as object rather than
@@ -49,33 +82,51 @@ public class TransportUDP extends TransportNet
    */
   public TransportUDP(String prefix)
   {
+    super(prefix);
     initPort = Configuration.getInt(prefix+"."+PAR_PORT, -1);
     if (initPort != -1)
       nextPort = initPort;
-
-    recvBuffer = new byte[65536]; //TODO: parameterize
+    batch = Configuration.getLong(prefix+"."+PAR_BATCH, 0);
+    mtu = Configuration.getInt(prefix+"."+PAR_MTU, 1472);
   }
 
 
 
   public void send(Node src, Address dest, int pid, Object payload)
   {
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    ObjectOutputStream oos;
+    ByteBuffer buffer = BufferPool.acquire();
     try
     {
-      oos = new ObjectOutputStream(baos);
-      oos.writeObject(pid);
-      oos.writeObject(payload);
-      DatagramPacket datagramPacket = new DatagramPacket(baos.toByteArray(),
-          baos.size(), ((AddressNet) dest).ip, ((AddressNet) dest).port);
-      socket.send(datagramPacket);
+      codec.encode(pid, payload, buffer);
+      buffer.flip();
+      if (coalescer!=null)
+        coalescer.send(buffer, ((AddressNet) dest).getSocketAddress());
+      else
+        transmit(buffer, ((AddressNet) dest).getSocketAddress());
     }
     catch (IOException e)
     {
       // No problem failing to send a packet.
       // It is most likely due to full networks buffers.
     }
+    catch (BufferOverflowException e)
+    {
+      // Too large for a datagram: dropped, as the network would do.
+    }
+    finally
+    {
+      BufferPool.release(buffer);
+    }
+  }
+
+
+
+  /**
+   * Sends a datagram.
+   */
+  void transmit(ByteBuffer datagram, InetSocketAddress dest) throws IOException
+  {
+    channel.send(datagram, dest);
   }
 
 
@@ -83,42 +134,86 @@ public class TransportUDP extends TransportNet
   @Override
   public Packet receive()
   {
-    try
+    while (true)
     {
-      // First, wait for a packet to be received.
-      socket.receive(dgram);
-      ByteArrayInputStream bais = new ByteArrayInputStream(dgram.getData());
-      ObjectInputStream ois = new ObjectInputStream(bais);
-      AddressNet srcAddr = new AddressNet(dgram.getAddress(), dgram.getPort());
-      int pid = (Integer) ois.readObject();
-      Object event = ois.readObject();
+      try
+      {
+        // Return the remaining messages of a batch first
+        if (batchSrc!=null)
+        {
+          ByteBuffer message = Coalescer.nextMessage(recvBuffer);
+          if (message!=null)
+          {
+            Packet packet = decode(batchSrc, message);
+            if (packet!=null)
+              return packet;
+            continue;
+          }
+          batchSrc = null;
+        }
+
+        // Then, wait for a packet to be received.
+        if (recvBuffer==null)
+          recvBuffer = ByteBuffer.allocateDirect(BufferPool.SIZE);
+        recvBuffer.clear();
+        InetSocketAddress from = (InetSocketAddress) channel.receive(recvBuffer);
+        recvBuffer.flip();
+        AddressNet srcAddr = new AddressNet(from.getAddress(), from.getPort());
+        if (Coalescer.isBatch(recvBuffer))
+        {
+          batchSrc = srcAddr;
+          continue;
+        }
+        Packet packet = decode(srcAddr, recvBuffer);
+        if (packet==null)
+          continue;
+
+        assert packet.event!=null : "TransportUDP.receive().event is null!";
 
-      assert srcAddr!=null : "TransportUDP.receive().srcAddr is null!";
-      assert event!=null : "TransportUDP.receive().event is null!";
+        return packet;
+      }
+      catch (IOException e)
+      {
+        try
+        {
+          System.out.println("myhost="+InetAddress.getLocalHost().getHostName());
+        }
+        catch (UnknownHostException e1)
+        {
+          // TODO Auto-generated catch block
+          e1.printStackTrace();
+        }
+        e.printStackTrace();
+        System.exit(-1);
+      }
+    }
+  }
 
-      Packet packet = new Packet(srcAddr, pid, event);
 
-      assert packet!=null : "TransportUDP.receive().packet is null!";
 
-      return packet;
+  /**
+   * Decodes a message, or returns null if it is malformed. Runtime exceptions
+   * of the codec, or of the constructor of a decoded message, are treated as
+   * malformed messages too, so that a bad datagram never stops the thread
+   * receiving it.
+   */
+  Packet decode(AddressNet src, ByteBuffer message)
+  {
+    try
+    {
+      return codec.decode(src, message);
+    }
+    catch (IOException e)
+    {
+      e.printStackTrace();
     }
     catch (ClassNotFoundException e)
     {
       e.printStackTrace();
     }
-    catch (IOException e)
+    catch (RuntimeException e)
     {
-      try
-      {
-        System.out.println("myhost="+InetAddress.getLocalHost().getHostName());
-      }
-      catch (UnknownHostException e1)
-      {
-        // TODO Auto-generated catch block
-        e1.printStackTrace();
-      }
       e.printStackTrace();
-      System.exit(-1);
     }
     return null;
   }
@@ -127,8 +222,8 @@ public class TransportUDP extends TransportNet
 
   public InetAddress getAddress()
   {
-    if (socket!=null)
-      return socket.getInetAddress();
+    if (channel!=null)
+      return channel.socket().getInetAddress();
     else
       return null;
   }
@@ -137,57 +232,70 @@ public class TransportUDP extends TransportNet
 
   public int getPort()
   {
-    if (socket!=null)
-      return socket.getLocalPort();
+    if (channel!=null)
+      return channel.socket().getLocalPort();
     else
       return -1;
   }
 
 
 
-  private DatagramSocket bindNextLocalPort()
+  private DatagramChannel bindNextLocalPort()
   {
     @SuppressWarnings("hiding")
-    DatagramSocket socket = null;
+    DatagramChannel channel = null;
 
     synchronized (nextPort)
     {
       if (initPort<0)
-      {
-        try
-        {
-          socket = new DatagramSocket();
-          //socket.setReuseAddress(true); // TODO: should I use REUSEADDR?
-        }
-        catch (SocketException e)
-        {
-          socket = null;
-        }
-      }
+        channel = bind(0);
       else
       {
-        while (socket==null)
+        while ((channel = bind(nextPort))==null)
         {
-          try
-          {
-            socket = new DatagramSocket(nextPort);
-            //socket.setReuseAddress(true); // TODO: should I use REUSEADDR?
-          }
-          catch (SocketException e)
-          {
-            nextPort++;
-            if (nextPort == 65536)
-              nextPort = 1024;
-            if (nextPort == initPort)
-              return null;
-          }
+          nextPort++;
+          if (nextPort == 65536)
+            nextPort = 1024;
+          if (nextPort == initPort)
+            return null;
         }
         nextPort++;
         if (nextPort == 65536)
           nextPort = 1024;
       }
     }
-    return socket;
+    return channel;
+  }
+
+
+
+  /**
+   * Opens a blocking channel bound to the given port (any port, if 0), or
+   * returns null if binding fails.
+   */
+  private static DatagramChannel bind(int port)
+  {
+    DatagramChannel channel = null;
+    try
+    {
+      channel = DatagramChannel.open();
+      //channel.socket().setReuseAddress(true); // TODO: should I use REUSEADDR?
+      channel.bind(new InetSocketAddress(port));
+      return channel;
+    }
+    catch (IOException e)
+    {
+      try
+      {
+        if (channel!=null)
+          channel.close();
+      }
+      catch (IOException e1)
+      {
+        // nothing left to do
+      }
+      return null;
+    }
   }
 
 
@@ -197,9 +305,11 @@ public class TransportUDP extends TransportNet
   {
     TransportUDP trans = null;
     trans = (TransportUDP) super.clone();
-    trans.socket = bindNextLocalPort();
-    trans.recvBuffer = recvBuffer.clone();
-    trans.dgram = new DatagramPacket(trans.recvBuffer, trans.recvBuffer.length);
+    trans.channel = bindNextLocalPort();
+    trans.recvBuffer = null;
+    trans.batchSrc = null;
+    if (batch>0)
+      trans.coalescer = new Coalescer(trans, mtu, batch);
 
     return trans;
   }
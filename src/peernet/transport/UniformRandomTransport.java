@@ -82,4 +82,15 @@ public class UniformRandomTransport extends Transport
     addEventIn(delay, senderAddress, ((AddressSim) dest).node, pid,
         payload);
   }
+
+
+
+  /**
+   * Returns the configured minimum delay.
+   */
+  @Override
+  public long minDelay()
+  {
+    return min;
+  }
 }